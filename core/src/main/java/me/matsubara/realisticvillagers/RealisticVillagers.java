@@ -250,11 +250,10 @@ public final class RealisticVillagers extends JavaPlugin {
 
         logger.info("Recipes created!");
         logger.info("");
-        logger.info("Loading entity data from all worlds...");
+        logger.info("Loading entity data from all worlds in the background...");
 
-        converter.loadData();
+        tracker.loadOfflineData();
 
-        logger.info("Data loaded!");
         logger.info("");
         logger.info("Loading loots from the configuration files...");
 
@@ -297,8 +296,14 @@ public final class RealisticVillagers extends JavaPlugin {
             for (Villager villager : world.getEntitiesByClass(Villager.class)) {
                 if (tracker.isInvalid(villager, true)) continue;
                 converter.getNPC(villager).ifPresent(IVillagerNPC::stopExchangeables);
+
+                // The worlds are saved after disabling, the family records must be up to date before saving them.
+                tracker.updateData(villager);
             }
         }
+
+        tracker.getFamilyGraph().save();
+        tracker.getOfflineTags().close();
     }
 
     private void logLoadingTime(boolean loading, long now) {
@@ -871,11 +876,15 @@ public final class RealisticVillagers extends JavaPlugin {
     }
 
     public void openWhistleGUI(Player player, @Nullable Integer page, @Nullable String keyword) {
+        if (!tracker.checkOfflineReady(player)) return;
+
+        // Only the villagers related to the player, the data of the loaded ones is checked again below.
+        UUID playerUUID = player.getUniqueId();
         List<IVillagerNPC> family = tracker.getOfflineVillagers()
+                .getFamilyOf(playerUUID)
                 .stream()
                 .filter(offline -> {
                     Villager bukkit = offline.bukkit() instanceof Villager villager ? villager : null;
-                    UUID playerUUID = player.getUniqueId();
                     if (bukkit != null) {
                         Optional<IVillagerNPC> online = converter.getNPC(bukkit);
                         return online.isPresent() && online.get().isFamily(playerUUID, true);
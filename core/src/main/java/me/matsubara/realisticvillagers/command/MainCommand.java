@@ -1,15 +1,25 @@
 package me.matsubara.realisticvillagers.command;
 
+import com.github.retrooper.packetevents.protocol.packettype.PacketTypeCommon;
 import com.github.retrooper.packetevents.protocol.player.TextureProperty;
 import me.matsubara.realisticvillagers.RealisticVillagers;
+import me.matsubara.realisticvillagers.data.EncodedSection;
 import me.matsubara.realisticvillagers.entity.IVillagerNPC;
 import me.matsubara.realisticvillagers.files.Config;
 import me.matsubara.realisticvillagers.files.Messages;
 import me.matsubara.realisticvillagers.gui.InteractGUI;
 import me.matsubara.realisticvillagers.gui.types.SkinGUI;
+import me.matsubara.realisticvillagers.handler.protocol.PacketMetrics;
+import me.matsubara.realisticvillagers.handler.protocol.VillagerHandler;
 import me.matsubara.realisticvillagers.manager.revive.MonumentAnimation;
 import me.matsubara.realisticvillagers.manager.revive.ReviveManager;
 import me.matsubara.realisticvillagers.nms.INMSConverter;
+import me.matsubara.realisticvillagers.npc.NPCLod;
+import me.matsubara.realisticvillagers.npc.NametagRenderCache;
+import me.matsubara.realisticvillagers.npc.modifier.PacketBatch;
+import me.matsubara.realisticvillagers.tracker.OfflineSnapshotMetrics;
+import me.matsubara.realisticvillagers.tracker.OfflineTagStore;
+import me.matsubara.realisticvillagers.tracker.OfflineVillagerRegistry;
 import me.matsubara.realisticvillagers.tracker.VillagerTracker;
 import me.matsubara.realisticvillagers.util.ItemBuilder;
 import me.matsubara.realisticvillagers.util.PluginUtils;
@@ -58,7 +68,11 @@ public class MainCommand implements CommandExecutor, TabCompleter {
             "force-divorce",
             "add-skin",
             "set-skin",
-            "skins");
+            "skins",
+            "debug",
+            "metrics");
+    private static final List<String> DEBUG_ARGS = List.of("lod", "memory");
+    private static final List<String> METRICS_ARGS = List.of("packets");
     private static final List<String> HELP = Stream.of(
             "&8----------------------------------------",
             "&6&lRealisticVillagers &f&oCommands &c<required> | [optional]",
@@ -71,6 +85,8 @@ public class MainCommand implements CommandExecutor, TabCompleter {
             "&e/rv add-skin <sex> <age-stage> <texture> <signature> &f- &7Add a new skin (from the console).",
             "&e/rv set-skin <sex> <id> &f- &7Gives you an item to change the skin of a villager.",
             "&e/rv skins [sex] [age-stage] [page] &f- &7Manage all skins.",
+            "&e/rv debug <lod/memory> &f- &7Shows debug information.",
+            "&e/rv metrics <packets> &f- &7Shows performance metrics.",
             "&8----------------------------------------").map(PluginUtils::translate).toList();
     private static final List<String> SKIN_ID_ARGS = List.of("<id>");
     private static final List<String> TEXTURE_ARGS = List.of("<texture>");
@@ -102,6 +118,18 @@ public class MainCommand implements CommandExecutor, TabCompleter {
             return true;
         }
 
+        if (subCommand.equalsIgnoreCase("debug")) {
+            if (notAllowed(sender, "realisticvillagers.debug")) return true;
+            handleDebug(sender, args);
+            return true;
+        }
+
+        if (subCommand.equalsIgnoreCase("metrics")) {
+            if (notAllowed(sender, "realisticvillagers.metrics")) return true;
+            handleMetrics(sender, args);
+            return true;
+        }
+
         if (subCommand.equalsIgnoreCase("add-skin") && args.length == 5) {
             if (Config.MINESKIN_API_KEY.asString().isEmpty()) {
                 messages.send(sender, Messages.Message.NO_MINESKIN_API_KEY);
@@ -227,6 +255,8 @@ public class MainCommand implements CommandExecutor, TabCompleter {
             // Reload gift categories and update mineskin api-key.
             plugin.getGiftManager().loadGiftCategories();
             tracker.updateMineskinApiKey();
+            tracker.getHandler().updateSkinsDisabled();
+            tracker.getHandler().trackAll();
 
             messages.send(sender, Messages.Message.RELOAD);
 
@@ -278,6 +308,7 @@ public class MainCommand implements CommandExecutor, TabCompleter {
                     });
 
             // Update nametag from config.
+            tracker.getPool().getNametagCache().invalidateAll();
             handleChangedOption(false, true, (npc, state) -> plugin.getTracker().getNPC(npc.bukkit().getEntityId())
                     .ifPresent(temp -> temp.getSeeingPlayers().forEach(temp::refreshNametags)));
 
@@ -315,6 +346,9 @@ public class MainCommand implements CommandExecutor, TabCompleter {
         VillagerTracker tracker = plugin.getTracker();
         INMSConverter converter = plugin.getConverter();
 
+        // The villager partner may not be known yet.
+        if (!tracker.checkOfflineReady(sender)) return;
+
         @SuppressWarnings("deprecation") OfflinePlayer offline = args.length > 1 ? Bukkit.getOfflinePlayer(args[1]) : sender instanceof Player ? (Player) sender : null;
         if (offline == null || !offline.hasPlayedBefore()) {
             messages.sendMessages(sender, Messages.Message.UNKNOWN_PLAYER);
@@ -343,21 +377,14 @@ public class MainCommand implements CommandExecutor, TabCompleter {
             return;
         }
 
-        for (IVillagerNPC offlineVillager : tracker.getOfflineVillagers()) {
-            if (!offlineVillager.getUniqueId().equals(partnerUUID)) continue;
-
+        IVillagerNPC offlineVillager = tracker.getOfflineVillagers().get(partnerUUID);
+        if (offlineVillager != null) {
             LivingEntity bukkit = offlineVillager.bukkit();
-            if (bukkit == null) {
-                bukkit = plugin.getUnloadedOffline(offlineVillager);
-                if (bukkit == null) continue;
-            }
+            if (bukkit == null) bukkit = plugin.getUnloadedOffline(offlineVillager);
 
             // In this case, we don't need to ignore invalid villagers.
-            IVillagerNPC npc = converter.getNPC(bukkit).orElse(null);
-            if (npc == null) continue;
-
-            npc.divorceAndDropRing(player);
-            break;
+            IVillagerNPC npc = bukkit != null ? converter.getNPC(bukkit).orElse(null) : null;
+            if (npc != null) npc.divorceAndDropRing(player);
         }
 
         // At this point, either the player or the villager (or both) should be divorced.
@@ -367,6 +394,135 @@ public class MainCommand implements CommandExecutor, TabCompleter {
                 string -> string.replace("%player-name%", Objects.requireNonNullElse(offline.getName(), "???")));
     }
 
+    private void handleDebug(CommandSender sender, @NotNull String[] args) {
+        String type = args.length > 1 ? args[1].toLowerCase(Locale.ROOT) : "";
+        if (!DEBUG_ARGS.contains(type)) {
+            plugin.getMessages().send(sender, Messages.Message.INVALID_COMMAND);
+            return;
+        }
+
+        if (type.equals("lod")) {
+            Map<Player, int[]> counts = plugin.getTracker().getPool().getLodCounts();
+            sender.sendMessage(PluginUtils.translate(String.format(
+                    "&6&lLOD &7(medium: %s blocks, far: %s blocks) &8- &7%s player(s)",
+                    Config.LOD_MEDIUM_DISTANCE.asInt(),
+                    Config.LOD_FAR_DISTANCE.asInt(),
+                    counts.size())));
+
+            counts.forEach((player, amount) -> sender.sendMessage(PluginUtils.translate(String.format(
+                    "&e%s &f- &7near: &a%s&7, medium: &e%s&7, far: &c%s",
+                    player.getName(),
+                    amount[NPCLod.NEAR.ordinal()],
+                    amount[NPCLod.MEDIUM.ordinal()],
+                    amount[NPCLod.FAR.ordinal()]))));
+        } else if (type.equals("memory")) {
+            OfflineVillagerRegistry offlines = plugin.getTracker().getOfflineVillagers();
+            OfflineTagStore tags = plugin.getTracker().getOfflineTags();
+            sender.sendMessage(PluginUtils.translate("&6&lOffline villagers &7(" + offlines.size() + ")"));
+            sender.sendMessage(PluginUtils.translate(String.format(
+                    "&eResident &f- &7~%s",
+                    formatBytes(offlines.estimateResidentBytes()))));
+            sender.sendMessage(PluginUtils.translate(String.format(
+                    "&eCached &f- &7%s (%s), on disk: %s (%s, file: %s), unread: %s",
+                    tags.getCachedCount(),
+                    formatBytes(tags.getCachedBytes()),
+                    tags.getSpilledCount(),
+                    formatBytes(tags.getSpilledBytes()),
+                    formatBytes(tags.getFileBytes()),
+                    tags.getUnreadCount())));
+            sender.sendMessage(PluginUtils.translate(String.format(
+                    "&eFull data &f- &7hits: &a%s&7, decoded hits: &a%s&7, disk reads: &c%s&7, disk writes: &e%s&7, region reads: &c%s",
+                    tags.getHits().sum(),
+                    tags.getDecodedHits().sum(),
+                    tags.getDiskReads().sum(),
+                    tags.getDiskWrites().sum(),
+                    tags.getRegionReads().sum())));
+            sender.sendMessage(PluginUtils.translate(String.format(
+                    "&eFamily records &f- &7%s",
+                    plugin.getTracker().getFamilyGraph().size())));
+            sender.sendMessage(PluginUtils.translate(String.format(Locale.ROOT,
+                    "&eSnapshots &f- &7hit rate: &a%.1f%%&7 (%s/%s), avg. miss: &f%.1fus&7, saved: &f%.2fms",
+                    OfflineSnapshotMetrics.getHitRate() * 100.0d,
+                    OfflineSnapshotMetrics.getHits(),
+                    OfflineSnapshotMetrics.getHits() + OfflineSnapshotMetrics.getMisses(),
+                    OfflineSnapshotMetrics.getAverageMissNanos() / 1000.0d,
+                    OfflineSnapshotMetrics.getSavedNanos() / 1000000.0d)));
+            sender.sendMessage(PluginUtils.translate(String.format(
+                    "&eSaved sections &f- &7encoded: &f%s&7, reused: &a%s",
+                    EncodedSection.getEncoded(),
+                    EncodedSection.getReused())));
+
+            NametagRenderCache nametags = plugin.getTracker().getPool().getNametagCache();
+            sender.sendMessage(PluginUtils.translate(String.format(
+                    "&eNametags &f- &7cached: &f%s&7, hits: &a%s&7, misses: &c%s",
+                    nametags.size(),
+                    nametags.getHits(),
+                    nametags.getMisses())));
+        }
+    }
+
+    private @NotNull String formatBytes(long bytes) {
+        if (bytes < 1024L) return bytes + " B";
+        if (bytes < 1024L * 1024L) return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0d);
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0d * 1024.0d));
+    }
+
+    private void handleMetrics(CommandSender sender, @NotNull String[] args) {
+        String type = args.length > 1 ? args[1].toLowerCase(Locale.ROOT) : "";
+        if (!METRICS_ARGS.contains(type)) {
+            plugin.getMessages().send(sender, Messages.Message.INVALID_COMMAND);
+            return;
+        }
+
+        if (type.equals("packets")) {
+            sendPacketMetrics(sender, "last " + PacketMetrics.getWindowSeconds() + "s", PacketMetrics.getLastWindow());
+            sendPacketMetrics(sender, "total", PacketMetrics.getTotal());
+            sender.sendMessage(PluginUtils.translate(String.format(Locale.ROOT,
+                    "&eBatches &f- &7packets: &f%s&7, flushes: &f%s&7, per spawn: &a%.1f&7 packet(s), &a%.2f&7 flush(es)",
+                    PacketBatch.getPackets(),
+                    PacketBatch.getFlushes(),
+                    PacketBatch.getPacketsPerSpawn(),
+                    PacketBatch.getFlushesPerSpawn())));
+
+            VillagerHandler handler = plugin.getTracker().getHandler();
+            sender.sendMessage(PluginUtils.translate(String.format(
+                    "&eBody rotations &f- &7head looks: &f%s&7, sent: &a%s&7, skipped: &c%s&7, throttled: &e%s&7, merged: &b%s",
+                    handler.getHeadLooks(),
+                    handler.getBodyRotations(),
+                    handler.getSkippedRotations(),
+                    handler.getThrottledRotations(),
+                    handler.getMergedRotations())));
+        }
+    }
+
+    private void sendPacketMetrics(@NotNull CommandSender sender, String title, PacketMetrics.Window window) {
+        sender.sendMessage(PluginUtils.translate("&6&lPackets &7(" + title + ")"));
+
+        for (PacketMetrics.Source source : PacketMetrics.Source.values()) {
+            Map<PacketTypeCommon, PacketMetrics.Stats> stats = window.getStats(source);
+            if (stats.isEmpty()) continue;
+
+            sender.sendMessage(PluginUtils.translate("&e" + source.name().toLowerCase(Locale.ROOT).replace("_", "-") + ":"));
+
+            // Most expensive first.
+            stats.entrySet().stream()
+                    .sorted(Comparator.comparingLong((Map.Entry<PacketTypeCommon, PacketMetrics.Stats> entry) -> entry.getValue().getNanos()).reversed())
+                    .forEach(entry -> {
+                        PacketMetrics.Stats value = entry.getValue();
+                        sender.sendMessage(PluginUtils.translate(String.format(Locale.ROOT,
+                                " &f%s &7- seen: &a%s&7, cancelled: &c%s&7, rewritten: &e%s&7, sent: &b%s&7, avg: &f%.1fus&7, p99: &f<%.1fus&7, total: &f%.2fms",
+                                entry.getKey(),
+                                value.getSeen(),
+                                value.getCancelled(),
+                                value.getRewritten(),
+                                value.getSent(),
+                                value.getAverageNanos() / 1000.0d,
+                                value.getPercentileNanos(0.99d) / 1000.0d,
+                                value.getNanos() / 1000000.0d)));
+                    });
+        }
+    }
+
     private boolean getItemCommand(CommandSender sender, String[] args, String itemGetter, @NotNull Shape shape) {
         return getItemCommand(sender, args, itemGetter, shape.getResult());
     }
@@ -416,6 +572,12 @@ public class MainCommand implements CommandExecutor, TabCompleter {
             if (SEX_USERS.contains(args[0].toLowerCase(Locale.ROOT))) {
                 return StringUtil.copyPartialMatches(args[1], SEX_LIST, new ArrayList<>());
             }
+            if (args[0].equalsIgnoreCase("debug")) {
+                return StringUtil.copyPartialMatches(args[1], DEBUG_ARGS, new ArrayList<>());
+            }
+            if (args[0].equalsIgnoreCase("metrics")) {
+                return StringUtil.copyPartialMatches(args[1], METRICS_ARGS, new ArrayList<>());
+            }
             // give_(item) & force-divorce require a player, so null will give a list with online players; empty list for reload or unknown subcommand.
             return args[0].equalsIgnoreCase("reload") || !COMMAND_ARGS.contains(args[0]) ? Collections.emptyList() : null;
         }
@@ -0,0 +1,40 @@
+package me.matsubara.realisticvillagers.data;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// The last encoded value of a section of the data of a villager (inventory, gossips, etc.).
+// A copy of the values of the section is kept with it, it's only encoded again when they don't match the current ones.
+public final class EncodedSection<S, T> {
+
+    private static final LongAdder ENCODED = new LongAdder();
+    private static final LongAdder REUSED = new LongAdder();
+
+    private T encoded;
+    private S state;
+
+    public T get(@NotNull Predicate<S> unchanged, @NotNull Supplier<S> state, @NotNull Supplier<T> encoder) {
+        if (encoded != null && unchanged.test(this.state)) {
+            REUSED.increment();
+            return encoded;
+        }
+
+        // The values are copied before encoding them, if they change in between, the next save will encode them again.
+        this.state = state.get();
+        encoded = encoder.get();
+
+        ENCODED.increment();
+        return encoded;
+    }
+
+    public static long getEncoded() {
+        return ENCODED.sum();
+    }
+
+    public static long getReused() {
+        return REUSED.sum();
+    }
+}
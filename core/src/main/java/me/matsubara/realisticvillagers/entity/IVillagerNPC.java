@@ -42,6 +42,21 @@ public interface IVillagerNPC {
     @SuppressWarnings("unused")
     boolean isMotherVillager();
 
+    default @Nullable UUID getPartnerUUID() {
+        IVillagerNPC partner = getPartner();
+        return partner != null ? partner.getUniqueId() : null;
+    }
+
+    default @Nullable UUID getFatherUUID() {
+        IVillagerNPC father = getFather();
+        return father != null ? father.getUniqueId() : null;
+    }
+
+    default @Nullable UUID getMotherUUID() {
+        IVillagerNPC mother = getMother();
+        return mother != null ? mother.getUniqueId() : null;
+    }
+
     List<IVillagerNPC> getChildrens();
 
     LivingEntity bukkit();
@@ -9,6 +9,14 @@ import java.util.List;
 
 public enum Config {
     RENDER_DISTANCE("render-distance"),
+    NPC_SPAWNS_PER_TICK("npc-spawns-per-tick"),
+    LOD_MEDIUM_DISTANCE("render-lod.medium-distance"),
+    LOD_FAR_DISTANCE("render-lod.far-distance"),
+    LOD_MEDIUM_ROTATION_INTERVAL("render-lod.medium-rotation-interval"),
+    BODY_ROTATION_MIN_YAW_CHANGE("body-rotation.min-yaw-change"),
+    BODY_ROTATION_INTERVAL("body-rotation.interval"),
+    OFFLINE_DATA_CACHE_SIZE("offline-data-cache-size"),
+    REGION_SCAN_THREADS("region-scan-threads"),
     MINESKIN_API_KEY("mineskin-api-key"),
     DISABLE_INTERACTIONS("disable-interactions"),
     MAX_GOSSIP_TOPICS("max-gossip-topics"),
@@ -229,6 +229,7 @@ public final class Messages {
         INVALID_COMMAND,
         NO_MINESKIN_API_KEY,
         NO_SKIN_CACHED,
+        OFFLINE_DATA_LOADING,
         FOLLOW_ME_START("follow-me.start"),
         FOLLOW_ME_STOP("follow-me.stop"),
         FOLLOW_ME_LOW_REPUTATION("follow-me.low-reputation"),
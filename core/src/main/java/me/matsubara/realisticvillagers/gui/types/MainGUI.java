@@ -188,7 +188,8 @@ public final class MainGUI extends InteractGUI {
 
         VillagerTracker tracker = plugin.getTracker();
 
-        String deadIcon = Config.DEAD.asString();
+        // Until all the villagers are loaded, a relative that isn't found may still be alive.
+        String deadIcon = tracker.isOfflineReady() ? Config.DEAD.asString() : "";
         if (!deadIcon.isEmpty()) deadIcon = " " + deadIcon + " ";
         else deadIcon = " ";
 
@@ -1,7 +1,5 @@
 package me.matsubara.realisticvillagers.handler.npc;
 
-import com.github.retrooper.packetevents.PacketEvents;
-import com.github.retrooper.packetevents.manager.protocol.ProtocolManager;
 import com.github.retrooper.packetevents.protocol.attribute.Attributes;
 import com.github.retrooper.packetevents.protocol.entity.pose.EntityPose;
 import com.github.retrooper.packetevents.util.Vector3i;
@@ -12,12 +10,12 @@ import me.matsubara.realisticvillagers.entity.IVillagerNPC;
 import me.matsubara.realisticvillagers.npc.NPC;
 import me.matsubara.realisticvillagers.npc.SpawnCustomizer;
 import me.matsubara.realisticvillagers.npc.modifier.MetadataModifier;
+import me.matsubara.realisticvillagers.npc.modifier.PacketBatch;
 import me.matsubara.realisticvillagers.util.PluginUtils;
 import org.bukkit.Location;
 import org.bukkit.entity.*;
 import org.bukkit.entity.memory.MemoryKey;
 import org.bukkit.inventory.EntityEquipment;
-import org.bukkit.inventory.EquipmentSlot;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -32,14 +30,14 @@ public record NPCHandler(RealisticVillagers plugin) implements SpawnCustomizer {
     }
 
     @Override
-    public void handleSpawn(@NotNull NPC npc, @NotNull Player player) {
+    public void handleSpawn(@NotNull NPC npc, @NotNull Player player, @NotNull PacketBatch batch) {
         IVillagerNPC villager = npc.getNpc();
 
         LivingEntity bukkit = villager.bukkit();
         if (bukkit == null) return;
 
         Location location = bukkit.getLocation();
-        npc.rotation().queueHeadRotation(location.getYaw()).send(player);
+        npc.rotation().queueHeadRotation(location.getYaw()).send(batch);
 
         MetadataModifier metadata = npc.metadata();
 
@@ -105,7 +103,7 @@ public record NPCHandler(RealisticVillagers plugin) implements SpawnCustomizer {
             metadata.queue(MetadataModifier.EntityMetadata.BED_POS, new Vector3i(home.getBlockX(), home.getBlockY(), home.getBlockZ()));
         }
 
-        metadata.queue(MetadataModifier.EntityMetadata.SKIN_LAYERS, true).send(player);
+        metadata.queue(MetadataModifier.EntityMetadata.SKIN_LAYERS, true);
 
         if (villager.validShoulderEntityLeft()) {
             metadata.queue(MetadataModifier.EntityMetadata.SHOULDER_ENTITY_LEFT, villager.getShoulderEntityLeft());
@@ -115,39 +113,36 @@ public record NPCHandler(RealisticVillagers plugin) implements SpawnCustomizer {
             metadata.queue(MetadataModifier.EntityMetadata.SHOULDER_ENTITY_RIGHT, villager.getShoulderEntityRight());
         }
 
-        metadata.send(player);
-
-        ProtocolManager manager = PacketEvents.getAPI().getProtocolManager();
-        Object channel = PacketEvents.getAPI().getPlayerManager().getChannel(player);
+        metadata.send(batch);
 
         // Mount vehicles.
         if (bukkit.getVehicle() instanceof Vehicle vehicle) {
             int[] passengers = vehicle.getPassengers().stream().mapToInt(Entity::getEntityId).toArray();
-            WrapperPlayServerSetPassengers wrapper = new WrapperPlayServerSetPassengers(vehicle.getEntityId(), passengers);
-            manager.sendPacket(channel, wrapper);
+            batch.add(new WrapperPlayServerSetPassengers(vehicle.getEntityId(), passengers));
         }
 
         EntityEquipment equipment = bukkit.getEquipment();
         if (equipment == null) return;
 
-        for (EquipmentSlot slot : EquipmentSlot.values()) {
-            com.github.retrooper.packetevents.protocol.player.EquipmentSlot itemSlot = slotToWrapper(slot);
-            if (itemSlot == null) continue;
-
-            npc.equipment().queue(itemSlot, equipment.getItem(slot)).send(player);
+        // Far away NPCs don't need equipment.
+        if (npc.getLod(player).isEquipment()) {
+            npc.equipment().queueAll(equipment, false).send(batch);
         }
 
-        adaptScale(player, npc);
+        adaptScale(npc, batch);
     }
 
     public void adaptScale(Player player, @NotNull NPC npc) {
-        if (!(npc.getNpc().bukkit() instanceof Villager villager)) return;
+        PacketBatch batch = new PacketBatch(player);
+        adaptScale(npc, batch);
+        batch.flush();
+    }
 
-        WrapperPlayServerUpdateAttributes wrapper = new WrapperPlayServerUpdateAttributes(npc.getEntityId(), List.of(
-                new WrapperPlayServerUpdateAttributes.Property(Attributes.GENERIC_SCALE, villager.isAdult() ? 1.0d : 0.5d, Collections.emptyList())));
+    private void adaptScale(@NotNull NPC npc, PacketBatch batch) {
+        if (!(npc.getNpc().bukkit() instanceof Villager villager)) return;
 
-        Object channel = PacketEvents.getAPI().getPlayerManager().getChannel(player);
-        PacketEvents.getAPI().getProtocolManager().sendPacket(channel, wrapper);
+        batch.add(new WrapperPlayServerUpdateAttributes(npc.getEntityId(), List.of(
+                new WrapperPlayServerUpdateAttributes.Property(Attributes.GENERIC_SCALE, villager.isAdult() ? 1.0d : 0.5d, Collections.emptyList()))));
     }
 
     @Contract(pure = true)
@@ -155,18 +150,4 @@ public record NPCHandler(RealisticVillagers plugin) implements SpawnCustomizer {
         if (pose == Pose.SNEAKING) return EntityPose.CROUCHING;
         return PluginUtils.getOrNull(EntityPose.class, pose.name());
     }
-
-    @SuppressWarnings("UnnecessaryDefault")
-    @Contract(pure = true)
-    private @Nullable com.github.retrooper.packetevents.protocol.player.EquipmentSlot slotToWrapper(@NotNull EquipmentSlot slot) {
-        return switch (slot) {
-            case HEAD -> com.github.retrooper.packetevents.protocol.player.EquipmentSlot.HELMET;
-            case CHEST -> com.github.retrooper.packetevents.protocol.player.EquipmentSlot.CHEST_PLATE;
-            case LEGS -> com.github.retrooper.packetevents.protocol.player.EquipmentSlot.LEGGINGS;
-            case FEET -> com.github.retrooper.packetevents.protocol.player.EquipmentSlot.BOOTS;
-            case HAND -> com.github.retrooper.packetevents.protocol.player.EquipmentSlot.MAIN_HAND;
-            case OFF_HAND -> com.github.retrooper.packetevents.protocol.player.EquipmentSlot.OFF_HAND;
-            default -> null; // We need to keep this for EquipmentSlot#BODY.
-        };
-    }
 }
\ No newline at end of file
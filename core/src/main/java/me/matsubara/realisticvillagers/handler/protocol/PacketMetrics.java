@@ -0,0 +1,169 @@
+package me.matsubara.realisticvillagers.handler.protocol;
+
+import com.github.retrooper.packetevents.protocol.packettype.PacketTypeCommon;
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and latencies of the packets handled/sent by the plugin, since startup and for the last complete window.
+// Everything is recorded with adders/atomic arrays, so recording doesn't block the netty threads.
+public final class PacketMetrics {
+
+    private static final long WINDOW_LENGTH = TimeUnit.SECONDS.toNanos(60L);
+
+    private static final Window TOTAL = new Window(System.nanoTime());
+    private static final AtomicReference<Window> CURRENT = new AtomicReference<>(new Window(System.nanoTime()));
+    private static volatile @Nullable Window previous;
+
+    private PacketMetrics() {
+    }
+
+    public enum Source {
+        VILLAGER_HANDLER,
+        CHEST_HANDLER,
+        NPC_MODIFIERS
+    }
+
+    // A packet went through one of our listeners.
+    public static void handled(Source source, PacketTypeCommon type, long start, boolean cancelled) {
+        long nanos = System.nanoTime() - start;
+        TOTAL.get(source, type).handled(nanos, cancelled);
+        current().get(source, type).handled(nanos, cancelled);
+    }
+
+    // A packet was modified (in place or to be re-encoded).
+    public static void rewritten(Source source, PacketTypeCommon type) {
+        TOTAL.get(source, type).rewritten.increment();
+        current().get(source, type).rewritten.increment();
+    }
+
+    // A packet was created and sent by the plugin.
+    public static void sent(Source source, @Nullable PacketTypeCommon type) {
+        if (type == null) return;
+        TOTAL.get(source, type).sent.increment();
+        current().get(source, type).sent.increment();
+    }
+
+    public static Window getTotal() {
+        return TOTAL;
+    }
+
+    // The last complete window or, if there's none yet, the current one.
+    public static Window getLastWindow() {
+        current();
+        Window last = previous;
+        return last != null ? last : CURRENT.get();
+    }
+
+    public static long getWindowSeconds() {
+        return TimeUnit.NANOSECONDS.toSeconds(WINDOW_LENGTH);
+    }
+
+    private static Window current() {
+        Window window = CURRENT.get();
+
+        long now = System.nanoTime();
+        if (now - window.start < WINDOW_LENGTH) return window;
+
+        // Only one thread rotates the window, the rest keep using the one they get.
+        Window next = new Window(now);
+        if (CURRENT.compareAndSet(window, next)) {
+            previous = window;
+            return next;
+        }
+        return CURRENT.get();
+    }
+
+    public static class Window {
+
+        private final @Getter long start;
+        private final Map<PacketTypeCommon, Stats>[] stats;
+
+        @SuppressWarnings("unchecked")
+        private Window(long start) {
+            this.start = start;
+            this.stats = new Map[Source.values().length];
+            for (int i = 0; i < stats.length; i++) {
+                stats[i] = new ConcurrentHashMap<>();
+            }
+        }
+
+        public Map<PacketTypeCommon, Stats> getStats(@NotNull Source source) {
+            return stats[source.ordinal()];
+        }
+
+        private Stats get(@NotNull Source source, PacketTypeCommon type) {
+            Map<PacketTypeCommon, Stats> map = stats[source.ordinal()];
+            Stats stats = map.get(type);
+            return stats != null ? stats : map.computeIfAbsent(type, temp -> new Stats());
+        }
+    }
+
+    public static class Stats {
+
+        private final LongAdder seen = new LongAdder();
+        private final LongAdder cancelled = new LongAdder();
+        private final LongAdder rewritten = new LongAdder();
+        private final LongAdder sent = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        // Power of 2 buckets, the bucket N counts the latencies between 2^N and 2^(N+1) nanoseconds.
+        private final AtomicLongArray histogram = new AtomicLongArray(Long.SIZE);
+
+        private void handled(long nanos, boolean cancelled) {
+            seen.increment();
+            if (cancelled) this.cancelled.increment();
+            this.nanos.add(nanos);
+            histogram.incrementAndGet(Long.SIZE - 1 - Long.numberOfLeadingZeros(Math.max(1L, nanos)));
+        }
+
+        public long getSeen() {
+            return seen.sum();
+        }
+
+        public long getCancelled() {
+            return cancelled.sum();
+        }
+
+        public long getRewritten() {
+            return rewritten.sum();
+        }
+
+        public long getSent() {
+            return sent.sum();
+        }
+
+        public long getNanos() {
+            return nanos.sum();
+        }
+
+        public double getAverageNanos() {
+            long seen = getSeen();
+            return seen == 0L ? 0.0d : (double) getNanos() / seen;
+        }
+
+        // Upper bound of the bucket containing the given percentile (0-1).
+        public long getPercentileNanos(double percentile) {
+            long total = 0L;
+            long[] counts = new long[histogram.length()];
+            for (int i = 0; i < counts.length; i++) {
+                total += counts[i] = histogram.get(i);
+            }
+            if (total == 0L) return 0L;
+
+            long target = (long) Math.ceil(total * percentile), count = 0L;
+            for (int i = 0; i < counts.length; i++) {
+                count += counts[i];
+                if (count >= target) return i >= Long.SIZE - 2 ? Long.MAX_VALUE : 1L << (i + 1);
+            }
+            return Long.MAX_VALUE;
+        }
+    }
+}
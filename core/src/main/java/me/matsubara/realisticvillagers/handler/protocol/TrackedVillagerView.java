@@ -0,0 +1,36 @@
+package me.matsubara.realisticvillagers.handler.protocol;
+
+import lombok.Getter;
+import org.bukkit.entity.EntityType;
+
+import java.util.UUID;
+
+// What the netty thread needs to know about a (valid) villager, copied from the main thread.
+// The entity itself is never touched from netty; the state that changes is copied when it changes (see VillagerHandler#updateView()).
+@Getter
+public final class TrackedVillagerView {
+
+    private final int entityId;
+    private final UUID uniqueId;
+    private final EntityType type;
+    private volatile float pitch;
+    private volatile boolean reviving;
+    private volatile boolean shakingHead;
+
+    public TrackedVillagerView(int entityId, UUID uniqueId, EntityType type) {
+        this.entityId = entityId;
+        this.uniqueId = uniqueId;
+        this.type = type;
+    }
+
+    // Only called from the main thread.
+    public void update(boolean reviving, boolean shakingHead) {
+        if (this.reviving != reviving) this.reviving = reviving;
+        if (this.shakingHead != shakingHead) this.shakingHead = shakingHead;
+    }
+
+    // Called from netty, with the pitch of the movement packets.
+    public void setPitch(float pitch) {
+        if (this.pitch != pitch) this.pitch = pitch;
+    }
+}
@@ -7,41 +7,64 @@ import com.github.retrooper.packetevents.event.PacketListenerPriority;
 import com.github.retrooper.packetevents.event.SimplePacketListenerAbstract;
 import com.github.retrooper.packetevents.event.simple.PacketPlaySendEvent;
 import com.github.retrooper.packetevents.manager.server.ServerVersion;
-import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityDataType;
 import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
+import com.github.retrooper.packetevents.netty.buffer.ByteBufHelper;
 import com.github.retrooper.packetevents.protocol.packettype.PacketType;
+import com.github.retrooper.packetevents.protocol.player.ClientVersion;
 import com.github.retrooper.packetevents.wrapper.PacketWrapper;
 import com.github.retrooper.packetevents.wrapper.play.server.*;
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Sets;
 import io.github.retrooper.packetevents.util.SpigotConversionUtil;
-import io.github.retrooper.packetevents.util.SpigotReflectionUtil;
 import lombok.Getter;
 import me.matsubara.realisticvillagers.RealisticVillagers;
 import me.matsubara.realisticvillagers.entity.IVillagerNPC;
+import me.matsubara.realisticvillagers.files.Config;
 import me.matsubara.realisticvillagers.handler.npc.NPCHandler;
-import me.matsubara.realisticvillagers.nms.INMSConverter;
+import me.matsubara.realisticvillagers.npc.BodyRotation;
 import me.matsubara.realisticvillagers.npc.NPC;
+import me.matsubara.realisticvillagers.npc.NPCLod;
 import org.bukkit.Location;
 import org.bukkit.Raid;
 import org.bukkit.World;
 import org.bukkit.entity.*;
 import org.bukkit.util.BoundingBox;
+import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.function.Predicate;
+import java.util.concurrent.atomic.LongAdder;
 
 public class VillagerHandler extends SimplePacketListenerAbstract {
 
     private final RealisticVillagers plugin;
     private final @Getter Set<UUID> allowSpawn = ConcurrentHashMap.newKeySet();
-    private final List<PacketType.Play.Server> listenTo;
+    private final Set<PacketType.Play.Server> listenTo;
+
+    // The valid villagers by entity id, so the netty thread doesn't need to look up the entity in the world.
+    // Updated from the main thread when a villager is added/removed (or its reviving/shaking head state changes, see VillagerTracker#updateView()),
+    // the pitch is taken from the movement packets sent to the players.
+    private final Map<Integer, TrackedVillagerView> views = new ConcurrentHashMap<>();
+    // The entities of the views, only used from the main thread.
+    private final Map<Integer, AbstractVillager> villagers = new ConcurrentHashMap<>();
+    private volatile boolean skinsDisabled = Config.DISABLE_SKINS.asBool();
+
+    // Body rotation metrics.
+    private final LongAdder headLooks = new LongAdder();
+    private final LongAdder bodyRotations = new LongAdder();
+    private final LongAdder skippedRotations = new LongAdder();
+    private final LongAdder throttledRotations = new LongAdder();
+    private final LongAdder mergedRotations = new LongAdder();
+
+    // Throttled body rotations not merged into a movement packet yet, sent once the interval is over.
+    private final Map<BodyRotation, PendingRotation> pendingRotations = new ConcurrentHashMap<>();
 
     /* VILLAGER METADATA
     ID = 15 | ACCESSOR ID = 15 | VALUE TYPE = Byte | CLAZZ = BYTE (MOB) | NoAI/Is left handed/Is aggresive
@@ -56,22 +79,21 @@ public class VillagerHandler extends SimplePacketListenerAbstract {
     ID = 19 | ACCESSOR ID = 19 | VALUE TYPE = TagCompound | CLAZZ = COMPOUND_TAG | Left shoulder entity data (for occupying parrot)
     ID = 20 | ACCESSOR ID = 20 | VALUE TYPE = TagCompound | CLAZZ = COMPOUND_TAG | Right shoulder entity data (for occupying parrot)
     */
-    private static final Predicate<EntityData> REMOVE_METADATA = data -> {
+    static boolean shouldRemove(int index, EntityDataType<?> type) {
         // Data between 0-14 is the same for players and villagers.
-        int index = data.getIndex();
         if (index <= 14) return false;
 
         // 15 & 16 is unnecessary.
         if (index == 15 || index == 16) return true;
 
         // 17: Keep skin state (over head shake timer).
-        if (index == 17 && data.getType() != EntityDataTypes.BYTE) return true;
+        if (index == 17 && type != EntityDataTypes.BYTE) return true;
 
         // 19 & 20 only exists for players, they shouldn't collide with anything.
-        return data.getType() == EntityDataTypes.VILLAGER_DATA;
-    };
+        return type == EntityDataTypes.VILLAGER_DATA;
+    }
 
-    private static final Set<PacketType.Play.Server> MOVEMENT_PACKETS = Sets.newHashSet(
+    private static final Set<PacketType.Play.Server> MOVEMENT_PACKETS = EnumSet.of(
             PacketType.Play.Server.ENTITY_ROTATION,
             PacketType.Play.Server.ENTITY_HEAD_LOOK,
             PacketType.Play.Server.ENTITY_TELEPORT,
@@ -82,71 +104,73 @@ public class VillagerHandler extends SimplePacketListenerAbstract {
     public VillagerHandler(RealisticVillagers plugin) {
         super(PacketListenerPriority.HIGHEST);
         this.plugin = plugin;
-        this.listenTo = ImmutableList.builder()
-                .addAll(MOVEMENT_PACKETS)
-                .add(
-                        PacketType.Play.Server.SPAWN_ENTITY,
-                        PacketType.Play.Server.SPAWN_LIVING_ENTITY,
-                        PacketType.Play.Server.ENTITY_STATUS,
-                        PacketType.Play.Server.ENTITY_METADATA)
-                .build()
-                .stream()
-                .map(object -> (PacketType.Play.Server) object)
-                .toList();
+        this.listenTo = EnumSet.of(
+                PacketType.Play.Server.SPAWN_ENTITY,
+                PacketType.Play.Server.SPAWN_LIVING_ENTITY,
+                PacketType.Play.Server.ENTITY_STATUS,
+                PacketType.Play.Server.ENTITY_METADATA,
+                PacketType.Play.Server.ENTITY_EQUIPMENT);
+        this.listenTo.addAll(MOVEMENT_PACKETS);
+
+        plugin.getServer().getScheduler().runTask(plugin, this::trackAll);
+        plugin.getServer().getScheduler().runTaskTimer(plugin, this::flushBodyRotations, 1L, 1L);
     }
 
-    @SuppressWarnings("deprecation")
     @Override
     public void onPacketPlaySend(@NotNull PacketPlaySendEvent event) {
         if (event.isCancelled()
                 || !listenTo.contains(event.getPacketType())
                 || !(event.getPlayer() instanceof Player player)) return;
 
+        long start = System.nanoTime();
+        handle(event, player);
+        PacketMetrics.handled(PacketMetrics.Source.VILLAGER_HANDLER, event.getPacketType(), start, event.isCancelled());
+    }
+
+    @SuppressWarnings("deprecation")
+    private void handle(@NotNull PacketPlaySendEvent event, Player player) {
         PacketType.Play.Server type = event.getPacketType();
         boolean isMetadata = type == PacketType.Play.Server.ENTITY_METADATA;
 
-        World world;
         PacketWrapper<?> metadataWrapper;
         int id;
-        Entity entity;
         try {
-            world = player.getWorld();
-            if (isMetadata) {
+            if (isMetadata && event.getLastUsedWrapper() instanceof WrapperPlayServerEntityMetadata decoded) {
+                // Already decoded (and maybe modified) by another listener.
+                metadataWrapper = decoded;
+                id = decoded.getEntityId();
+            } else if (isMetadata) {
                 metadataWrapper = new PacketWrapper<>(event, false);
                 id = metadataWrapper.readVarInt();
             } else {
                 metadataWrapper = null;
                 id = getEntityIdFromPacket(event);
             }
-            entity = id != -1 ? SpigotReflectionUtil.getEntityById(world, id) : null;
         } catch (Throwable ignored) {
-            // Should "fix" → UnsupportedOperationException: The method getWorld is not supported for temporary players.
             // Should "fix" → IOException: Unknown nbt type id X.
-            // Should "fix" → NullPointerException: null (entity)
             if (isMetadata) event.setCancelled(true);
             return;
         }
 
-        if (!(entity instanceof AbstractVillager villager) || plugin.getTracker().isInvalid(villager)) return;
+        TrackedVillagerView view = id != -1 ? views.get(id) : null;
+        if (view == null || skinsDisabled) return;
 
-        UUID uuid = entity.getUniqueId();
-        int entityId = entity.getEntityId();
+        UUID uuid = view.getUniqueId();
 
-        Optional<NPC> npc = plugin.getTracker().getNPC(entityId);
+        Optional<NPC> npc = plugin.getTracker().getNPC(id);
 
         if (isCancellableSpawnPacket(event)) {
             if (!allowSpawn.contains(uuid)) {
                 event.setCancelled(true);
-                npc.ifPresent(value -> rotateBody(event, villager));
+                npc.ifPresent(value -> rotateBody(event, view, value, player));
             }
             return;
         }
 
-        INMSConverter converter = plugin.getConverter();
-
-        if (type == PacketType.Play.Server.ENTITY_STATUS && EntityType.VILLAGER == villager.getType()) {
-            WrapperPlayServerEntityStatus status = new WrapperPlayServerEntityStatus(event);
-            converter.getNPC(villager).ifPresent(temp -> handleStatus(temp, (byte) status.getStatus()));
+        if (type == PacketType.Play.Server.ENTITY_STATUS && EntityType.VILLAGER == view.getType()) {
+            // The particles are spawned from the main thread, where the entity can be used.
+            byte status = (byte) new WrapperPlayServerEntityStatus(event).getStatus();
+            plugin.getServer().getScheduler().runTask(plugin, () -> handleStatus(view.getEntityId(), status));
             return;
         }
 
@@ -162,15 +186,13 @@ public class VillagerHandler extends SimplePacketListenerAbstract {
             if (!version.isNewerThanOrEquals(ServerVersion.V_1_20_4)) return;
 
             try {
-                List<EntityData> metadata = metadataWrapper.readEntityMetadata();
-                if (!metadata.removeIf(REMOVE_METADATA)) return;
+                if (metadataWrapper instanceof WrapperPlayServerEntityMetadata decoded) {
+                    // It'll be re-encoded from the wrapper, so the buffer can't be modified.
+                    if (!decoded.getEntityMetadata().removeIf(data -> shouldRemove(data.getIndex(), data.getType()))) return;
+                    event.markForReEncode(true);
+                } else if (!filterMetadata(metadataWrapper)) return;
 
-                event.setCancelled(true);
-
-                // Cancel the packet and send a new one.
-                WrapperPlayServerEntityMetadata wrapper = new WrapperPlayServerEntityMetadata(id, metadata);
-                Object channel = SpigotReflectionUtil.getChannel(player);
-                PacketEvents.getAPI().getProtocolManager().sendPacket(channel, wrapper);
+                PacketMetrics.rewritten(PacketMetrics.Source.VILLAGER_HANDLER, type);
 
                 // Adapt villager scale using the new scale attribute.
                 // This was added to 1.20.5, but that version was quickly replaced by 1.20.6.
@@ -187,14 +209,174 @@ public class VillagerHandler extends SimplePacketListenerAbstract {
             return;
         }
 
-        if (npc.isEmpty() || !MOVEMENT_PACKETS.contains(type)) return;
+        if (npc.isEmpty()) return;
+
+        if (type == PacketType.Play.Server.ENTITY_EQUIPMENT) {
+            // Far away NPCs don't show equipment, it'll be sent when getting closer.
+            if (!npc.get().getLod(player).isEquipment()) event.setCancelled(true);
+            return;
+        }
+
+        if (!MOVEMENT_PACKETS.contains(type)) return;
+
+        updatePitch(event, view);
+
+        // Rotations are throttled (or not sent) depending on the distance to the player.
+        if ((type == PacketType.Play.Server.ENTITY_HEAD_LOOK && !npc.get().allowHeadRotation(player))
+                || (type == PacketType.Play.Server.ENTITY_ROTATION && npc.get().getLod(player) == NPCLod.FAR)) {
+            event.setCancelled(true);
+            return;
+        }
 
         // Don't modify location while reviving.
-        if (converter.getNPC(villager)
-                .map(IVillagerNPC::isReviving)
-                .orElse(false)) return;
+        if (view.isReviving()) return;
+
+        rotateBody(event, view, npc.get(), player);
+    }
+
+    // Removes the unwanted entries directly from the serialized buffer (positioned after the entity id).
+    // The values are skipped (or read, if the size isn't known without it) to know where each entry ends,
+    // the kept ones are copied as they are.
+    static boolean filterMetadata(@NotNull PacketWrapper<?> wrapper) {
+        Object buffer = wrapper.getBuffer();
+        ClientVersion version = wrapper.getServerVersion().toClientVersion();
+
+        int start = ByteBufHelper.readerIndex(buffer);
+        List<int[]> kept = new ArrayList<>();
+        boolean removed = false;
+
+        short index;
+        while ((index = wrapper.readUnsignedByte()) != 0xFF) {
+            int entryStart = ByteBufHelper.readerIndex(buffer) - 1;
+
+            EntityDataType<?> type = EntityDataTypes.getById(version, wrapper.readVarInt());
+            if (type == null) throw new IllegalStateException("Unknown metadata type at index " + index + "!");
+            skipValue(wrapper, buffer, type);
+
+            int entryEnd = ByteBufHelper.readerIndex(buffer);
+            if (shouldRemove(index, type)) {
+                removed = true;
+            } else {
+                kept.add(new int[]{entryStart, entryEnd});
+            }
+        }
+
+        if (!removed) {
+            ByteBufHelper.readerIndex(buffer, start);
+            return false;
+        }
+
+        // The kept entries are always before the end of their original position, so they can be moved one by one.
+        // The reader index can't be ahead of the writer index, so it's moved back to the start before every write.
+        int end = ByteBufHelper.writerIndex(buffer);
+        int writerIndex = start;
+        for (int[] entry : kept) {
+            int length = entry[1] - entry[0];
+            if (entry[0] != writerIndex) {
+                ByteBufHelper.writerIndex(buffer, end);
+                ByteBufHelper.readerIndex(buffer, entry[0]);
+                byte[] bytes = wrapper.readBytes(length);
+
+                ByteBufHelper.readerIndex(buffer, start);
+                ByteBufHelper.writerIndex(buffer, writerIndex);
+                wrapper.writeBytes(bytes);
+            }
+            writerIndex += length;
+        }
+
+        ByteBufHelper.readerIndex(buffer, start);
+        ByteBufHelper.writerIndex(buffer, writerIndex);
+        wrapper.writeByte(0xFF);
+        return true;
+    }
+
+    // Moves the reader index after the value, only decoding the types whose size depends on the content.
+    private static void skipValue(PacketWrapper<?> wrapper, Object buffer, EntityDataType<?> type) {
+        int size = getFixedSize(type);
+        if (size != -1) {
+            ByteBufHelper.readerIndex(buffer, ByteBufHelper.readerIndex(buffer) + size);
+        } else if (type == EntityDataTypes.INT || type == EntityDataTypes.BLOCK_STATE || type == EntityDataTypes.ENTITY_POSE) {
+            wrapper.readVarInt();
+        } else if (type == EntityDataTypes.VILLAGER_DATA) {
+            // Type, profession and level.
+            wrapper.readVarInt();
+            wrapper.readVarInt();
+            wrapper.readVarInt();
+        } else if (type == EntityDataTypes.OPTIONAL_BLOCK_POSITION) {
+            if (wrapper.readBoolean()) ByteBufHelper.readerIndex(buffer, ByteBufHelper.readerIndex(buffer) + Long.BYTES);
+        } else {
+            type.getDataDeserializer().apply(wrapper);
+        }
+    }
+
+    private static int getFixedSize(EntityDataType<?> type) {
+        if (type == EntityDataTypes.BYTE || type == EntityDataTypes.BOOLEAN) return 1;
+        if (type == EntityDataTypes.FLOAT) return Float.BYTES;
+        if (type == EntityDataTypes.VECTOR3F) return Float.BYTES * 3;
+        if (type == EntityDataTypes.QUATERNION) return Float.BYTES * 4;
+        return -1;
+    }
+
+    public void track(@NotNull AbstractVillager villager) {
+        int entityId = villager.getEntityId();
+        if (plugin.getTracker().isInvalid(villager, true)) {
+            untrack(entityId);
+            return;
+        }
+
+        TrackedVillagerView view = new TrackedVillagerView(entityId, villager.getUniqueId(), villager.getType());
+        updateView(view, villager);
+
+        villagers.put(entityId, villager);
+        views.put(entityId, view);
+    }
+
+    public void untrack(int entityId) {
+        views.remove(entityId);
+        villagers.remove(entityId);
+    }
+
+    // Copies the state used by the rotations, called when it changes.
+    public void updateView(@NotNull IVillagerNPC npc) {
+        TrackedVillagerView view = views.get(npc.bukkit().getEntityId());
+        if (view != null) view.update(npc.isReviving(), npc.isShakingHead());
+    }
+
+    public void updateSkinsDisabled() {
+        skinsDisabled = Config.DISABLE_SKINS.asBool();
+    }
+
+    public int getTrackedCount() {
+        return views.size();
+    }
 
-        rotateBody(event, villager);
+    // Also used after reloading, when a villager may have become (in)valid (world filter, compatibilities, etc.).
+    public void trackAll() {
+        for (World world : plugin.getServer().getWorlds()) {
+            for (AbstractVillager villager : world.getEntitiesByClass(AbstractVillager.class)) {
+                track(villager);
+            }
+        }
+    }
+
+    private void updateView(@NotNull TrackedVillagerView view, @NotNull AbstractVillager villager) {
+        Optional<IVillagerNPC> npc = plugin.getConverter().getNPC(villager);
+        view.setPitch(villager.getLocation().getPitch());
+        view.update(
+                npc.map(IVillagerNPC::isReviving).orElse(false),
+                npc.map(IVillagerNPC::isShakingHead).orElse(false));
+    }
+
+    // The pitch sent to the players, used for the body rotations sent by us.
+    private void updatePitch(@NotNull PacketPlaySendEvent event, @NotNull TrackedVillagerView view) {
+        PacketType.Play.Server type = event.getPacketType();
+        if (type == PacketType.Play.Server.ENTITY_ROTATION) {
+            view.setPitch(new WrapperPlayServerEntityRotation(event).getPitch());
+        } else if (type == PacketType.Play.Server.ENTITY_RELATIVE_MOVE_AND_ROTATION) {
+            view.setPitch(new WrapperPlayServerEntityRelativeMoveAndRotation(event).getPitch());
+        } else if (type == PacketType.Play.Server.ENTITY_TELEPORT) {
+            view.setPitch(new WrapperPlayServerEntityTeleport(event).getPitch());
+        }
     }
 
     private int getEntityIdFromPacket(@NotNull PacketPlaySendEvent event) {
@@ -226,39 +408,174 @@ public class VillagerHandler extends SimplePacketListenerAbstract {
         } else if (type == PacketType.Play.Server.ENTITY_RELATIVE_MOVE_AND_ROTATION) {
             WrapperPlayServerEntityRelativeMoveAndRotation wrapper = new WrapperPlayServerEntityRelativeMoveAndRotation(event);
             return wrapper.getEntityId();
+        } else if (type == PacketType.Play.Server.ENTITY_EQUIPMENT) {
+            WrapperPlayServerEntityEquipment wrapper = new WrapperPlayServerEntityEquipment(event);
+            return wrapper.getEntityId();
         }
         return -1;
     }
 
-    private void rotateBody(@NotNull PacketPlaySendEvent event, @NotNull AbstractVillager villager) {
+    private void rotateBody(@NotNull PacketPlaySendEvent event, @NotNull TrackedVillagerView view, @NotNull NPC npc, Player player) {
         PacketType.Play.Server type = event.getPacketType();
-        if (type != PacketType.Play.Server.ENTITY_HEAD_LOOK) return;
+        BodyRotation body = npc.getBodyRotation(player);
 
-        WrapperPlayServerEntityHeadLook headLook = new WrapperPlayServerEntityHeadLook(event);
+        if (type != PacketType.Play.Server.ENTITY_HEAD_LOOK) {
+            if (body.isPending()) mergeBodyRotation(event, view, body);
+            return;
+        }
 
-        Location location = villager.getLocation();
+        WrapperPlayServerEntityHeadLook headLook = new WrapperPlayServerEntityHeadLook(event);
 
-        float pitch = location.getPitch();
+        float pitch = view.getPitch();
 
         // Rotate the body with the head.
-        if (plugin.getConverter().getNPC(villager)
-                .map(IVillagerNPC::isShakingHead)
-                .orElse(false)) return;
+        if (view.isShakingHead()) return;
+
+        headLooks.increment();
+
+        // The body is already (almost) looking there.
+        float yaw = headLook.getHeadYaw();
+        if (!Float.isNaN(body.getYaw()) && Math.abs(wrapDegrees(yaw - body.getYaw())) < Config.BODY_ROTATION_MIN_YAW_CHANGE.asFloat()) {
+            body.setPending(false);
+            skippedRotations.increment();
+            return;
+        }
+
+        // Too soon, wait for the next movement packet (or head rotation).
+        long now = System.currentTimeMillis();
+        if (now - body.getSentAt() < Config.BODY_ROTATION_INTERVAL.asLong() * 50L) {
+            body.setPendingYaw(yaw);
+            body.setPending(true);
+            pendingRotations.put(body, new PendingRotation(view.getEntityId(), event.getChannel()));
+            throttledRotations.increment();
+            return;
+        }
+
+        body.sent(yaw, now);
+        bodyRotations.increment();
 
         WrapperPlayServerEntityRelativeMoveAndRotation rotation = new WrapperPlayServerEntityRelativeMoveAndRotation(
-                villager.getEntityId(),
+                view.getEntityId(),
                 0.0d,
                 0.0d,
                 0.0d,
-                headLook.getHeadYaw(),
+                yaw,
                 pitch,
                 false);
 
         PacketEvents.getAPI().getProtocolManager().sendPacket(event.getChannel(), rotation);
+        PacketMetrics.sent(PacketMetrics.Source.VILLAGER_HANDLER, PacketType.Play.Server.ENTITY_RELATIVE_MOVE_AND_ROTATION);
+    }
+
+    // Uses a movement packet already being sent to apply the pending body rotation.
+    private void mergeBodyRotation(@NotNull PacketPlaySendEvent event, TrackedVillagerView view, @NotNull BodyRotation body) {
+        PacketType.Play.Server type = event.getPacketType();
+        float yaw = body.getPendingYaw();
+
+        if (type == PacketType.Play.Server.ENTITY_RELATIVE_MOVE_AND_ROTATION) {
+            WrapperPlayServerEntityRelativeMoveAndRotation wrapper = new WrapperPlayServerEntityRelativeMoveAndRotation(event);
+            wrapper.setYaw(yaw);
+            event.markForReEncode(true);
+        } else if (type == PacketType.Play.Server.ENTITY_ROTATION) {
+            WrapperPlayServerEntityRotation wrapper = new WrapperPlayServerEntityRotation(event);
+            wrapper.setYaw(yaw);
+            event.markForReEncode(true);
+        } else if (type == PacketType.Play.Server.ENTITY_RELATIVE_MOVE) {
+            // Replace the packet with one that also contains the rotation.
+            WrapperPlayServerEntityRelativeMove wrapper = new WrapperPlayServerEntityRelativeMove(event);
+            event.setCancelled(true);
+
+            WrapperPlayServerEntityRelativeMoveAndRotation rotation = new WrapperPlayServerEntityRelativeMoveAndRotation(
+                    wrapper.getEntityId(),
+                    wrapper.getDeltaX(),
+                    wrapper.getDeltaY(),
+                    wrapper.getDeltaZ(),
+                    yaw,
+                    view.getPitch(),
+                    wrapper.isOnGround());
+
+            PacketEvents.getAPI().getProtocolManager().sendPacket(event.getChannel(), rotation);
+            PacketMetrics.sent(PacketMetrics.Source.VILLAGER_HANDLER, PacketType.Play.Server.ENTITY_RELATIVE_MOVE_AND_ROTATION);
+        } else return;
+
+        body.sent(yaw, System.currentTimeMillis());
+        mergedRotations.increment();
+        PacketMetrics.rewritten(PacketMetrics.Source.VILLAGER_HANDLER, type);
+    }
+
+    // The last rotation of a turn doesn't have a following movement packet, so it's sent here.
+    private void flushBodyRotations() {
+        if (pendingRotations.isEmpty()) return;
+
+        long now = System.currentTimeMillis();
+        long interval = Config.BODY_ROTATION_INTERVAL.asLong() * 50L;
+
+        pendingRotations.entrySet().removeIf(entry -> {
+            BodyRotation body = entry.getKey();
+            if (!body.isPending()) return true;
+            if (now - body.getSentAt() < interval) return false;
+
+            TrackedVillagerView view = views.get(entry.getValue().entityId());
+            if (view != null) {
+                float yaw = body.getPendingYaw();
+                body.sent(yaw, now);
+                bodyRotations.increment();
+
+                WrapperPlayServerEntityRelativeMoveAndRotation rotation = new WrapperPlayServerEntityRelativeMoveAndRotation(
+                        view.getEntityId(),
+                        0.0d,
+                        0.0d,
+                        0.0d,
+                        yaw,
+                        view.getPitch(),
+                        false);
+
+                PacketEvents.getAPI().getProtocolManager().sendPacket(entry.getValue().channel(), rotation);
+                PacketMetrics.sent(PacketMetrics.Source.VILLAGER_HANDLER, PacketType.Play.Server.ENTITY_RELATIVE_MOVE_AND_ROTATION);
+            }
+            return true;
+        });
+    }
+
+    private record PendingRotation(int entityId, Object channel) {
+    }
+
+    @Contract(pure = true)
+    private static float wrapDegrees(float degrees) {
+        float wrapped = degrees % 360.0f;
+        if (wrapped >= 180.0f) wrapped -= 360.0f;
+        if (wrapped < -180.0f) wrapped += 360.0f;
+        return wrapped;
+    }
+
+    public long getHeadLooks() {
+        return headLooks.sum();
+    }
+
+    public long getBodyRotations() {
+        return bodyRotations.sum();
+    }
+
+    public long getSkippedRotations() {
+        return skippedRotations.sum();
     }
 
-    private void handleStatus(@NotNull IVillagerNPC npc, byte status) {
-        LivingEntity bukkit = npc.bukkit();
+    public long getThrottledRotations() {
+        return throttledRotations.sum();
+    }
+
+    public long getMergedRotations() {
+        return mergedRotations.sum();
+    }
+
+    private void handleStatus(int entityId, byte status) {
+        AbstractVillager villager = villagers.get(entityId);
+        if (villager == null || !villager.isValid()) return;
+
+        Optional<IVillagerNPC> npc = plugin.getConverter().getNPC(villager);
+        if (npc.isEmpty()) return;
+
+        LivingEntity bukkit = npc.get().bukkit();
 
         XParticle particle;
         switch (status) {
@@ -296,7 +613,7 @@ public class VillagerHandler extends SimplePacketListenerAbstract {
         PacketType.Play.Server type = event.getPacketType();
         if (type == PacketType.Play.Server.SPAWN_LIVING_ENTITY) return true;
 
-        if (!XReflection.supports(19) || type != PacketType.Play.Server.SPAWN_ENTITY) return false;
+        if (type != PacketType.Play.Server.SPAWN_ENTITY || !XReflection.supports(19)) return false;
 
         WrapperPlayServerSpawnEntity wrapper = new WrapperPlayServerSpawnEntity(event);
         EntityType entityType = SpigotConversionUtil.toBukkitEntityType(wrapper.getEntityType());
@@ -220,9 +220,8 @@ public final class InventoryListeners implements Listener {
             Location playerLocation = player.getLocation();
 
             UUID villagerUUID = UUID.fromString(villagerUUIDString);
-            for (IVillagerNPC offline : tracker.getOfflineVillagers()) {
-                if (!offline.getUniqueId().equals(villagerUUID)) continue;
-
+            IVillagerNPC offline = tracker.getOfflineVillagers().get(villagerUUID);
+            if (offline != null) {
                 Villager bukkit = offline.bukkit() instanceof Villager villager ? villager : null;
                 boolean teleported = true;
                 if (bukkit != null) PluginUtils.teleportWithPassengers(bukkit, playerLocation);
@@ -236,7 +235,6 @@ public final class InventoryListeners implements Listener {
                         player,
                         teleported ? Messages.Message.WHISTLE_TELEPORTED : Messages.Message.WHISTLE_ERROR,
                         message -> message.replace("%villager-name%", offline.getVillagerName()));
-                break;
             }
 
             closeInventory(player);
@@ -69,6 +69,10 @@ public class BukkitSpawnListeners implements Listener {
         // Is invalid, ignore since we don't want to track those villagers.
         if (!(entity instanceof AbstractVillager villager)) return;
         if (plugin.getTracker().isInvalid(villager, true)) return;
+
+        // Let the packet handler know about this villager before any packet is sent.
+        plugin.getTracker().getHandler().track(villager);
+
         if (villager instanceof Villager temp && handleVillagerMarket(temp)) return;
 
         boolean createData = reason == CreatureSpawnEvent.SpawnReason.SPAWNER_EGG
@@ -1,7 +1,6 @@
 package me.matsubara.realisticvillagers.manager;
 
 import com.github.retrooper.packetevents.PacketEvents;
-import com.google.common.collect.Sets;
 import lombok.Getter;
 import me.matsubara.realisticvillagers.RealisticVillagers;
 import me.matsubara.realisticvillagers.handler.protocol.ChestHandler;
@@ -9,76 +8,94 @@ import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
+import org.bukkit.block.Chest;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryOpenEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.util.Vector;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Getter
 public class ChestManager implements Listener {
 
+    private final RealisticVillagers plugin;
     private final Map<Vector, UUID> villagerChests = new ConcurrentHashMap<>();
-    private final Map<Vector, Set<UUID>> playerChests = new ConcurrentHashMap<>();
+    private final ChestStateIndex index = new ChestStateIndex();
 
     public ChestManager(@NotNull RealisticVillagers plugin) {
+        this.plugin = plugin;
         plugin.getServer().getPluginManager().registerEvents(this, plugin);
         PacketEvents.getAPI().getEventManager().registerListener(new ChestHandler(plugin));
     }
 
+    public void startLooting(@NotNull Chest chest, UUID villager) {
+        villagerChests.put(chest.getLocation().toVector(), villager);
+        index.setLooter(chest, villager);
+    }
+
+    public void stopLooting(@NotNull Chest chest) {
+        villagerChests.remove(chest.getLocation().toVector());
+        index.setLooter(chest, null);
+    }
+
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onPlayerInteract(@NotNull PlayerInteractEvent event) {
         Block block = event.getClickedBlock();
         if (block == null || block.getType() != Material.CHEST) return;
 
-        Vector vector = block.getLocation().toVector();
-
-        Set<UUID> viewers = playerChests.getOrDefault(vector, Sets.newHashSet());
-        viewers.add(event.getPlayer().getUniqueId());
-
-        playerChests.put(vector, viewers);
+        // The chest is about to be opened.
+        markPending(block);
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onInventoryOpen(@NotNull InventoryOpenEvent event) {
-        Location location = event.getInventory().getLocation();
-        if (location == null || location.getBlock().getType() != Material.CHEST) return;
-
-        Vector vector = location.toVector();
+        Block block = getChestBlock(event.getInventory().getLocation());
+        if (block == null) return;
 
-        Set<UUID> viewers = playerChests.getOrDefault(vector, Sets.newHashSet());
-        viewers.remove(event.getPlayer().getUniqueId());
-
-        if (viewers.isEmpty()) {
-            playerChests.remove(vector);
-        }
+        index.addViewer(block);
     }
 
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onInventoryClose(@NotNull InventoryCloseEvent event) {
-        Location location = event.getInventory().getLocation();
+        Block block;
         try {
-            World world;
-            if (location == null
-                    || ((world = location.getWorld()) == null || !world.isChunkLoaded(location.getBlockX(), location.getBlockZ()))
-                    || location.getBlock().getType() != Material.CHEST) return;
+            block = getChestBlock(event.getInventory().getLocation());
         } catch (IllegalStateException exception) {
             return;
         }
+        if (block == null) return;
+
+        // The chest is about to be closed.
+        markPending(block);
+        index.removeViewer(block);
+    }
 
-        Vector vector = location.toVector();
+    @EventHandler
+    public void onWorldUnload(@NotNull WorldUnloadEvent event) {
+        index.clear(event.getWorld());
+    }
+
+    private void markPending(Block block) {
+        index.markPending(block);
+        plugin.getServer().getScheduler().runTaskLater(plugin, () -> index.refresh(block), 4L);
+    }
 
-        Set<UUID> viewers = playerChests.getOrDefault(vector, Sets.newHashSet());
-        viewers.add(event.getPlayer().getUniqueId());
+    private @Nullable Block getChestBlock(@Nullable Location location) {
+        World world;
+        if (location == null
+                || (world = location.getWorld()) == null
+                || !world.isChunkLoaded(location.getBlockX() >> 4, location.getBlockZ() >> 4)) return null;
 
-        playerChests.put(vector, viewers);
+        Block block = location.getBlock();
+        return block.getType() == Material.CHEST ? block : null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,137 @@
+package me.matsubara.realisticvillagers.manager;
+
+import lombok.Getter;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Chest;
+import org.bukkit.inventory.DoubleChestInventory;
+import org.bukkit.inventory.Inventory;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// The state of the chests that are being looted by a villager and/or used by players, by world and packed block position.
+// Only modified from the main thread, so the chest handler (netty thread) doesn't need to access the world.
+// Both halves of a double chest share the same state.
+public class ChestStateIndex {
+
+    private final Map<UUID, Map<Long, ChestState>> worlds = new ConcurrentHashMap<>();
+
+    // How long a player interaction counts as "about to open/close" the chest.
+    private static final long PENDING_TIME = 150L;
+
+    public @Nullable ChestState get(UUID world, int x, int y, int z) {
+        Map<Long, ChestState> states = worlds.get(world);
+        return states != null ? states.get(pack(x, y, z)) : null;
+    }
+
+    public void setLooter(@NotNull Chest chest, @Nullable UUID looter) {
+        update(chest.getBlock(), looter != null, state -> state.looter = looter);
+    }
+
+    public void addViewer(@NotNull Block block) {
+        update(block, true, state -> state.viewers++);
+    }
+
+    public void removeViewer(@NotNull Block block) {
+        update(block, false, state -> state.viewers = Math.max(0, state.viewers - 1));
+    }
+
+    public void markPending(@NotNull Block block) {
+        update(block, true, state -> state.pendingUntil = System.currentTimeMillis() + PENDING_TIME);
+    }
+
+    // Removes the state if it's no longer needed (after the pending time is over).
+    public void refresh(@NotNull Block block) {
+        update(block, false, state -> {
+        });
+    }
+
+    public void clear(@NotNull World world) {
+        worlds.remove(world.getUID());
+    }
+
+    private void update(@NotNull Block block, boolean create, Consumer<ChestState> update) {
+        World world = block.getWorld();
+        Map<Long, ChestState> states = create ?
+                worlds.computeIfAbsent(world.getUID(), uuid -> new ConcurrentHashMap<>()) :
+                worlds.get(world.getUID());
+        if (states == null) return;
+
+        List<Block> halves = getHalves(block);
+
+        ChestState state = null;
+        for (Block half : halves) {
+            state = states.get(pack(half.getX(), half.getY(), half.getZ()));
+            if (state != null) break;
+        }
+
+        if (state == null) {
+            if (!create) return;
+            state = new ChestState();
+        }
+
+        update.accept(state);
+
+        boolean remove = state.isUnused();
+        for (Block half : halves) {
+            long key = pack(half.getX(), half.getY(), half.getZ());
+            if (remove) states.remove(key);
+            else states.put(key, state);
+        }
+    }
+
+    private @NotNull List<Block> getHalves(@NotNull Block block) {
+        List<Block> halves = new ArrayList<>(2);
+        halves.add(block);
+
+        BlockState state = block.getState();
+        if (!(state instanceof Chest chest) || !(chest.getInventory() instanceof DoubleChestInventory inventory)) {
+            return halves;
+        }
+
+        for (Inventory side : new Inventory[]{inventory.getLeftSide(), inventory.getRightSide()}) {
+            Location location = side.getLocation();
+            if (location == null) continue;
+
+            Block half = location.getBlock();
+            if (!half.equals(block)) halves.add(half);
+        }
+        return halves;
+    }
+
+    // Same format as BlockPos#asLong().
+    @Contract(pure = true)
+    public static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    @Getter
+    public static class ChestState {
+
+        private volatile @Nullable UUID looter;
+        private volatile int viewers;
+        private volatile long pendingUntil;
+
+        public boolean isLooted() {
+            return looter != null;
+        }
+
+        public boolean isPending() {
+            return System.currentTimeMillis() < pendingUntil;
+        }
+
+        private boolean isUnused() {
+            return looter == null && viewers == 0 && !isPending();
+        }
+    }
+}
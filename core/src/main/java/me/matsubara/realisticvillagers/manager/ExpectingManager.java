@@ -306,6 +306,9 @@ public final class ExpectingManager implements Listener {
                     plugin.getMarriedWith(),
                     PersistentDataType.STRING,
                     npc.bukkit().getUniqueId().toString());
+
+            // Update the offline data so the villager is found as family of the player.
+            plugin.getTracker().updateData(npc.bukkit());
             return;
         }
 
@@ -94,12 +94,13 @@ public class ReviveManager implements Listener {
             if (downBlock.getRelative(face, 2).getType() != Material.EMERALD_BLOCK) return false;
         }
 
+        // Until all the villagers are loaded, we can't know if it's still alive.
+        if (!plugin.getTracker().checkOfflineReady(player)) return false;
+
         // Villager already exists, cancel to prevent duplicated entity.
-        for (IVillagerNPC offline : plugin.getTracker().getOfflineVillagers()) {
-            if (offline.getUniqueId().equals(npc.getUniqueId())) {
-                plugin.getMessages().send(player, Messages.Message.INTERACT_FAIL_ALREADY_ALIVE);
-                return false;
-            }
+        if (plugin.getTracker().getOfflineVillagers().contains(npc.getUniqueId())) {
+            plugin.getMessages().send(player, Messages.Message.INTERACT_FAIL_ALREADY_ALIVE);
+            return false;
         }
 
         runningTasks.put(block, new MonumentAnimation(plugin, tag, block));
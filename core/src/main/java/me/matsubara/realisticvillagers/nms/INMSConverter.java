@@ -10,6 +10,7 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 
 import java.io.File;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -31,7 +32,8 @@ public interface INMSConverter {
 
     void removePartnerFromPlayerNBT(File file);
 
-    void loadData();
+    // The villagers saved in the entity regions of every world. Blocks until they're all read, so it shouldn't be called from the main thread.
+    Map<UUID, IVillagerNPC> loadData();
 
     Raid getRaidAt(Location location);
 
@@ -0,0 +1,21 @@
+package me.matsubara.realisticvillagers.npc;
+
+import lombok.Getter;
+import lombok.Setter;
+
+// The body yaw of an NPC last sent to a viewer, updated from the netty thread (and the main thread when flushing).
+@Getter
+@Setter
+public class BodyRotation {
+
+    private volatile float yaw = Float.NaN;
+    private volatile long sentAt;
+    private volatile float pendingYaw;
+    private volatile boolean pending;
+
+    public void sent(float yaw, long now) {
+        this.yaw = yaw;
+        this.sentAt = now;
+        this.pending = false;
+    }
+}
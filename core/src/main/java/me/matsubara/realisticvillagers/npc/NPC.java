@@ -1,15 +1,10 @@
 package me.matsubara.realisticvillagers.npc;
 
 import com.cryptomorin.xseries.reflection.XReflection;
-import com.github.retrooper.packetevents.PacketEvents;
-import com.github.retrooper.packetevents.manager.protocol.ProtocolManager;
 import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
-import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
 import com.github.retrooper.packetevents.protocol.entity.type.EntityTypes;
 import com.github.retrooper.packetevents.protocol.player.UserProfile;
 import com.github.retrooper.packetevents.protocol.world.states.WrappedBlockState;
-import com.github.retrooper.packetevents.util.Quaternion4f;
-import com.github.retrooper.packetevents.util.Vector3f;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerDestroyEntities;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityMetadata;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerSetPassengers;
@@ -25,7 +20,6 @@ import me.matsubara.realisticvillagers.files.Config;
 import me.matsubara.realisticvillagers.gui.types.SkinGUI;
 import me.matsubara.realisticvillagers.npc.modifier.*;
 import me.matsubara.realisticvillagers.util.PluginUtils;
-import net.kyori.adventure.text.Component;
 import org.bukkit.*;
 import org.bukkit.block.data.BlockData;
 import org.bukkit.entity.EntityType;
@@ -33,12 +27,14 @@ import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.entity.Villager;
 import org.bukkit.entity.memory.MemoryKey;
+import org.bukkit.inventory.EntityEquipment;
 import org.bukkit.potion.PotionEffectType;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.stream.Stream;
 
@@ -51,12 +47,15 @@ public class NPC {
     private final UserProfile profile;
     private final SpawnCustomizer spawnCustomizer;
     private final IVillagerNPC npc;
+    private final NametagTemplate template = new NametagTemplate();
+    private final Map<UUID, NPCLod> lods = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> lastHeadRotations = new ConcurrentHashMap<>();
+    private final Map<UUID, BodyRotation> bodyRotations = new ConcurrentHashMap<>();
 
     private static final Set<Villager.Profession> UNEMPLOYED = Set.of(Villager.Profession.NONE, Villager.Profession.NITWIT);
     private static final int IGNORE = -1;
     private static final int NO_BLOCK = -2;
     private static final boolean ENABLED = XReflection.supports(20, 2);
-    private static final Color NAMETAG_BACKGROUND_COLOR = ENABLED ? Color.fromARGB((int) (0.35 * 255), 0, 0, 0) : null;
 
     public NPC(RealisticVillagers plugin, UserProfile profile, SpawnCustomizer spawnCustomizer, int entityId, IVillagerNPC npc) {
         this.plugin = plugin;
@@ -67,50 +66,112 @@ public class NPC {
     }
 
     public void refreshNametags(Player player) {
-        hideNametags(player);
-        spawnNametags(player, true);
+        // Far away, the nametags weren't spawned for this player (and shouldn't be).
+        if (!getLod(player).isNametags()) return;
+
+        PacketBatch batch = new PacketBatch(player);
+        if (!updateNametags(batch)) {
+            hideNametags(batch);
+            spawnNametags(batch, true);
+        }
+        batch.flush();
+    }
+
+    // Only sends the metadata that changed since the last time, returns false if the nametags need to be spawned again.
+    private boolean updateNametags(@NotNull PacketBatch batch) {
+        if (!ENABLED) return false;
+        if (!(npc instanceof Nameable nameable)) return false;
+        if (Config.DISABLE_NAMETAGS.asBool()) return false;
+
+        NametagTemplate.Sent sent = template.getSent(batch.getPlayer());
+        if (sent == null) return false;
+
+        LivingEntity bukkit = npc.bukkit();
+        if (bukkit == null || bukkit.hasPotionEffect(PotionEffectType.INVISIBILITY)) return false;
+
+        // The amount of lines changes the position of the block, so it's easier to spawn them again.
+        int lines = getLines(bukkit).size();
+        if (lines != sent.getLines()) return false;
+
+        boolean showBlock = Config.CUSTOM_NAME_SHOW_JOB_BLOCK.asBool();
+        if (showBlock != (sent.getBlock() != null)) return false;
+
+        List<EntityData> text = template.text(getNameText(bukkit));
+        addDelta(batch, nameable.getNametagEntity(), sent.getText(), text);
+        sent.setText(text);
+
+        if (!showBlock) return true;
+
+        List<EntityData> block = template.block(lines, getJobBlockState(bukkit));
+        addDelta(batch, nameable.getNametagItemEntity(), sent.getBlock(), block);
+        sent.setBlock(block);
+        return true;
+    }
+
+    private void addDelta(PacketBatch batch, int id, List<EntityData> previous, List<EntityData> current) {
+        List<EntityData> changed = NametagTemplate.delta(previous, current);
+        if (!changed.isEmpty()) batch.add(new WrapperPlayServerEntityMetadata(id, changed));
     }
 
     public void spawnNametags(Player player, boolean shouldSpawn) {
+        PacketBatch batch = new PacketBatch(player);
+        spawnNametags(batch, shouldSpawn);
+        batch.flush();
+    }
+
+    public void spawnNametags(PacketBatch batch, boolean shouldSpawn) {
         if (!ENABLED) return;
+        if (!getLod(batch.getPlayer()).isNametags()) return;
 
-        int itemId = spawnDisplayEntity(player, false, shouldSpawn);
+        int itemId = spawnDisplayEntity(batch, false, shouldSpawn);
         if (itemId == IGNORE) return;
 
-        ProtocolManager manager = PacketEvents.getAPI().getProtocolManager();
-        Object channel = SpigotReflectionUtil.getChannel(player);
-
-        WrapperPlayServerSetPassengers itemPassengers = new WrapperPlayServerSetPassengers(npc.bukkit().getEntityId(), new int[]{itemId});
-        manager.sendPacket(channel, itemPassengers);
+        batch.add(new WrapperPlayServerSetPassengers(npc.bukkit().getEntityId(), new int[]{itemId}));
 
-        int blockId = spawnDisplayEntity(player, true, shouldSpawn);
+        int blockId = spawnDisplayEntity(batch, true, shouldSpawn);
         if (blockId == IGNORE) return;
 
         // @show-job-block is set to false, we need to hide it.
         if (blockId == NO_BLOCK) {
-            hideBlockItem(player);
+            hideBlockItem(batch);
             return;
         }
 
-        WrapperPlayServerSetPassengers blockPassengers = new WrapperPlayServerSetPassengers(itemId, new int[]{blockId});
-        manager.sendPacket(channel, blockPassengers);
+        batch.add(new WrapperPlayServerSetPassengers(itemId, new int[]{blockId}));
     }
 
-    private void hideBlockItem(Player player) {
+    private void hideBlockItem(PacketBatch batch) {
         if (!(npc instanceof Nameable nameable)) return;
 
         int nametagItemEntity = nameable.getNametagItemEntity();
         if (nametagItemEntity == -1) return;
 
-        sendDestroyPacket(player, new int[]{nametagItemEntity});
+        // Only if the block was spawned for this player.
+        NametagTemplate.Sent sent = template.getSent(batch.getPlayer());
+        if (sent == null || sent.getBlock() == null) return;
+
+        batch.add(new WrapperPlayServerDestroyEntities(nametagItemEntity));
+        sent.setBlock(null);
     }
 
     public void hideNametags(Player player) {
+        PacketBatch batch = new PacketBatch(player);
+        hideNametags(batch);
+        batch.flush();
+    }
+
+    public void hideNametags(PacketBatch batch) {
         if (!ENABLED) return;
         if (!(npc instanceof Nameable nameable)) return;
 
-        int nametagEntity = nameable.getNametagEntity();
-        int nametagItemEntity = nameable.getNametagItemEntity();
+        // The display entities are shared by every player, only destroy the ones spawned for this one.
+        NametagTemplate.Sent sent = template.getSent(batch.getPlayer());
+        if (sent == null) return;
+
+        int nametagEntity = sent.getText() != null ? nameable.getNametagEntity() : IGNORE;
+        int nametagItemEntity = sent.getBlock() != null ? nameable.getNametagItemEntity() : IGNORE;
+
+        template.forget(batch.getPlayer());
 
         int[] ids = Stream.of(nametagEntity, nametagItemEntity)
                 .filter(id -> id != IGNORE)
@@ -119,15 +180,7 @@ public class NPC {
 
         if (ids.length == 0) return;
 
-        sendDestroyPacket(player, ids);
-    }
-
-    private void sendDestroyPacket(Player player, int[] ids) {
-        ProtocolManager manager = PacketEvents.getAPI().getProtocolManager();
-        Object channel = SpigotReflectionUtil.getChannel(player);
-
-        WrapperPlayServerDestroyEntities destroy = new WrapperPlayServerDestroyEntities(ids);
-        manager.sendPacket(channel, destroy);
+        batch.add(new WrapperPlayServerDestroyEntities(ids));
     }
 
     public List<String> getLines(@NotNull LivingEntity entity) {
@@ -137,7 +190,7 @@ public class NPC {
         return Collections.emptyList();
     }
 
-    private int spawnDisplayEntity(Player player, boolean block, boolean shouldSpawn) {
+    private int spawnDisplayEntity(PacketBatch batch, boolean block, boolean shouldSpawn) {
         if (!(npc instanceof Nameable nameable)) return IGNORE;
         if (Config.DISABLE_NAMETAGS.asBool()) return IGNORE;
         if (block && !Config.CUSTOM_NAME_SHOW_JOB_BLOCK.asBool()) return NO_BLOCK;
@@ -151,38 +204,18 @@ public class NPC {
         if (block) nameable.setNametagItemEntity(id);
         else nameable.setNametagEntity(id);
 
-        List<EntityData> data = new ArrayList<>();
-        fillGlobalData(data, block);
-
-        if (block) {
-            BlockData blockData;
-            if (bukkit instanceof Villager villager && !npc.is(Villager.Profession.NONE, Villager.Profession.NITWIT)) {
-                Material material = SkinGUI.PROFESSION_ICON.get(villager.getProfession().name());
-                blockData = createBlockData(villager, material);
-            } else {
-                blockData = Material.AIR.createBlockData();
-            }
-            WrappedBlockState state = SpigotConversionUtil.fromBukkitBlockData(blockData);
-            data.add(new EntityData(23, EntityDataTypes.BLOCK_STATE, state.getGlobalId())); // Displayed block state = WrappedBlockState#getGlobalId()
-        } else {
-            data.add(new EntityData(23, EntityDataTypes.ADV_COMPONENT, Component.text(getNameText(bukkit)))); // Text
-            data.add(new EntityData(24, EntityDataTypes.INT, 200)); // Line width
-            data.add(new EntityData(25, EntityDataTypes.INT, NAMETAG_BACKGROUND_COLOR.asARGB())); // Background color = Color#asARGB() / 1073741824
-            data.add(new EntityData(26, EntityDataTypes.BYTE, (byte) -1)); // Text opacity
-            // Flags (Has shadow = 0x01 / See through = 0x02 / Use default background color = 0x04 / Alignment = ?) / 0
-            data.add(new EntityData(27, EntityDataTypes.BYTE, (byte) 0x02));
-        }
-
-        ProtocolManager manager = PacketEvents.getAPI().getProtocolManager();
-        Object channel = SpigotReflectionUtil.getChannel(player);
+        int lines = getLines(bukkit).size();
+        List<EntityData> data = block ?
+                template.block(lines, getJobBlockState(bukkit)) :
+                template.text(getNameText(bukkit));
 
         if (shouldSpawn) {
             Location at = bukkit.getLocation();
             at.setPitch(0.0f);
 
-            manager.sendPacket(channel, new WrapperPlayServerSpawnEntity(
+            batch.add(new WrapperPlayServerSpawnEntity(
                     id,
-                    UUID.randomUUID(),
+                    block ? template.getBlockUUID() : template.getTextUUID(),
                     block ? EntityTypes.BLOCK_DISPLAY : EntityTypes.TEXT_DISPLAY,
                     SpigotConversionUtil.fromBukkitLocation(at),
                     at.getYaw(),
@@ -190,11 +223,28 @@ public class NPC {
                     null));
         }
 
-        manager.sendPacket(channel, new WrapperPlayServerEntityMetadata(id, data));
+        batch.add(new WrapperPlayServerEntityMetadata(id, data));
+        template.markSent(batch.getPlayer(), block, data, lines);
         return id;
     }
 
+    private int getJobBlockState(LivingEntity bukkit) {
+        BlockData blockData;
+        if (bukkit instanceof Villager villager && !npc.is(Villager.Profession.NONE, Villager.Profession.NITWIT)) {
+            Material material = SkinGUI.PROFESSION_ICON.get(villager.getProfession().name());
+            blockData = createBlockData(villager, material);
+        } else {
+            blockData = Material.AIR.createBlockData();
+        }
+        WrappedBlockState state = SpigotConversionUtil.fromBukkitBlockData(blockData);
+        return state.getGlobalId();
+    }
+
     private @NotNull String getNameText(LivingEntity bukkit) {
+        return plugin.getTracker().getPool().getNametagCache().render(this, bukkit, () -> renderNameText(bukkit));
+    }
+
+    private @NotNull String renderNameText(LivingEntity bukkit) {
         StringBuilder builder = new StringBuilder();
         List<String> lines = getLines(bukkit);
 
@@ -240,36 +290,6 @@ public class NPC {
         }
     }
 
-    private void fillGlobalData(List<EntityData> data, boolean block) {
-        Vector3f translation, scale;
-        if (block) {
-            int amountOfLines = getLines(npc.bukkit()).size();
-            float y = amountOfLines * 0.275f + 0.275f;
-            translation = new Vector3f(-0.1f, y, -0.1f);
-            scale = new Vector3f(0.25f, 0.25f, 0.25f);
-        } else {
-            translation = new Vector3f(0.0f, 0.25f, 0.0f);
-            scale = new Vector3f(1.0f, 1.0f, 1.0f);
-        }
-
-        data.add(new EntityData(8, EntityDataTypes.INT, 0)); // Interpolation delay
-        data.add(new EntityData(9, EntityDataTypes.INT, 0)); // Transformation interpolation duration
-        data.add(new EntityData(10, EntityDataTypes.INT, 0)); // Position/Rotation interpolation duration
-        data.add(new EntityData(11, EntityDataTypes.VECTOR3F, translation)); // Translation / 0.0, 0.0, 0.0
-        data.add(new EntityData(12, EntityDataTypes.VECTOR3F, scale)); // Scale
-        data.add(new EntityData(13, EntityDataTypes.QUATERNION, new Quaternion4f(0.0f, 0.0f, 0.0f, 1.0f))); // Rotation left
-        data.add(new EntityData(14, EntityDataTypes.QUATERNION, new Quaternion4f(0.0f, 0.0f, 0.0f, 1.0f))); // Rotation right
-        // Billboard Constraints (0 = FIXED, 1 = VERTICAL, 2 = HORIZONTAL, 3 = CENTER) / 0
-        data.add(new EntityData(15, EntityDataTypes.BYTE, (byte) (block ? 1 : 3)));
-        data.add(new EntityData(16, EntityDataTypes.INT, -1)); // Brightness override (blockLight << 4 | skyLight << 20)
-        data.add(new EntityData(17, EntityDataTypes.FLOAT, 1.0f)); // View range
-        data.add(new EntityData(18, EntityDataTypes.FLOAT, 0.0f)); // Shadow radius
-        data.add(new EntityData(19, EntityDataTypes.FLOAT, 1.0f)); // Shadow strength
-        data.add(new EntityData(20, EntityDataTypes.FLOAT, 0.0f)); // Width
-        data.add(new EntityData(21, EntityDataTypes.FLOAT, 0.0f)); // Height
-        data.add(new EntityData(22, EntityDataTypes.INT, -1)); // Glow color override
-    }
-
     @Contract(" -> new")
     public static @NotNull Builder builder() {
         return new Builder();
@@ -282,33 +302,98 @@ public class NPC {
     public void show(Player player, @Nullable Location location) {
         seeingPlayers.add(player);
 
-        VisibilityModifier modifier = visibility();
-        modifier.queuePlayerListChange(false).send(player);
+        // The player info and spawn packets are sent by the pool, once it's the turn of this NPC.
+        spawnQueue().enqueue(this, player, location);
+    }
 
-        Bukkit.getScheduler().runTaskLater(plugin, () -> {
-            modifier.queueSpawn(location).send(player);
-            spawnCustomizer.handleSpawn(this, player);
-            spawnNametags(player, true);
+    protected void spawn(Player player, @Nullable Location location) {
+        LivingEntity bukkit = npc != null ? npc.bukkit() : null;
+        if (location == null && bukkit != null && bukkit.getWorld().equals(player.getWorld())) {
+            lods.put(player.getUniqueId(), NPCLod.of(bukkit.getLocation().distanceSquared(player.getLocation())));
+        }
 
-            // Keeping the NPC longer in the player list, otherwise the skin might not be shown sometimes.
-            Bukkit.getScheduler().runTaskLater(
-                    plugin,
-                    () -> modifier.queuePlayerListChange(true).send(player),
-                    40);
-        }, 10L);
+        // Everything related to the spawn is sent in a single bundle.
+        PacketBatch batch = PacketBatch.spawn(player);
+        visibility().queueSpawn(location).send(batch);
+        spawnCustomizer.handleSpawn(this, player, batch);
+        spawnNametags(batch, true);
+        batch.flush();
     }
 
     public void hide(Player player) {
-        visibility()
-                .queuePlayerListChange(true)
-                .queueDestroy()
-                .send(player);
-        hideNametags(player);
+        // The player list entry is removed by the queue.
+        spawnQueue().hide(this, player);
+
+        PacketBatch batch = new PacketBatch(player);
+        visibility().queueDestroy().send(batch);
+        hideNametags(batch);
+        batch.flush();
         removeSeeingPlayer(player);
     }
 
+    private NPCSpawnQueue spawnQueue() {
+        return plugin.getTracker().getPool().getSpawnQueue();
+    }
+
+    public NPCLod getLod(@NotNull Player player) {
+        return lods.getOrDefault(player.getUniqueId(), NPCLod.NEAR);
+    }
+
+    // Only sends the packets of the layers that are added/removed between both levels.
+    public void updateLod(@NotNull Player player, NPCLod lod) {
+        NPCLod previous = lods.put(player.getUniqueId(), lod);
+        if (previous == null) previous = NPCLod.NEAR;
+        if (previous == lod) return;
+
+        LivingEntity bukkit = npc != null ? npc.bukkit() : null;
+        if (bukkit == null) return;
+
+        PacketBatch batch = new PacketBatch(player);
+
+        if (previous.isNametags() && !lod.isNametags()) {
+            hideNametags(batch);
+        } else if (!previous.isNametags() && lod.isNametags()) {
+            spawnNametags(batch, true);
+        }
+
+        EntityEquipment equipment = bukkit.getEquipment();
+        if (equipment != null && previous.isEquipment() != lod.isEquipment()) {
+            equipment().queueAll(equipment, !lod.isEquipment()).send(batch);
+        }
+
+        // The head rotations were throttled (or cancelled), so the current one may be outdated.
+        if (lod.ordinal() < previous.ordinal()) {
+            rotation().queueHeadRotation(bukkit.getLocation().getYaw()).send(batch);
+        }
+
+        batch.flush();
+    }
+
+    // Called from the netty thread for every head rotation of this NPC.
+    public boolean allowHeadRotation(@NotNull Player player) {
+        NPCLod lod = getLod(player);
+        if (lod != NPCLod.MEDIUM) return lod == NPCLod.NEAR;
+
+        long now = System.currentTimeMillis();
+        long interval = Config.LOD_MEDIUM_ROTATION_INTERVAL.asLong() * 50L;
+
+        Long last = lastHeadRotations.get(player.getUniqueId());
+        if (last != null && now - last < interval) return false;
+
+        lastHeadRotations.put(player.getUniqueId(), now);
+        return true;
+    }
+
+    public BodyRotation getBodyRotation(@NotNull Player player) {
+        return bodyRotations.computeIfAbsent(player.getUniqueId(), uuid -> new BodyRotation());
+    }
+
     protected void removeSeeingPlayer(Player player) {
         seeingPlayers.remove(player);
+        template.forget(player);
+        lods.remove(player.getUniqueId());
+        lastHeadRotations.remove(player.getUniqueId());
+        bodyRotations.remove(player.getUniqueId());
     }
 
     public Collection<Player> getSeeingPlayers() {
@@ -345,7 +430,7 @@ public class NPC {
         private int entityId = -1;
         private IVillagerNPC villager;
 
-        private SpawnCustomizer spawnCustomizer = (npc, player) -> {
+        private SpawnCustomizer spawnCustomizer = (npc, player, batch) -> {
         };
 
         private Builder() {
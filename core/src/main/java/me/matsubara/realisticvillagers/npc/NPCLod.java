@@ -0,0 +1,39 @@
+package me.matsubara.realisticvillagers.npc;
+
+import lombok.Getter;
+import me.matsubara.realisticvillagers.files.Config;
+
+// How much detail of an NPC is sent to a player, based on the distance between them.
+@Getter
+public enum NPCLod {
+    // Everything.
+    NEAR(true, true),
+    // No nametags, head rotations are throttled.
+    MEDIUM(false, true),
+    // Only the skin and the position.
+    FAR(false, false);
+
+    private final boolean nametags;
+    private final boolean equipment;
+
+    NPCLod(boolean nametags, boolean equipment) {
+        this.nametags = nametags;
+        this.equipment = equipment;
+    }
+
+    public static NPCLod of(double distanceSquared) {
+        return of(distanceSquared, getDistanceSquared(Config.LOD_MEDIUM_DISTANCE), getDistanceSquared(Config.LOD_FAR_DISTANCE));
+    }
+
+    public static NPCLod of(double distanceSquared, double mediumSquared, double farSquared) {
+        if (distanceSquared >= farSquared) return FAR;
+        if (distanceSquared >= mediumSquared) return MEDIUM;
+        return NEAR;
+    }
+
+    public static double getDistanceSquared(Config config) {
+        // 0 (or less) disables that level.
+        int distance = config.asInt();
+        return distance > 0 ? (double) distance * distance : Double.MAX_VALUE;
+    }
+}
@@ -9,11 +9,14 @@ import org.bukkit.World;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityTeleportEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.player.PlayerRespawnEvent;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
@@ -23,50 +26,145 @@ public class NPCPool implements Listener {
 
     private final @Getter RealisticVillagers plugin;
     private final Map<Integer, NPC> npcMap = new ConcurrentHashMap<>();
+    private final @Getter NPCSpatialIndex<NPC> index = new NPCSpatialIndex<>();
+    private final NPCTrackListeners trackListeners;
+    private final @Getter NPCSpawnQueue spawnQueue;
+    private final @Getter NametagRenderCache nametagCache = new NametagRenderCache();
 
     private static final double BUKKIT_VIEW_DISTANCE = Math.pow(Bukkit.getViewDistance() << 4, 2);
 
     public NPCPool(RealisticVillagers plugin) {
         this.plugin = plugin;
         this.plugin.getServer().getPluginManager().registerEvents(this, plugin);
+        this.spawnQueue = new NPCSpawnQueue(this);
+
+        // If the server tells us when an entity is tracked, the tick only needs to update the render LOD.
+        this.trackListeners = new NPCTrackListeners(this);
         tick();
     }
 
+    public boolean isTrackerDriven() {
+        return trackListeners.isRegistered();
+    }
+
+    public double getMaxDistanceSquared() {
+        if (isTrackerDriven()) return BUKKIT_VIEW_DISTANCE;
+
+        int renderDistance = Config.RENDER_DISTANCE.asInt();
+        return Math.min(renderDistance * renderDistance, BUKKIT_VIEW_DISTANCE);
+    }
+
     protected void tick() {
         Bukkit.getScheduler().runTaskTimer(plugin, () -> {
-            for (Player player : Bukkit.getOnlinePlayers()) {
-                for (NPC npc : npcMap.values()) {
-                    LivingEntity bukkit = npc.getNpc().bukkit();
-                    if (bukkit == null) continue;
+            boolean trackerDriven = isTrackerDriven();
+            double maxDistanceSquared = getMaxDistanceSquared();
+            double mediumSquared = NPCLod.getDistanceSquared(Config.LOD_MEDIUM_DISTANCE);
+            double farSquared = NPCLod.getDistanceSquared(Config.LOD_FAR_DISTANCE);
+
+            // Hide the NPCs that are no longer visible for their current viewers and update the LOD of the rest.
+            // The index is kept up to date by the villagers themselves (see move()).
+            for (NPC npc : npcMap.values()) {
+                LivingEntity bukkit = npc.getNpc().bukkit();
+                if (bukkit == null) continue;
+
+                Location npcLocation = bukkit.getLocation();
+
+                World npcWorld = npcLocation.getWorld();
+                if (npcWorld == null) continue;
+
+                if (!trackerDriven) {
+                    if (!npcWorld.isChunkLoaded(npcLocation.getBlockX() >> 4, npcLocation.getBlockZ() >> 4)) {
+                        // Hide NPC if the NPC isn't on a loaded chunk.
+                        index.remove(npc);
+                        npc.getSeeingPlayers().forEach(npc::hide);
+                        continue;
+                    }
+                }
 
-                    Location npcLocation = bukkit.getLocation();
+                for (Player player : npc.getSeeingPlayers()) {
                     Location playerLocation = player.getLocation();
 
-                    World npcWorld = npcLocation.getWorld();
-                    if (npcWorld == null) continue;
+                    boolean sameWorld = npcWorld.equals(playerLocation.getWorld());
+                    double distanceSquared = sameWorld ? npcLocation.distanceSquared(playerLocation) : Double.MAX_VALUE;
 
-                    if (!npcWorld.equals(playerLocation.getWorld())
-                            || !npcWorld.isChunkLoaded(npcLocation.getBlockX() >> 4, npcLocation.getBlockZ() >> 4)) {
-                        // Hide NPC if the NPC isn't in the same world of the player or the NPC isn't on a loaded chunk.
-                        if (npc.isShownFor(player)) npc.hide(player);
+                    if (!trackerDriven && distanceSquared > maxDistanceSquared) {
+                        npc.hide(player);
                         continue;
                     }
 
-                    int renderDistance = Config.RENDER_DISTANCE.asInt();
-                    boolean inRange = npcLocation.distanceSquared(playerLocation) <= Math.min(renderDistance * renderDistance, BUKKIT_VIEW_DISTANCE);
+                    // The LOD of a pending spawn is set once spawned.
+                    if (!sameWorld || spawnQueue.isPending(npc, player)) continue;
 
-                    if (!inRange && npc.isShownFor(player)) {
-                        npc.hide(player);
-                    } else if (inRange && !npc.isShownFor(player)) {
-                        npc.show(player);
-                    }
+                    npc.updateLod(player, NPCLod.of(distanceSquared, mediumSquared, farSquared));
                 }
             }
+
+            if (trackerDriven) return;
+
+            // Now, only check the NPCs in the chunks around each player.
+            double maxDistance = Math.sqrt(maxDistanceSquared);
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                Location playerLocation = player.getLocation();
+
+                World playerWorld = playerLocation.getWorld();
+                if (playerWorld == null) continue;
+
+                index.query(
+                        playerWorld.getUID(),
+                        playerLocation.getX(),
+                        playerLocation.getY(),
+                        playerLocation.getZ(),
+                        maxDistance,
+                        npc -> {
+                            // The NPC may have been removed (async) after being indexed.
+                            if (npcMap.get(npc.getEntityId()) != npc) {
+                                index.remove(npc);
+                                return;
+                            }
+                            if (!npc.isShownFor(player)) npc.show(player);
+                        });
+            }
         }, 30L, 30L);
     }
 
+    // Amount of NPCs at each LOD, for every player seeing at least one NPC.
+    public Map<Player, int[]> getLodCounts() {
+        Map<Player, int[]> counts = new HashMap<>();
+        for (NPC npc : npcMap.values()) {
+            for (Player player : npc.getSeeingPlayers()) {
+                counts.computeIfAbsent(player, temp -> new int[NPCLod.values().length])[npc.getLod(player).ordinal()]++;
+            }
+        }
+        return counts;
+    }
+
     protected void takeCareOf(NPC npc) {
         npcMap.put(npc.getEntityId(), npc);
+
+        Bukkit.getScheduler().runTask(plugin, () -> {
+            LivingEntity bukkit = npc.getNpc().bukkit();
+            if (bukkit == null || npcMap.get(npc.getEntityId()) != npc) return;
+
+            // Until the villager moves for the first time.
+            move(npc.getEntityId(), bukkit.getLocation());
+            if (!isTrackerDriven()) return;
+
+            // The villager may already be tracked by some players before the NPC was created.
+            for (Player player : trackListeners.getTrackedPlayers(bukkit)) {
+                if (!npc.isShownFor(player)) npc.show(player);
+            }
+        });
+    }
+
+    // Called every tick by the villagers (from the main thread), only changes something if the position changed.
+    public void move(int entityId, @NotNull World world, double x, double y, double z) {
+        NPC npc = npcMap.get(entityId);
+        if (npc != null) index.move(npc, world.getUID(), x, y, z);
+    }
+
+    public void move(int entityId, @NotNull Location location) {
+        World world = location.getWorld();
+        if (world != null) move(entityId, world, location.getX(), location.getY(), location.getZ());
     }
 
     public Optional<NPC> getNPC(int entityId) {
@@ -80,10 +178,18 @@ public class NPCPool implements Listener {
     public void removeNPC(int entityId) {
         getNPC(entityId).ifPresent(npc -> {
             npcMap.remove(entityId);
+            index.remove(npc);
+            nametagCache.invalidate(npc);
             npc.getSeeingPlayers().forEach(npc::hide);
         });
     }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void handleTeleport(@NotNull EntityTeleportEvent event) {
+        Location to = event.getTo();
+        if (to != null) move(event.getEntity().getEntityId(), to);
+    }
+
     @EventHandler
     public void handleRespawn(@NotNull PlayerRespawnEvent event) {
         Player player = event.getPlayer();
@@ -96,6 +202,7 @@ public class NPCPool implements Listener {
     @EventHandler
     public void handleQuit(@NotNull PlayerQuitEvent event) {
         Player player = event.getPlayer();
+        spawnQueue.clear(player);
 
         npcMap.values().stream()
                 .filter(npc -> npc.isShownFor(player))
@@ -0,0 +1,125 @@
+package me.matsubara.realisticvillagers.npc;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+// Groups values by world and chunk, so range queries only look at the chunks overlapping the radius.
+public class NPCSpatialIndex<T> {
+
+    private final Map<UUID, Map<Long, Set<T>>> worlds = new HashMap<>();
+    private final Map<T, Entry> entries = new HashMap<>();
+
+    public synchronized void insert(T value, UUID world, double x, double y, double z) {
+        move(value, world, x, y, z);
+    }
+
+    // Returns true if the value changed its cell (or wasn't indexed before).
+    public synchronized boolean move(T value, UUID world, double x, double y, double z) {
+        // Called every tick, most of the time nothing changed.
+        Entry current = entries.get(value);
+        if (current != null && current.is(world, x, y, z)) return false;
+
+        long key = cellKey(floor(x) >> 4, floor(z) >> 4);
+
+        Entry previous = entries.put(value, new Entry(world, key, x, y, z));
+        if (previous != null && previous.world().equals(world) && previous.key() == key) return false;
+
+        if (previous != null) removeFromCell(value, previous);
+
+        worlds.computeIfAbsent(world, uuid -> new HashMap<>())
+                .computeIfAbsent(key, cell -> new HashSet<>())
+                .add(value);
+        return true;
+    }
+
+    public synchronized boolean remove(T value) {
+        Entry previous = entries.remove(value);
+        if (previous == null) return false;
+
+        removeFromCell(value, previous);
+        return true;
+    }
+
+    public synchronized boolean contains(T value) {
+        return entries.containsKey(value);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        worlds.clear();
+        entries.clear();
+    }
+
+    public void query(UUID world, double x, double y, double z, double radius, Consumer<T> consumer) {
+        for (T value : query(world, x, y, z, radius)) {
+            consumer.accept(value);
+        }
+    }
+
+    public synchronized @NotNull List<T> query(UUID world, double x, double y, double z, double radius) {
+        Map<Long, Set<T>> cells = worlds.get(world);
+        if (cells == null || cells.isEmpty()) return Collections.emptyList();
+
+        int minX = floor(x - radius) >> 4, maxX = floor(x + radius) >> 4;
+        int minZ = floor(z - radius) >> 4, maxZ = floor(z + radius) >> 4;
+        double radiusSquared = radius * radius;
+
+        List<T> found = new ArrayList<>();
+        for (int cellX = minX; cellX <= maxX; cellX++) {
+            for (int cellZ = minZ; cellZ <= maxZ; cellZ++) {
+                Set<T> cell = cells.get(cellKey(cellX, cellZ));
+                if (cell == null) continue;
+
+                for (T value : cell) {
+                    Entry entry = entries.get(value);
+                    if (entry != null && entry.distanceSquared(x, y, z) <= radiusSquared) found.add(value);
+                }
+            }
+        }
+
+        return found;
+    }
+
+    private void removeFromCell(T value, @NotNull Entry entry) {
+        Map<Long, Set<T>> cells = worlds.get(entry.world());
+        if (cells == null) return;
+
+        Set<T> cell = cells.get(entry.key());
+        if (cell == null) return;
+
+        cell.remove(value);
+        if (!cell.isEmpty()) return;
+
+        cells.remove(entry.key());
+        if (cells.isEmpty()) worlds.remove(entry.world());
+    }
+
+    @Contract(pure = true)
+    public static long cellKey(int cellX, int cellZ) {
+        return ((long) cellX & 0xFFFFFFFFL) | (((long) cellZ & 0xFFFFFFFFL) << 32);
+    }
+
+    @Contract(pure = true)
+    private static int floor(double value) {
+        int floor = (int) value;
+        return value < floor ? floor - 1 : floor;
+    }
+
+    private record Entry(UUID world, long key, double x, double y, double z) {
+
+        public boolean is(UUID world, double x, double y, double z) {
+            return this.world.equals(world) && this.x == x && this.y == y && this.z == z;
+        }
+
+        public double distanceSquared(double x, double y, double z) {
+            double dx = this.x - x, dy = this.y - y, dz = this.z - z;
+            return dx * dx + dy * dy + dz * dz;
+        }
+    }
+}
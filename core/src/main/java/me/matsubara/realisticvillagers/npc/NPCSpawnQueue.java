@@ -0,0 +1,266 @@
+package me.matsubara.realisticvillagers.npc;
+
+import com.github.retrooper.packetevents.protocol.player.UserProfile;
+import me.matsubara.realisticvillagers.files.Config;
+import me.matsubara.realisticvillagers.npc.modifier.PacketBatch;
+import me.matsubara.realisticvillagers.npc.modifier.VisibilityModifier;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Spreads the NPC spawns of each player over multiple ticks (nearest first),
+// so joining/teleporting next to many villagers doesn't send all of them in the same tick.
+// The player list changes of the same tick are also merged in a single packet per player (including the ones of hidden NPCs).
+public class NPCSpawnQueue {
+
+    private final NPCPool pool;
+    private final Map<UUID, PlayerQueue> queues = new ConcurrentHashMap<>();
+    private final Queue<PlayerListRemoval> removals = new ArrayDeque<>();
+    private final Map<UUID, Set<NPC>> hidden = new ConcurrentHashMap<>();
+    private long tick;
+
+    // The skin might not be loaded if we spawn the NPC right after adding it to the player list.
+    private static final int SPAWN_DELAY = 10;
+
+    // Keeping the NPC longer in the player list, otherwise the skin might not be shown sometimes.
+    private static final int PLAYER_LIST_REMOVAL_DELAY = 40;
+
+    public NPCSpawnQueue(@NotNull NPCPool pool) {
+        this.pool = pool;
+        Bukkit.getScheduler().runTaskTimer(pool.getPlugin(), this::tick, 1L, 1L);
+    }
+
+    public void enqueue(NPC npc, @NotNull Player player, @Nullable Location location) {
+        PlayerQueue queue = queues.computeIfAbsent(player.getUniqueId(), uuid -> new PlayerQueue());
+        synchronized (queue) {
+            Pending pending = new Pending(npc, location, tick + SPAWN_DELAY);
+
+            Pending previous = queue.pending.put(npc, pending);
+            if (previous != null) previous.cancelled = true;
+
+            queue.waiting.add(pending);
+            if (!queue.adds.contains(npc)) queue.adds.add(npc);
+        }
+    }
+
+    // The player list entry is removed in the next tick, along with the ones of the other NPCs hidden for the same player.
+    public void hide(NPC npc, @NotNull Player player) {
+        cancel(npc, player);
+        hidden.computeIfAbsent(player.getUniqueId(), uuid -> ConcurrentHashMap.newKeySet()).add(npc);
+    }
+
+    public void cancel(NPC npc, @NotNull Player player) {
+        PlayerQueue queue = queues.get(player.getUniqueId());
+        if (queue == null) return;
+
+        synchronized (queue) {
+            Pending pending = queue.pending.remove(npc);
+            if (pending != null) pending.cancelled = true;
+            queue.adds.remove(npc);
+        }
+    }
+
+    public boolean isPending(NPC npc, @NotNull Player player) {
+        PlayerQueue queue = queues.get(player.getUniqueId());
+        if (queue == null) return false;
+
+        synchronized (queue) {
+            return queue.pending.containsKey(npc);
+        }
+    }
+
+    public void clear(@NotNull Player player) {
+        queues.remove(player.getUniqueId());
+        hidden.remove(player.getUniqueId());
+    }
+
+    private void tick() {
+        tick++;
+
+        // Before the adds, in case any of them was shown again.
+        handleHidden();
+
+        int budget = Config.NPC_SPAWNS_PER_TICK.asInt();
+        if (budget <= 0) budget = Integer.MAX_VALUE;
+
+        double maxDistanceSquared = pool.getMaxDistanceSquared();
+        Map<Player, List<UserProfile>> playerListRemovals = new HashMap<>();
+
+        Iterator<Map.Entry<UUID, PlayerQueue>> iterator = queues.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, PlayerQueue> entry = iterator.next();
+
+            Player player = Bukkit.getPlayer(entry.getKey());
+            if (player == null) {
+                iterator.remove();
+                continue;
+            }
+
+            Location playerLocation = player.getLocation();
+            List<UserProfile> adds = new ArrayList<>();
+            List<Pending> spawns = new ArrayList<>();
+            List<Pending> cancelled = new ArrayList<>();
+
+            PlayerQueue queue = entry.getValue();
+            synchronized (queue) {
+                for (NPC npc : queue.adds) {
+                    adds.add(npc.getProfile());
+                }
+                queue.adds.clear();
+
+                // Move the spawns that already waited enough to the priority queue.
+                Pending next;
+                while ((next = queue.waiting.peek()) != null && next.readyAt <= tick) {
+                    queue.waiting.poll();
+                    if (next.cancelled) continue;
+
+                    Location location = next.getLocation();
+                    if (location == null || !Objects.equals(location.getWorld(), playerLocation.getWorld())) {
+                        next.distanceSquared = Double.MAX_VALUE;
+                    } else {
+                        next.distanceSquared = location.distanceSquared(playerLocation);
+                    }
+                    queue.ready.add(next);
+                }
+
+                while (spawns.size() < budget && (next = queue.ready.poll()) != null) {
+                    if (next.cancelled) continue;
+                    queue.pending.remove(next.npc);
+
+                    // The player moved away before it was the turn of this NPC.
+                    if (!isInRange(next, playerLocation, maxDistanceSquared)) {
+                        cancelled.add(next);
+                    } else {
+                        spawns.add(next);
+                    }
+                }
+
+                if (queue.pending.isEmpty()) {
+                    queue.waiting.clear();
+                    queue.ready.clear();
+                    iterator.remove();
+                }
+            }
+
+            if (!adds.isEmpty()) {
+                PacketBatch batch = new PacketBatch(player);
+                batch.add(VisibilityModifier.createPlayerListAdd(adds));
+                batch.flush();
+            }
+
+            for (Pending pending : cancelled) {
+                pending.npc.removeSeeingPlayer(player);
+                playerListRemovals.computeIfAbsent(player, temp -> new ArrayList<>()).add(pending.npc.getProfile());
+            }
+
+            for (Pending pending : spawns) {
+                pending.npc.spawn(player, pending.location);
+                synchronized (removals) {
+                    removals.add(new PlayerListRemoval(pending.npc, player, tick + PLAYER_LIST_REMOVAL_DELAY));
+                }
+            }
+        }
+
+        handleRemovals(playerListRemovals);
+    }
+
+    private void handleHidden() {
+        Iterator<Map.Entry<UUID, Set<NPC>>> iterator = hidden.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, Set<NPC>> entry = iterator.next();
+            iterator.remove();
+
+            Player player = Bukkit.getPlayer(entry.getKey());
+            if (player == null) continue;
+
+            List<UserProfile> profiles = new ArrayList<>(entry.getValue().size());
+            for (NPC npc : entry.getValue()) {
+                profiles.add(npc.getProfile());
+            }
+
+            PacketBatch batch = new PacketBatch(player);
+            batch.add(VisibilityModifier.createPlayerListRemove(profiles));
+            batch.flush();
+        }
+    }
+
+    private void handleRemovals(Map<Player, List<UserProfile>> playerListRemovals) {
+        List<PlayerListRemoval> due = new ArrayList<>();
+        synchronized (removals) {
+            PlayerListRemoval next;
+            while ((next = removals.peek()) != null && next.at() <= tick) {
+                due.add(removals.poll());
+            }
+        }
+
+        for (PlayerListRemoval removal : due) {
+            NPC npc = removal.npc();
+            Player player = removal.player();
+
+            // If hidden, the player list entry is already removed; if shown again, the new spawn will remove it.
+            if (!player.isOnline() || !npc.isShownFor(player) || isPending(npc, player)) continue;
+
+            playerListRemovals.computeIfAbsent(player, temp -> new ArrayList<>()).add(npc.getProfile());
+        }
+
+        playerListRemovals.forEach((player, profiles) -> {
+            PacketBatch batch = new PacketBatch(player);
+            batch.add(VisibilityModifier.createPlayerListRemove(profiles));
+            batch.flush();
+        });
+    }
+
+    private boolean isInRange(@NotNull Pending pending, Location playerLocation, double maxDistanceSquared) {
+        // NPCs with a fixed location (like the skin preview) are always shown.
+        if (pending.location != null) return true;
+
+        Location location = pending.getLocation();
+        if (location == null) return false;
+
+        // The server decides when the villager is no longer tracked (and hide() cancels the spawn).
+        // Dropping the viewer here would leave the NPC invisible, the tracker won't tell us about it again.
+        if (pool.isTrackerDriven()) return true;
+
+        return Objects.equals(location.getWorld(), playerLocation.getWorld())
+                && location.distanceSquared(playerLocation) <= maxDistanceSquared;
+    }
+
+    private static class PlayerQueue {
+
+        private final Map<NPC, Pending> pending = new HashMap<>();
+        private final List<NPC> adds = new ArrayList<>();
+        private final Queue<Pending> waiting = new ArrayDeque<>();
+        private final Queue<Pending> ready = new PriorityQueue<>(Comparator.comparingDouble(pending -> pending.distanceSquared));
+    }
+
+    private static class Pending {
+
+        private final NPC npc;
+        private final @Nullable Location location;
+        private final long readyAt;
+        private double distanceSquared;
+        private boolean cancelled;
+
+        private Pending(NPC npc, @Nullable Location location, long readyAt) {
+            this.npc = npc;
+            this.location = location;
+            this.readyAt = readyAt;
+        }
+
+        private @Nullable Location getLocation() {
+            if (location != null) return location;
+
+            LivingEntity bukkit = npc.getNpc() != null ? npc.getNpc().bukkit() : null;
+            return bukkit != null ? bukkit.getLocation() : null;
+        }
+    }
+
+    private record PlayerListRemoval(NPC npc, Player player, long at) {
+    }
+}
@@ -0,0 +1,95 @@
+package me.matsubara.realisticvillagers.npc;
+
+import lombok.Getter;
+import me.matsubara.realisticvillagers.util.Reflection;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerEvent;
+import org.bukkit.plugin.EventExecutor;
+import org.bukkit.plugin.PluginManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Collection;
+import java.util.Collections;
+
+// Shows/hides NPCs following the server entity tracker (Paper only), so no distance polling is needed.
+public class NPCTrackListeners implements EventExecutor {
+
+    private final NPCPool pool;
+    private @Getter boolean registered;
+    private Class<? extends Event> trackClass;
+    private MethodHandle trackEntity;
+    private MethodHandle untrackEntity;
+
+    private static final String TRACK_EVENT_CLASS = "io.papermc.paper.event.player.PlayerTrackEntityEvent";
+    private static final String UNTRACK_EVENT_CLASS = "io.papermc.paper.event.player.PlayerUntrackEntityEvent";
+    private static final MethodHandle TRACKED_PLAYERS = Reflection.getMethod(Entity.class, "getTrackedPlayers", false);
+
+    public NPCTrackListeners(@NotNull NPCPool pool) {
+        this.pool = pool;
+        if (TRACKED_PLAYERS == null) return;
+
+        try {
+            @SuppressWarnings("unchecked") Class<? extends Event> track = (Class<? extends Event>) Class.forName(TRACK_EVENT_CLASS);
+            @SuppressWarnings("unchecked") Class<? extends Event> untrack = (Class<? extends Event>) Class.forName(UNTRACK_EVENT_CLASS);
+
+            trackEntity = Reflection.getMethod(track, "getEntity", false);
+            untrackEntity = Reflection.getMethod(untrack, "getEntity", false);
+            if (trackEntity == null || untrackEntity == null) return;
+
+            PluginManager pluginManager = pool.getPlugin().getServer().getPluginManager();
+            Listener listener = new Listener() {
+            };
+
+            // MONITOR, we only want to know the final result.
+            pluginManager.registerEvent(track, listener, EventPriority.MONITOR, this, pool.getPlugin(), true);
+            pluginManager.registerEvent(untrack, listener, EventPriority.MONITOR, this, pool.getPlugin(), false);
+
+            trackClass = track;
+            registered = true;
+        } catch (ClassNotFoundException ignored) {
+
+        }
+    }
+
+    @Override
+    public void execute(@NotNull Listener listener, @NotNull Event event) {
+        if (!(event instanceof PlayerEvent playerEvent)) return;
+
+        boolean track = trackClass.isInstance(event);
+
+        Entity entity = getEntity(track ? trackEntity : untrackEntity, event);
+        if (entity == null) return;
+
+        pool.getNPC(entity.getEntityId()).ifPresent(npc -> {
+            Player player = playerEvent.getPlayer();
+            if (track && !npc.isShownFor(player)) {
+                npc.show(player);
+            } else if (!track && npc.isShownFor(player)) {
+                npc.hide(player);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    public Collection<Player> getTrackedPlayers(@NotNull Entity entity) {
+        try {
+            return (Collection<Player>) TRACKED_PLAYERS.invoke(entity);
+        } catch (Throwable throwable) {
+            return Collections.emptySet();
+        }
+    }
+
+    private @Nullable Entity getEntity(@NotNull MethodHandle getter, Event event) {
+        try {
+            return (Entity) getter.invoke(event);
+        } catch (Throwable throwable) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package me.matsubara.realisticvillagers.npc;
+
+import me.matsubara.realisticvillagers.entity.IVillagerNPC;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Villager;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Keeps the rendered (translated + replaced) nametag text of every NPC.
+// The key contains every variable used by the lines, so a name/profession/level change is a miss by itself;
+// config changes are handled by increasing the version with invalidateAll().
+public class NametagRenderCache {
+
+    private final Map<Object, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile int version;
+
+    public String render(@NotNull NPC npc, @NotNull LivingEntity bukkit, Supplier<String> renderer) {
+        return render(npc, npc.getNpc(), bukkit, renderer);
+    }
+
+    String render(@NotNull Object owner, @NotNull IVillagerNPC npc, @NotNull LivingEntity bukkit, @NotNull Supplier<String> renderer) {
+        Key key = createKey(npc, bukkit);
+
+        Entry entry = entries.get(owner);
+        if (entry != null && entry.key().equals(key)) {
+            hits.increment();
+            return entry.text();
+        }
+
+        misses.increment();
+
+        String text = renderer.get();
+        entries.put(owner, new Entry(key, text));
+        return text;
+    }
+
+    public void invalidate(NPC npc) {
+        entries.remove(npc);
+    }
+
+    public void invalidateAll() {
+        version++;
+        entries.clear();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private @NotNull Key createKey(@NotNull IVillagerNPC npc, LivingEntity bukkit) {
+        Villager villager = bukkit instanceof Villager temp ? temp : null;
+        return new Key(
+                version,
+                bukkit.getType(),
+                npc.getVillagerName(),
+                npc.isMale(),
+                villager != null ? villager.getVillagerLevel() : 0,
+                villager != null ? villager.getProfession() : null);
+    }
+
+    private record Key(int version, EntityType type, String name, boolean male, int level, Villager.Profession profession) {
+    }
+
+    private record Entry(Key key, String text) {
+    }
+}
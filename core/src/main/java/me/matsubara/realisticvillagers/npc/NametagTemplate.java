@@ -0,0 +1,134 @@
+package me.matsubara.realisticvillagers.npc;
+
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
+import com.github.retrooper.packetevents.util.Quaternion4f;
+import com.github.retrooper.packetevents.util.Vector3f;
+import lombok.Getter;
+import lombok.Setter;
+import net.kyori.adventure.text.Component;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Metadata of the nametag display entities of an NPC, shared by all the viewers.
+// The lists are immutable and only rebuilt when the text/block changes.
+public class NametagTemplate {
+
+    private final @Getter UUID textUUID = UUID.randomUUID();
+    private final @Getter UUID blockUUID = UUID.randomUUID();
+
+    private String text;
+    private List<EntityData> textData;
+
+    private int lines = -1;
+    private int blockState;
+    private List<EntityData> blockData;
+
+    // What each viewer has right now, so a refresh only needs to send the changes.
+    private final Map<UUID, Sent> sent = new ConcurrentHashMap<>();
+
+    // Same as Color.fromARGB((int) (0.35 * 255), 0, 0, 0), which doesn't exist in older versions.
+    private static final int BACKGROUND_COLOR = (int) (0.35 * 255) << 24;
+    private static final List<EntityData> TEXT_GLOBAL_DATA = createGlobalData(false, 0);
+
+    public List<EntityData> text(@NotNull String text) {
+        if (textData != null && text.equals(this.text)) return textData;
+
+        List<EntityData> data = new ArrayList<>(TEXT_GLOBAL_DATA.size() + 5);
+        data.addAll(TEXT_GLOBAL_DATA);
+        data.add(new EntityData(23, EntityDataTypes.ADV_COMPONENT, Component.text(text))); // Text
+        data.add(new EntityData(24, EntityDataTypes.INT, 200)); // Line width
+        data.add(new EntityData(25, EntityDataTypes.INT, BACKGROUND_COLOR)); // Background color = Color#asARGB() / 1073741824
+        data.add(new EntityData(26, EntityDataTypes.BYTE, (byte) -1)); // Text opacity
+        // Flags (Has shadow = 0x01 / See through = 0x02 / Use default background color = 0x04 / Alignment = ?) / 0
+        data.add(new EntityData(27, EntityDataTypes.BYTE, (byte) 0x02));
+
+        this.text = text;
+        return textData = Collections.unmodifiableList(data);
+    }
+
+    public List<EntityData> block(int lines, int blockState) {
+        if (blockData != null && this.lines == lines && this.blockState == blockState) return blockData;
+
+        List<EntityData> data = createGlobalData(true, lines);
+        data.add(new EntityData(23, EntityDataTypes.BLOCK_STATE, blockState)); // Displayed block state = WrappedBlockState#getGlobalId()
+
+        this.lines = lines;
+        this.blockState = blockState;
+        return blockData = Collections.unmodifiableList(data);
+    }
+
+    public void markSent(@NotNull Player player, boolean block, List<EntityData> data, int lines) {
+        Sent sent = this.sent.computeIfAbsent(player.getUniqueId(), uuid -> new Sent());
+        if (block) sent.setBlock(data);
+        else sent.setText(data);
+        sent.setLines(lines);
+    }
+
+    public @Nullable Sent getSent(@NotNull Player player) {
+        return sent.get(player.getUniqueId());
+    }
+
+    public void forget(@NotNull Player player) {
+        sent.remove(player.getUniqueId());
+    }
+
+    // Returns the entries of the current data whose value differs from the previous one.
+    public static @NotNull List<EntityData> delta(@Nullable List<EntityData> previous, @NotNull List<EntityData> current) {
+        if (previous == current) return Collections.emptyList();
+        if (previous == null || previous.size() != current.size()) return current;
+
+        List<EntityData> changed = new ArrayList<>();
+        for (int i = 0; i < current.size(); i++) {
+            EntityData before = previous.get(i), now = current.get(i);
+            if (before.getIndex() != now.getIndex() || !Objects.equals(before.getValue(), now.getValue())) {
+                changed.add(now);
+            }
+        }
+        return changed;
+    }
+
+    @Getter
+    @Setter
+    public static class Sent {
+
+        private List<EntityData> text;
+        private @Nullable List<EntityData> block;
+        private int lines;
+    }
+
+    static @NotNull List<EntityData> createGlobalData(boolean block, int lines) {
+        Vector3f translation, scale;
+        if (block) {
+            float y = lines * 0.275f + 0.275f;
+            translation = new Vector3f(-0.1f, y, -0.1f);
+            scale = new Vector3f(0.25f, 0.25f, 0.25f);
+        } else {
+            translation = new Vector3f(0.0f, 0.25f, 0.0f);
+            scale = new Vector3f(1.0f, 1.0f, 1.0f);
+        }
+
+        List<EntityData> data = new ArrayList<>(16);
+        data.add(new EntityData(8, EntityDataTypes.INT, 0)); // Interpolation delay
+        data.add(new EntityData(9, EntityDataTypes.INT, 0)); // Transformation interpolation duration
+        data.add(new EntityData(10, EntityDataTypes.INT, 0)); // Position/Rotation interpolation duration
+        data.add(new EntityData(11, EntityDataTypes.VECTOR3F, translation)); // Translation / 0.0, 0.0, 0.0
+        data.add(new EntityData(12, EntityDataTypes.VECTOR3F, scale)); // Scale
+        data.add(new EntityData(13, EntityDataTypes.QUATERNION, new Quaternion4f(0.0f, 0.0f, 0.0f, 1.0f))); // Rotation left
+        data.add(new EntityData(14, EntityDataTypes.QUATERNION, new Quaternion4f(0.0f, 0.0f, 0.0f, 1.0f))); // Rotation right
+        // Billboard Constraints (0 = FIXED, 1 = VERTICAL, 2 = HORIZONTAL, 3 = CENTER) / 0
+        data.add(new EntityData(15, EntityDataTypes.BYTE, (byte) (block ? 1 : 3)));
+        data.add(new EntityData(16, EntityDataTypes.INT, -1)); // Brightness override (blockLight << 4 | skyLight << 20)
+        data.add(new EntityData(17, EntityDataTypes.FLOAT, 1.0f)); // View range
+        data.add(new EntityData(18, EntityDataTypes.FLOAT, 0.0f)); // Shadow radius
+        data.add(new EntityData(19, EntityDataTypes.FLOAT, 1.0f)); // Shadow strength
+        data.add(new EntityData(20, EntityDataTypes.FLOAT, 0.0f)); // Width
+        data.add(new EntityData(21, EntityDataTypes.FLOAT, 0.0f)); // Height
+        data.add(new EntityData(22, EntityDataTypes.INT, -1)); // Glow color override
+        return data;
+    }
+}
@@ -1,9 +1,11 @@
 package me.matsubara.realisticvillagers.npc;
 
+import me.matsubara.realisticvillagers.npc.modifier.PacketBatch;
 import org.bukkit.entity.Player;
 import org.jetbrains.annotations.NotNull;
 
 public interface SpawnCustomizer {
 
-    void handleSpawn(@NotNull NPC npc, @NotNull Player player);
+    // The packets must be added to the batch, it's flushed after the spawn packets.
+    void handleSpawn(@NotNull NPC npc, @NotNull Player player, @NotNull PacketBatch batch);
 }
\ No newline at end of file
@@ -5,20 +5,75 @@ import com.github.retrooper.packetevents.protocol.player.EquipmentSlot;
 import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityEquipment;
 import io.github.retrooper.packetevents.util.SpigotConversionUtil;
 import me.matsubara.realisticvillagers.npc.NPC;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.EntityEquipment;
 import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
 import java.util.List;
 
 
 public class EquipmentModifier extends NPCModifier {
 
+    private final List<Equipment> equipment = new ArrayList<>();
+
     public EquipmentModifier(NPC npc) {
         super(npc);
     }
 
-    public EquipmentModifier queue(EquipmentSlot itemSlot, ItemStack equipment) {
-        queueInstantly((npc, player) -> new WrapperPlayServerEntityEquipment(npc.getEntityId(),
-                List.of(new Equipment(itemSlot, SpigotConversionUtil.fromBukkitItemStack(equipment)))));
+    public EquipmentModifier queue(EquipmentSlot itemSlot, @Nullable ItemStack equipment) {
+        this.equipment.add(new Equipment(itemSlot, equipment != null ?
+                SpigotConversionUtil.fromBukkitItemStack(equipment) :
+                com.github.retrooper.packetevents.protocol.item.ItemStack.EMPTY));
         return this;
     }
+
+    // Queues every slot of the entity, or empty items if clear is true.
+    public EquipmentModifier queueAll(@NotNull EntityEquipment equipment, boolean clear) {
+        for (org.bukkit.inventory.EquipmentSlot slot : org.bukkit.inventory.EquipmentSlot.values()) {
+            EquipmentSlot itemSlot = slotToWrapper(slot);
+            if (itemSlot == null) continue;
+
+            queue(itemSlot, clear ? null : equipment.getItem(slot));
+        }
+        return this;
+    }
+
+    @Override
+    public void send(@NotNull Iterable<? extends Player> players) {
+        queueEquipment();
+        super.send(players);
+    }
+
+    @Override
+    public void send(@NotNull PacketBatch batch) {
+        queueEquipment();
+        super.send(batch);
+    }
+
+    private void queueEquipment() {
+        if (equipment.isEmpty()) return;
+
+        // All the queued slots are sent in a single packet.
+        List<Equipment> copy = new ArrayList<>(equipment);
+        queueInstantly((npc, player) -> new WrapperPlayServerEntityEquipment(npc.getEntityId(), copy));
+        equipment.clear();
+    }
+
+    @SuppressWarnings("UnnecessaryDefault")
+    @Contract(pure = true)
+    public static @Nullable EquipmentSlot slotToWrapper(@NotNull org.bukkit.inventory.EquipmentSlot slot) {
+        return switch (slot) {
+            case HEAD -> EquipmentSlot.HELMET;
+            case CHEST -> EquipmentSlot.CHEST_PLATE;
+            case LEGS -> EquipmentSlot.LEGGINGS;
+            case FEET -> EquipmentSlot.BOOTS;
+            case HAND -> EquipmentSlot.MAIN_HAND;
+            case OFF_HAND -> EquipmentSlot.OFF_HAND;
+            default -> null; // We need to keep this for EquipmentSlot#BODY.
+        };
+    }
 }
\ No newline at end of file
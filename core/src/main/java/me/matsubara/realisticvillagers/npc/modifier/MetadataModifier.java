@@ -34,14 +34,30 @@ public class MetadataModifier extends NPCModifier {
 
     @Override
     public void send(@NotNull Iterable<? extends Player> players) {
-        queueInstantly((npc, layer) -> new WrapperPlayServerEntityMetadata(npc.getEntityId(), metadata));
+        queueMetadata();
         super.send(players);
     }
 
+    @Override
+    public void send(@NotNull PacketBatch batch) {
+        queueMetadata();
+        super.send(batch);
+    }
+
+    private void queueMetadata() {
+        if (metadata.isEmpty()) return;
+
+        // All the queued values are merged in a single packet.
+        List<EntityData> copy = new ArrayList<>(metadata);
+        queueInstantly((npc, layer) -> new WrapperPlayServerEntityMetadata(npc.getEntityId(), copy));
+        metadata.clear();
+    }
+
     public void updateShoulderEntities() {
         IVillagerNPC npc = this.npc.getNpc();
-        queue(MetadataModifier.EntityMetadata.SHOULDER_ENTITY_LEFT, npc.getShoulderEntityLeft()).send();
-        queue(MetadataModifier.EntityMetadata.SHOULDER_ENTITY_RIGHT, npc.getShoulderEntityRight()).send();
+        queue(MetadataModifier.EntityMetadata.SHOULDER_ENTITY_LEFT, npc.getShoulderEntityLeft())
+                .queue(MetadataModifier.EntityMetadata.SHOULDER_ENTITY_RIGHT, npc.getShoulderEntityRight())
+                .send();
     }
 
     public record EntityMetadata<I, O>(int index, EntityDataType<O> outputType, Function<I, O> mapper) {
@@ -1,6 +1,5 @@
 package me.matsubara.realisticvillagers.npc.modifier;
 
-import com.github.retrooper.packetevents.PacketEvents;
 import com.github.retrooper.packetevents.wrapper.PacketWrapper;
 import me.matsubara.realisticvillagers.npc.NPC;
 import org.bukkit.Bukkit;
@@ -35,14 +34,23 @@ public class NPCModifier {
 
     public void send(@NotNull Iterable<? extends Player> players) {
         players.forEach(player -> {
+            PacketBatch batch = new PacketBatch(player);
             for (LazyPacket packet : packetContainers) {
-                Object channel = PacketEvents.getAPI().getPlayerManager().getChannel(player);
-                PacketEvents.getAPI().getProtocolManager().sendPacket(channel, packet.provide(npc, player));
+                batch.add(packet.provide(npc, player));
             }
+            batch.flush();
         });
         packetContainers.clear();
     }
 
+    // Adds the queued packets to the batch, the caller is responsible for flushing it.
+    public void send(@NotNull PacketBatch batch) {
+        for (LazyPacket packet : packetContainers) {
+            batch.add(packet.provide(npc, batch.getPlayer()));
+        }
+        packetContainers.clear();
+    }
+
     public void send(Player... players) {
         send(Arrays.asList(players));
     }
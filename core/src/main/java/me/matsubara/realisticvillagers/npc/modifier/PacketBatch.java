@@ -0,0 +1,113 @@
+package me.matsubara.realisticvillagers.npc.modifier;
+
+import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.manager.protocol.ProtocolManager;
+import com.github.retrooper.packetevents.manager.server.ServerVersion;
+import com.github.retrooper.packetevents.netty.channel.ChannelHelper;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerBundle;
+import lombok.Getter;
+import me.matsubara.realisticvillagers.handler.protocol.PacketMetrics;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+// Collects the packets of a sequence for a single player, then writes them all and flushes once.
+public class PacketBatch {
+
+    private final @Getter Player player;
+    private final boolean spawn;
+    private final List<PacketWrapper<?>> packets = new ArrayList<>();
+
+    // Since 1.19.4, the client handles all the packets inside a bundle in the same tick.
+    private static final boolean BUNDLES = PacketEvents.getAPI().getServerManager().getVersion().isNewerThanOrEquals(ServerVersion.V_1_19_4);
+
+    // The client rejects bigger bundles.
+    private static final int MAX_BUNDLE_SIZE = 4096;
+
+    private static final LongAdder PACKETS = new LongAdder();
+    private static final LongAdder FLUSHES = new LongAdder();
+    private static final LongAdder SPAWNS = new LongAdder();
+    private static final LongAdder SPAWN_PACKETS = new LongAdder();
+    private static final LongAdder SPAWN_FLUSHES = new LongAdder();
+
+    public PacketBatch(Player player) {
+        this(player, false);
+    }
+
+    private PacketBatch(Player player, boolean spawn) {
+        this.player = player;
+        this.spawn = spawn;
+    }
+
+    // Same as a normal batch, but its packets are also counted as part of an NPC spawn.
+    public static @NotNull PacketBatch spawn(Player player) {
+        SPAWNS.increment();
+        return new PacketBatch(player, true);
+    }
+
+    public PacketBatch add(PacketWrapper<?> packet) {
+        if (packet != null) packets.add(packet);
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return packets.isEmpty();
+    }
+
+    public void flush() {
+        if (packets.isEmpty()) return;
+
+        Object channel = PacketEvents.getAPI().getPlayerManager().getChannel(player);
+        if (channel == null) {
+            packets.clear();
+            return;
+        }
+
+        ProtocolManager manager = PacketEvents.getAPI().getProtocolManager();
+
+        boolean bundle = BUNDLES && packets.size() > 1 && packets.size() < MAX_BUNDLE_SIZE;
+        if (bundle) manager.writePacket(channel, new WrapperPlayServerBundle());
+
+        for (PacketWrapper<?> packet : packets) {
+            manager.writePacket(channel, packet);
+            PacketMetrics.sent(PacketMetrics.Source.NPC_MODIFIERS, packet.getPacketTypeData().getPacketType());
+        }
+
+        if (bundle) manager.writePacket(channel, new WrapperPlayServerBundle());
+
+        ChannelHelper.flush(channel);
+
+        int written = packets.size() + (bundle ? 2 : 0);
+        PACKETS.add(written);
+        FLUSHES.increment();
+
+        if (spawn) {
+            SPAWN_PACKETS.add(written);
+            SPAWN_FLUSHES.increment();
+        }
+
+        packets.clear();
+    }
+
+    public static long getPackets() {
+        return PACKETS.sum();
+    }
+
+    public static long getFlushes() {
+        return FLUSHES.sum();
+    }
+
+    public static double getPacketsPerSpawn() {
+        long spawns = SPAWNS.sum();
+        return spawns == 0L ? 0.0d : (double) SPAWN_PACKETS.sum() / spawns;
+    }
+
+    public static double getFlushesPerSpawn() {
+        long spawns = SPAWNS.sum();
+        return spawns == 0L ? 0.0d : (double) SPAWN_FLUSHES.sum() / spawns;
+    }
+}
@@ -13,6 +13,9 @@ public class TeleportModifier extends NPCModifier {
     }
 
     public TeleportModifier queueTeleport(@NotNull Location location, boolean onGround) {
+        // Only changes something for the NPCs of the pool.
+        npc.getPlugin().getTracker().getPool().move(npc.getEntityId(), location);
+
         queueInstantly((npc, player) -> {
             return new WrapperPlayServerEntityTeleport(npc.getEntityId(), SpigotConversionUtil.fromBukkitLocation(location), onGround);
         });
@@ -5,14 +5,15 @@ import com.github.retrooper.packetevents.manager.server.ServerVersion;
 import com.github.retrooper.packetevents.protocol.entity.type.EntityTypes;
 import com.github.retrooper.packetevents.protocol.player.GameMode;
 import com.github.retrooper.packetevents.protocol.player.UserProfile;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
 import com.github.retrooper.packetevents.wrapper.play.server.*;
 import io.github.retrooper.packetevents.util.SpigotConversionUtil;
 import me.matsubara.realisticvillagers.npc.NPC;
 import org.bukkit.Location;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Collections;
-import java.util.EnumSet;
+import java.util.*;
 
 public class VisibilityModifier extends NPCModifier {
 
@@ -34,26 +35,35 @@ public class VisibilityModifier extends NPCModifier {
         super(npc);
     }
 
-    public VisibilityModifier queuePlayerListChange(boolean remove) {
-        if (remove && PacketEvents.getAPI().getServerManager().getVersion().isNewerThanOrEquals(ServerVersion.V_1_19_3)) {
-            queueInstantly(((npc, player) -> new WrapperPlayServerPlayerInfoRemove(Collections.singletonList(npc.getProfile().getUUID()))));
-            return this;
+    // A single packet with all the profiles, so the client only rebuilds the player list once.
+    public static @NotNull PacketWrapper<?> createPlayerListAdd(@NotNull List<UserProfile> profiles) {
+        if (PacketEvents.getAPI().getServerManager().getVersion().isNewerThanOrEquals(ServerVersion.V_1_19_3)) {
+            List<WrapperPlayServerPlayerInfoUpdate.PlayerInfo> infos = new ArrayList<>(profiles.size());
+            for (UserProfile profile : profiles) {
+                infos.add(new WrapperPlayServerPlayerInfoUpdate.PlayerInfo(profile, false, 20, GameMode.CREATIVE, null, null));
+            }
+            return new WrapperPlayServerPlayerInfoUpdate(ADD_ACTIONS, infos);
         }
+        return createLegacyPlayerInfo(WrapperPlayServerPlayerInfo.Action.ADD_PLAYER, profiles);
+    }
 
-        queuePacket((npc, player) -> {
-            UserProfile profile = npc.getProfile();
-            if (PacketEvents.getAPI().getServerManager().getVersion().isNewerThanOrEquals(ServerVersion.V_1_19_3)) {
-                WrapperPlayServerPlayerInfoUpdate.PlayerInfo info = new WrapperPlayServerPlayerInfoUpdate.PlayerInfo(profile, false, 20, GameMode.CREATIVE, null, null);
-                return new WrapperPlayServerPlayerInfoUpdate(ADD_ACTIONS, info);
-            } else {
-                WrapperPlayServerPlayerInfo.PlayerData info = new WrapperPlayServerPlayerInfo.PlayerData(null, profile, GameMode.CREATIVE, 20);
-                return new WrapperPlayServerPlayerInfo(remove ?
-                        WrapperPlayServerPlayerInfo.Action.REMOVE_PLAYER :
-                        WrapperPlayServerPlayerInfo.Action.ADD_PLAYER, info);
+    public static @NotNull PacketWrapper<?> createPlayerListRemove(@NotNull List<UserProfile> profiles) {
+        if (PacketEvents.getAPI().getServerManager().getVersion().isNewerThanOrEquals(ServerVersion.V_1_19_3)) {
+            List<UUID> uuids = new ArrayList<>(profiles.size());
+            for (UserProfile profile : profiles) {
+                uuids.add(profile.getUUID());
             }
-        });
+            return new WrapperPlayServerPlayerInfoRemove(uuids);
+        }
+        return createLegacyPlayerInfo(WrapperPlayServerPlayerInfo.Action.REMOVE_PLAYER, profiles);
+    }
 
-        return this;
+    private static @NotNull WrapperPlayServerPlayerInfo createLegacyPlayerInfo(WrapperPlayServerPlayerInfo.Action action, @NotNull List<UserProfile> profiles) {
+        List<WrapperPlayServerPlayerInfo.PlayerData> data = new ArrayList<>(profiles.size());
+        for (UserProfile profile : profiles) {
+            data.add(new WrapperPlayServerPlayerInfo.PlayerData(null, profile, GameMode.CREATIVE, 20));
+        }
+        return new WrapperPlayServerPlayerInfo(action, data);
     }
 
     public VisibilityModifier queueSpawn(@Nullable Location location) {
@@ -57,11 +57,11 @@ public class PreviewTask extends BukkitRunnable {
         this.npc = new NPC(
                 plugin,
                 profile,
-                (npc, seeing) -> {
-                    npc.rotation().queueHeadRotation(targetLocation.getYaw()).send(seeing);
+                (npc, seeing, batch) -> {
+                    npc.rotation().queueHeadRotation(targetLocation.getYaw()).send(batch);
 
                     MetadataModifier metadata = npc.metadata();
-                    metadata.queue(MetadataModifier.EntityMetadata.SKIN_LAYERS, true).send(seeing);
+                    metadata.queue(MetadataModifier.EntityMetadata.SKIN_LAYERS, true).send(batch);
                 },
                 SpigotReflectionUtil.generateEntityId(),
                 null);
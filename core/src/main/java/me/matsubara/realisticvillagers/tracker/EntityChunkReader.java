@@ -0,0 +1,385 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+// Reads the (uncompressed) NBT of a chunk from the entities region files without creating its tags.
+// Only the villagers with the data of this plugin are returned, with that data as a root compound (the same bytes NbtIo#write() creates).
+// The rest of the entities (and everything else in the villagers) is skipped.
+// The same data can be summarized later (see VillagerSummary), reading only the fields the registry needs.
+public final class EntityChunkReader {
+
+    private static final int MAX_DEPTH = 512;
+
+    private static final byte TAG_END = 0;
+    private static final byte TAG_BYTE = 1;
+    private static final byte TAG_SHORT = 2;
+    private static final byte TAG_INT = 3;
+    private static final byte TAG_LONG = 4;
+    private static final byte TAG_FLOAT = 5;
+    private static final byte TAG_DOUBLE = 6;
+    private static final byte TAG_BYTE_ARRAY = 7;
+    private static final byte TAG_STRING = 8;
+    private static final byte TAG_LIST = 9;
+    private static final byte TAG_COMPOUND = 10;
+    private static final byte TAG_INT_ARRAY = 11;
+    private static final byte TAG_LONG_ARRAY = 12;
+
+    private static final String VILLAGER = "minecraft:villager";
+
+    private final DataInput input;
+    private final String dataKey;
+    private boolean embeddedFamily;
+
+    private EntityChunkReader(DataInput input, String dataKey) {
+        this.input = input;
+        this.dataKey = dataKey;
+    }
+
+    // The villagers of the chunk with data saved under the given key (inside BukkitValues).
+    public static @NotNull List<Villager> read(DataInput input, String dataKey) throws IOException {
+        return new EntityChunkReader(input, dataKey).readChunk();
+    }
+
+    // The projection of the data of a villager found before, without decoding the rest of it.
+    public static @NotNull VillagerSummary summarize(@NotNull Villager villager) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(villager.data()));
+        return new EntityChunkReader(input, null).readSummary(villager);
+    }
+
+    private @NotNull List<Villager> readChunk() throws IOException {
+        byte type = input.readByte();
+        if (type != TAG_COMPOUND) return Collections.emptyList();
+        skipString();
+
+        List<Villager> villagers = new ArrayList<>();
+
+        while ((type = input.readByte()) != TAG_END) {
+            String name = input.readUTF();
+            if (type != TAG_LIST || !name.equals("Entities")) {
+                skip(type, 0);
+                continue;
+            }
+
+            byte elementType = input.readByte();
+            int size = input.readInt();
+            if (elementType != TAG_COMPOUND) {
+                skipListElements(elementType, size, 0);
+                continue;
+            }
+
+            for (int i = 0; i < size; i++) {
+                Villager villager = readEntity();
+                if (villager != null) villagers.add(villager);
+            }
+        }
+
+        return villagers;
+    }
+
+    private Villager readEntity() throws IOException {
+        String id = null;
+        UUID uuid = null;
+        double[] pos = null;
+        byte[] data = null;
+
+        byte type;
+        while ((type = input.readByte()) != TAG_END) {
+            String name = input.readUTF();
+
+            // Once we know it isn't a villager, the rest of the entity is skipped.
+            boolean villager = id == null || id.equals(VILLAGER);
+            if (!villager) {
+                skip(type, 1);
+                continue;
+            }
+
+            if (type == TAG_STRING && name.equals("id")) {
+                id = input.readUTF();
+            } else if (type == TAG_INT_ARRAY && name.equals("UUID")) {
+                uuid = readUUID();
+            } else if (type == TAG_LIST && name.equals("Pos")) {
+                pos = readPos();
+            } else if (type == TAG_COMPOUND && name.equals("BukkitValues")) {
+                data = readData();
+            } else {
+                skip(type, 1);
+            }
+        }
+
+        if (!VILLAGER.equals(id) || uuid == null || data == null) return null;
+        if (pos == null) pos = new double[3];
+        return new Villager(uuid, pos[0], pos[1], pos[2], data);
+    }
+
+    // Same defaults as CompoundTag (empty strings, 0), as if the data was decoded.
+    private @NotNull VillagerSummary readSummary(@NotNull Villager villager) throws IOException {
+        byte type = input.readByte();
+        if (type != TAG_COMPOUND) throw new IOException("Invalid root tag type: " + type);
+        skipString();
+
+        String name = "", sex = "";
+        int skinTextureId = 0, kidSkinTextureId = 0;
+        UUID partner = null, father = null, mother = null;
+        List<UUID> partners = Collections.emptyList(), children = Collections.emptyList();
+
+        while ((type = input.readByte()) != TAG_END) {
+            String field = input.readUTF();
+            switch (field) {
+                case "Name" -> name = type == TAG_STRING ? input.readUTF() : skipField(type, name);
+                case "Sex" -> sex = type == TAG_STRING ? input.readUTF() : skipField(type, sex);
+                case "SkinTextureId" -> skinTextureId = type == TAG_INT ? input.readInt() : skipField(type, skinTextureId);
+                case "KidSkinTextureId" -> kidSkinTextureId = type == TAG_INT ? input.readInt() : skipField(type, kidSkinTextureId);
+                case "Partner" -> partner = readFamilyUUID(type);
+                case "Father" -> father = readFamilyUUID(type);
+                case "Mother" -> mother = readFamilyUUID(type);
+                case "Partners" -> partners = readFamilyUUIDs(type);
+                case "Childrens" -> children = readFamilyUUIDs(type);
+                default -> skip(type, 1);
+            }
+        }
+
+        return new VillagerSummary(villager.uuid(), villager.x(), villager.y(), villager.z(),
+                name, sex, skinTextureId, kidSkinTextureId, partner, father, mother, partners, children, embeddedFamily);
+    }
+
+    private <T> T skipField(byte type, T value) throws IOException {
+        skip(type, 1);
+        return value;
+    }
+
+    // A family member is saved as its UUID, or as a copy of its data (older versions).
+    private @Nullable UUID readFamilyUUID(byte type) throws IOException {
+        if (type == TAG_INT_ARRAY) return readUUID();
+        if (type != TAG_COMPOUND) {
+            skip(type, 1);
+            return null;
+        }
+
+        embeddedFamily = true;
+
+        UUID uuid = null;
+        byte fieldType;
+        while ((fieldType = input.readByte()) != TAG_END) {
+            String name = input.readUTF();
+            if (fieldType == TAG_INT_ARRAY && name.equals("UUID")) {
+                uuid = readUUID();
+            } else {
+                skip(fieldType, 2);
+            }
+        }
+        return uuid;
+    }
+
+    private @NotNull List<UUID> readFamilyUUIDs(byte type) throws IOException {
+        if (type != TAG_LIST) {
+            skip(type, 1);
+            return Collections.emptyList();
+        }
+
+        byte elementType = input.readByte();
+        int size = input.readInt();
+        if (size <= 0) return Collections.emptyList();
+        if (elementType != TAG_INT_ARRAY && elementType != TAG_COMPOUND) {
+            skipListElements(elementType, size, 1);
+            return Collections.emptyList();
+        }
+
+        List<UUID> uuids = new ArrayList<>(Math.min(size, 64));
+        for (int i = 0; i < size; i++) {
+            UUID uuid = readFamilyUUID(elementType);
+            if (uuid != null) uuids.add(uuid);
+        }
+        return uuids;
+    }
+
+    private UUID readUUID() throws IOException {
+        int length = readLength();
+        if (length != 4) {
+            skipBytes(length * 4L);
+            return null;
+        }
+
+        long most = (long) input.readInt() << 32 | input.readInt() & 0xFFFFFFFFL;
+        long least = (long) input.readInt() << 32 | input.readInt() & 0xFFFFFFFFL;
+        return new UUID(most, least);
+    }
+
+    private double[] readPos() throws IOException {
+        byte elementType = input.readByte();
+        int size = input.readInt();
+        if (elementType != TAG_DOUBLE || size < 3) {
+            skipListElements(elementType, size, 1);
+            return null;
+        }
+
+        double[] pos = {input.readDouble(), input.readDouble(), input.readDouble()};
+        skipBytes((size - 3) * 8L);
+        return pos;
+    }
+
+    // Only the compound of this plugin is kept, as a root compound.
+    private byte[] readData() throws IOException {
+        byte[] data = null;
+
+        byte type;
+        while ((type = input.readByte()) != TAG_END) {
+            String name = input.readUTF();
+            if (type != TAG_COMPOUND || !name.equals(dataKey)) {
+                skip(type, 2);
+                continue;
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeByte(TAG_COMPOUND);
+            output.writeUTF("");
+            copyCompound(output, 2);
+            output.flush();
+            data = bytes.toByteArray();
+        }
+
+        return data;
+    }
+
+    private void skip(byte type, int depth) throws IOException {
+        switch (type) {
+            case TAG_BYTE -> skipBytes(1L);
+            case TAG_SHORT -> skipBytes(2L);
+            case TAG_INT, TAG_FLOAT -> skipBytes(4L);
+            case TAG_LONG, TAG_DOUBLE -> skipBytes(8L);
+            case TAG_BYTE_ARRAY -> skipBytes(readLength());
+            case TAG_STRING -> skipString();
+            case TAG_LIST -> {
+                byte elementType = input.readByte();
+                skipListElements(elementType, input.readInt(), depth);
+            }
+            case TAG_COMPOUND -> {
+                checkDepth(depth);
+                byte fieldType;
+                while ((fieldType = input.readByte()) != TAG_END) {
+                    skipString();
+                    skip(fieldType, depth + 1);
+                }
+            }
+            case TAG_INT_ARRAY -> skipBytes(readLength() * 4L);
+            case TAG_LONG_ARRAY -> skipBytes(readLength() * 8L);
+            default -> throw new IOException("Invalid tag type: " + type);
+        }
+    }
+
+    private void skipListElements(byte type, int size, int depth) throws IOException {
+        if (size <= 0) return;
+        checkDepth(depth);
+
+        // Fixed size elements don't need to be read one by one.
+        long fixed = switch (type) {
+            case TAG_BYTE -> 1L;
+            case TAG_SHORT -> 2L;
+            case TAG_INT, TAG_FLOAT -> 4L;
+            case TAG_LONG, TAG_DOUBLE -> 8L;
+            default -> -1L;
+        };
+
+        if (fixed > 0L) {
+            skipBytes(fixed * size);
+            return;
+        }
+
+        for (int i = 0; i < size; i++) {
+            skip(type, depth + 1);
+        }
+    }
+
+    private void copy(DataOutputStream output, byte type, int depth) throws IOException {
+        switch (type) {
+            case TAG_BYTE -> output.writeByte(input.readByte());
+            case TAG_SHORT -> output.writeShort(input.readShort());
+            case TAG_INT -> output.writeInt(input.readInt());
+            case TAG_LONG -> output.writeLong(input.readLong());
+            case TAG_FLOAT -> output.writeFloat(input.readFloat());
+            case TAG_DOUBLE -> output.writeDouble(input.readDouble());
+            case TAG_BYTE_ARRAY -> copyArray(output, 1);
+            case TAG_STRING -> copyString(output);
+            case TAG_LIST -> {
+                checkDepth(depth);
+                byte elementType = input.readByte();
+                int size = input.readInt();
+                output.writeByte(elementType);
+                output.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    copy(output, elementType, depth + 1);
+                }
+            }
+            case TAG_COMPOUND -> copyCompound(output, depth);
+            case TAG_INT_ARRAY -> copyArray(output, 4);
+            case TAG_LONG_ARRAY -> copyArray(output, 8);
+            default -> throw new IOException("Invalid tag type: " + type);
+        }
+    }
+
+    private void copyCompound(@NotNull DataOutputStream output, int depth) throws IOException {
+        checkDepth(depth);
+
+        byte type;
+        while ((type = input.readByte()) != TAG_END) {
+            output.writeByte(type);
+            copyString(output);
+            copy(output, type, depth + 1);
+        }
+        output.writeByte(TAG_END);
+    }
+
+    private void copyArray(@NotNull DataOutputStream output, int elementSize) throws IOException {
+        int length = readLength();
+        byte[] bytes = new byte[Math.multiplyExact(length, elementSize)];
+        input.readFully(bytes);
+        output.writeInt(length);
+        output.write(bytes);
+    }
+
+    // Strings are copied as they're (modified UTF-8), without decoding them.
+    private void copyString(@NotNull DataOutputStream output) throws IOException {
+        int length = input.readUnsignedShort();
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        output.writeShort(length);
+        output.write(bytes);
+    }
+
+    private void skipString() throws IOException {
+        skipBytes(input.readUnsignedShort());
+    }
+
+    private int readLength() throws IOException {
+        int length = input.readInt();
+        if (length < 0) throw new IOException("Invalid array length: " + length);
+        return length;
+    }
+
+    private void skipBytes(long amount) throws IOException {
+        while (amount > 0L) {
+            int skipped = input.skipBytes((int) Math.min(amount, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                // Some streams can't skip, read a byte to know if it's the end.
+                input.readByte();
+                skipped = 1;
+            }
+            amount -= skipped;
+        }
+    }
+
+    private void checkDepth(int depth) throws IOException {
+        if (depth > MAX_DEPTH) throw new IOException("Tried to read NBT tag with too high complexity, depth > " + MAX_DEPTH);
+    }
+
+    // A villager found in a chunk; the data is the compound of this plugin, readable with NbtIo#read().
+    public record Villager(UUID uuid, double x, double y, double z, byte[] data) {
+    }
+}
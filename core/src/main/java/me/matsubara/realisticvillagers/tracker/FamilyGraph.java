@@ -0,0 +1,289 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import me.matsubara.realisticvillagers.RealisticVillagers;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// The family relations of every villager (and the players married to them), as UUID edges.
+// There's a single record per villager/player; the villagers only save the UUIDs of their family in their own data.
+// Saved as one file per world (family/<world>.dat), players and records without a world go to the main world.
+public final class FamilyGraph {
+
+    private final File folder;
+    private final Logger logger;
+    private final Supplier<String> mainWorld;
+    private final Map<UUID, Node> nodes = new ConcurrentHashMap<>();
+    private final Object saveLock = new Object();
+    private volatile boolean dirty;
+
+    private static final int MAGIC = 0x52564647;
+    private static final int VERSION = 1;
+    private static final long SAVE_INTERVAL = 6000L;
+    private static final String EXTENSION = ".dat";
+
+    private static final int VILLAGER = 1;
+    private static final int OWN = 1 << 1;
+    private static final int HAS_PARTNER = 1 << 2;
+    private static final int HAS_FATHER = 1 << 3;
+    private static final int HAS_MOTHER = 1 << 4;
+
+    public FamilyGraph(@NotNull RealisticVillagers plugin) {
+        this(new File(plugin.getDataFolder(), "family"), plugin.getLogger(), FamilyGraph::getMainWorld);
+        plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, this::save, SAVE_INTERVAL, SAVE_INTERVAL);
+    }
+
+    // Without the autosave, the owner needs to call save().
+    public FamilyGraph(@NotNull File folder, @NotNull Logger logger, @NotNull Supplier<String> mainWorld) {
+        this.folder = folder;
+        this.logger = logger;
+        this.mainWorld = mainWorld;
+        load();
+    }
+
+    public @Nullable Node get(UUID uuid) {
+        return uuid != null ? nodes.get(uuid) : null;
+    }
+
+    public @Nullable Member getMember(UUID uuid) {
+        Node node = get(uuid);
+        return node != null ? node.member() : null;
+    }
+
+    public int size() {
+        return nodes.size();
+    }
+
+    // The record of a villager, written by itself; always replaces the previous one.
+    public synchronized void update(@NotNull Node node) {
+        Node previous = nodes.put(node.member().uuid(), node);
+        if (!node.equals(previous)) dirty = true;
+    }
+
+    // A family member seen from another villager, only used if the member didn't write its own record.
+    public synchronized void putRelative(@NotNull Member member) {
+        // Unresolved members (see OfflineVillagerNPC#fromFamily()) would only replace a real record.
+        if (member.name().isEmpty()) return;
+
+        Node previous = nodes.get(member.uuid());
+        if (previous != null && (previous.own() || previous.member().equals(member))) return;
+
+        nodes.put(member.uuid(), previous != null ? previous.withMember(member) : Node.of(member));
+        dirty = true;
+    }
+
+    // Used when migrating the old (embedded) family data. Own records win, and the first one seen wins otherwise.
+    public synchronized void merge(@NotNull Node node) {
+        Node previous = nodes.get(node.member().uuid());
+        if (previous != null && (previous.own() || !node.own())) return;
+
+        nodes.put(node.member().uuid(), node);
+        dirty = true;
+    }
+
+    private void load() {
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) return;
+
+        for (File file : files) {
+            String world = file.getName().substring(0, file.getName().length() - EXTENSION.length());
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+                if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                    logger.warning("The family file {" + file.getName() + "} is from an unknown version, ignoring it.");
+                    continue;
+                }
+
+                int count = input.readInt();
+                for (int i = 0; i < count; i++) {
+                    Node node = readNode(input, world);
+                    // A villager that changed of world may still be in the old file until the next save.
+                    nodes.merge(node.member().uuid(), node, (previous, current) -> current.own() ? current : previous);
+                }
+            } catch (IOException exception) {
+                logger.log(Level.WARNING, "Couldn't load the family file {" + file.getName() + "}!", exception);
+            }
+        }
+    }
+
+    public void save() {
+        // Both the autosave (async) and the one when disabling may run at the same time.
+        synchronized (saveLock) {
+            saveNow();
+        }
+    }
+
+    private void saveNow() {
+        Map<String, List<Node>> byWorld;
+        synchronized (this) {
+            if (!dirty) return;
+            dirty = false;
+
+            String main = mainWorld.get();
+            byWorld = new HashMap<>();
+            for (Node node : nodes.values()) {
+                String world = node.own() && node.member().world() != null ? node.member().world() : main;
+                byWorld.computeIfAbsent(world, temp -> new ArrayList<>()).add(node);
+            }
+        }
+
+        try {
+            Files.createDirectories(folder.toPath());
+
+            for (Map.Entry<String, List<Node>> entry : byWorld.entrySet()) {
+                File file = new File(folder, entry.getKey() + EXTENSION);
+                File temp = new File(folder, entry.getKey() + EXTENSION + ".tmp");
+
+                try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))))) {
+                    output.writeInt(MAGIC);
+                    output.writeInt(VERSION);
+                    output.writeInt(entry.getValue().size());
+                    for (Node node : entry.getValue()) {
+                        writeNode(output, node);
+                    }
+                }
+
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+
+            // Worlds without records any more.
+            File[] files = folder.listFiles((dir, name) -> name.endsWith(EXTENSION));
+            if (files == null) return;
+
+            for (File file : files) {
+                String world = file.getName().substring(0, file.getName().length() - EXTENSION.length());
+                if (!byWorld.containsKey(world)) Files.deleteIfExists(file.toPath());
+            }
+        } catch (IOException exception) {
+            dirty = true;
+            logger.log(Level.WARNING, "Couldn't save the family data!", exception);
+        }
+    }
+
+    private static @NotNull String getMainWorld() {
+        List<World> worlds = Bukkit.getWorlds();
+        return worlds.isEmpty() ? "world" : worlds.get(0).getName();
+    }
+
+    private static void writeNode(@NotNull DataOutputStream output, @NotNull Node node) throws IOException {
+        Member member = node.member();
+
+        int flags = 0;
+        if (member.villager()) flags |= VILLAGER;
+        if (node.own()) flags |= OWN;
+        if (node.partner() != null) flags |= HAS_PARTNER;
+        if (node.father() != null) flags |= HAS_FATHER;
+        if (node.mother() != null) flags |= HAS_MOTHER;
+
+        writeUUID(output, member.uuid());
+        output.writeByte(flags);
+        output.writeUTF(member.name());
+        output.writeUTF(member.sex());
+        output.writeInt(member.skinTextureId());
+        output.writeInt(member.kidSkinTextureId());
+        if (node.partner() != null) writeUUID(output, node.partner());
+        if (node.father() != null) writeUUID(output, node.father());
+        if (node.mother() != null) writeUUID(output, node.mother());
+        writeUUIDs(output, node.partners());
+        writeUUIDs(output, node.children());
+    }
+
+    private static @NotNull Node readNode(@NotNull DataInputStream input, String world) throws IOException {
+        UUID uuid = readUUID(input);
+        int flags = input.readUnsignedByte();
+        boolean own = (flags & OWN) != 0;
+
+        Member member = new Member(
+                uuid,
+                input.readUTF(),
+                input.readUTF(),
+                input.readInt(),
+                input.readInt(),
+                (flags & VILLAGER) != 0,
+                own ? world : null);
+
+        return new Node(
+                member,
+                own,
+                (flags & HAS_PARTNER) != 0 ? readUUID(input) : null,
+                (flags & HAS_FATHER) != 0 ? readUUID(input) : null,
+                (flags & HAS_MOTHER) != 0 ? readUUID(input) : null,
+                readUUIDs(input),
+                readUUIDs(input));
+    }
+
+    private static void writeUUID(@NotNull DataOutputStream output, @NotNull UUID uuid) throws IOException {
+        output.writeLong(uuid.getMostSignificantBits());
+        output.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static @NotNull UUID readUUID(@NotNull DataInputStream input) throws IOException {
+        return new UUID(input.readLong(), input.readLong());
+    }
+
+    private static void writeUUIDs(@NotNull DataOutputStream output, @NotNull List<UUID> uuids) throws IOException {
+        output.writeInt(uuids.size());
+        for (UUID uuid : uuids) {
+            writeUUID(output, uuid);
+        }
+    }
+
+    private static @NotNull List<UUID> readUUIDs(@NotNull DataInputStream input) throws IOException {
+        int size = input.readInt();
+        if (size == 0) return Collections.emptyList();
+
+        List<UUID> uuids = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            uuids.add(readUUID(input));
+        }
+        return List.copyOf(uuids);
+    }
+
+    // What's needed to show a family member that may not exist any more (dead villager, player, etc.).
+    public record Member(UUID uuid,
+                         String name,
+                         String sex,
+                         int skinTextureId,
+                         int kidSkinTextureId,
+                         boolean villager,
+                         @Nullable String world) {
+
+        public Member {
+            name = Objects.requireNonNullElse(name, "");
+            sex = Objects.requireNonNullElse(sex, "");
+        }
+    }
+
+    public record Node(Member member,
+                       boolean own,
+                       @Nullable UUID partner,
+                       @Nullable UUID father,
+                       @Nullable UUID mother,
+                       List<UUID> partners,
+                       List<UUID> children) {
+
+        public Node {
+            partners = List.copyOf(partners);
+            children = List.copyOf(children);
+        }
+
+        private static @NotNull Node of(Member member) {
+            return new Node(member, false, null, null, null, Collections.emptyList(), Collections.emptyList());
+        }
+
+        private @NotNull Node withMember(Member member) {
+            return new Node(member, own, partner, father, mother, partners, children);
+        }
+    }
+}
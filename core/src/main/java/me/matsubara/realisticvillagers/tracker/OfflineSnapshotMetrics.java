@@ -0,0 +1,47 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// How often the offline snapshot of a villager (IVillagerNPC#getOffline()) is reused instead of being serialized again.
+public final class OfflineSnapshotMetrics {
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder MISS_NANOS = new LongAdder();
+
+    private OfflineSnapshotMetrics() {
+    }
+
+    public static void hit() {
+        HITS.increment();
+    }
+
+    // A new snapshot had to be created, taking these nanos.
+    public static void miss(long nanos) {
+        MISSES.increment();
+        MISS_NANOS.add(nanos);
+    }
+
+    public static long getHits() {
+        return HITS.sum();
+    }
+
+    public static long getMisses() {
+        return MISSES.sum();
+    }
+
+    public static double getHitRate() {
+        long hits = getHits(), total = hits + getMisses();
+        return total > 0L ? (double) hits / total : 0.0d;
+    }
+
+    public static long getAverageMissNanos() {
+        long misses = getMisses();
+        return misses > 0L ? MISS_NANOS.sum() / misses : 0L;
+    }
+
+    // An estimate, every hit would have cost as much as an average miss.
+    public static long getSavedNanos() {
+        return getHits() * getAverageMissNanos();
+    }
+}
@@ -0,0 +1,300 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import lombok.Getter;
+import me.matsubara.realisticvillagers.RealisticVillagers;
+import me.matsubara.realisticvillagers.files.Config;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+// The full (encoded) data of the offline villagers, by UUID.
+// Only the most recently used entries are kept in memory (up to @offline-data-cache-size), the rest are appended to a single file
+// (only their offsets are kept). Nothing is removed while the plugin is enabled, family members keep referencing the data of dead villagers.
+// The villagers taken from the region index start unread, their data is only read from their region the first time it's needed.
+public final class OfflineTagStore {
+
+    private final RealisticVillagers plugin;
+    private final File folder;
+    private final LinkedHashMap<UUID, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<UUID, Slot> spilled = new ConcurrentHashMap<>();
+    private final Map<UUID, Supplier<byte[]>> unread = new ConcurrentHashMap<>();
+    private long cachedBytes;
+    private boolean warned;
+
+    // The decoded data of the most recently used entries, shared by the callers (so it must not be modified).
+    // Reading a few values of the same villager in a row only decodes it once.
+    private final LinkedHashMap<UUID, Object> decoded = new LinkedHashMap<>(16, 0.75f, true);
+    private long puts;
+
+    // The spilled data is never overwritten, so it can be read without holding the lock.
+    // The space of the data replaced after spilling it isn't reused (until the next restart).
+    private @Nullable FileChannel channel;
+    private long end;
+
+    private static final int DECODED_CACHE_SIZE = 64;
+
+    private final @Getter LongAdder hits = new LongAdder();
+    private final @Getter LongAdder decodedHits = new LongAdder();
+    private final @Getter LongAdder diskReads = new LongAdder();
+    private final @Getter LongAdder diskWrites = new LongAdder();
+    private final @Getter LongAdder regionReads = new LongAdder();
+
+    public OfflineTagStore(@NotNull RealisticVillagers plugin) {
+        this.plugin = plugin;
+        this.folder = new File(plugin.getDataFolder(), "offline");
+
+        // The data is taken from the worlds every time the plugin is enabled, the previous one isn't needed.
+        FileUtils.deleteQuietly(folder);
+    }
+
+    public synchronized void put(UUID uuid, byte @NotNull [] data) {
+        cache(uuid, new Entry(data, null));
+        decoded.remove(uuid);
+        puts++;
+
+        // The one in memory is newer.
+        spilled.remove(uuid);
+        unread.remove(uuid);
+
+        trim();
+    }
+
+    public synchronized void putIfAbsent(UUID uuid, byte @NotNull [] data) {
+        if (contains(uuid)) return;
+        put(uuid, data);
+    }
+
+    // Same as above, the loader is only called (outside the lock) when the data is needed. If it returns null, the data is lost.
+    public synchronized void putIfAbsent(UUID uuid, @NotNull Supplier<byte[]> loader) {
+        if (contains(uuid)) return;
+        unread.put(uuid, loader);
+    }
+
+    private boolean contains(UUID uuid) {
+        return cache.containsKey(uuid) || spilled.containsKey(uuid) || unread.containsKey(uuid);
+    }
+
+    public byte @Nullable [] get(UUID uuid) {
+        while (true) {
+            Slot slot;
+            FileChannel channel;
+            Supplier<byte[]> loader;
+            synchronized (this) {
+                Entry entry = cache.get(uuid);
+                if (entry != null) {
+                    hits.increment();
+                    return entry.data();
+                }
+
+                slot = spilled.get(uuid);
+                channel = this.channel;
+                loader = unread.get(uuid);
+                if ((slot == null || channel == null) && loader == null) return null;
+            }
+
+            byte[] data;
+            if (loader != null) {
+                data = loader.get();
+                regionReads.increment();
+            } else {
+                try {
+                    data = read(channel, slot);
+                    diskReads.increment();
+                } catch (IOException exception) {
+                    plugin.getLogger().log(Level.WARNING, "Couldn't read the offline data of {" + uuid + "}!", exception);
+                    return null;
+                }
+            }
+
+            synchronized (this) {
+                // Already back in memory (read by another thread or replaced).
+                Entry entry = cache.get(uuid);
+                if (entry != null) return entry.data();
+
+                if (loader != null) {
+                    // Otherwise, it was replaced (and spilled) while reading.
+                    if (!unread.remove(uuid, loader)) continue;
+                    if (data == null) return null;
+
+                    cache(uuid, new Entry(data, null));
+                    trim();
+                    return data;
+                }
+
+                // Otherwise, it was replaced and spilled again while reading, the data read is outdated.
+                if (spilled.remove(uuid, slot)) {
+                    // Back to memory, since it'll probably be used again soon.
+                    // It keeps its slot, so it isn't written again unless it changes.
+                    cache(uuid, new Entry(data, slot));
+                    trim();
+                    return data;
+                }
+            }
+        }
+    }
+
+    // Same as get(), decoded with the given function (only if it isn't already).
+    @SuppressWarnings("unchecked")
+    public <T> @Nullable T get(UUID uuid, Function<byte[], T> decoder) {
+        long puts;
+        synchronized (this) {
+            Object value = decoded.get(uuid);
+            if (value != null) {
+                decodedHits.increment();
+                return (T) value;
+            }
+            puts = this.puts;
+        }
+
+        byte[] data = get(uuid);
+        if (data == null) return null;
+
+        T value = decoder.apply(data);
+        synchronized (this) {
+            // Not kept if anything was put meanwhile, the data decoded may be outdated.
+            if (puts == this.puts) {
+                decoded.put(uuid, value);
+                if (decoded.size() > DECODED_CACHE_SIZE) {
+                    Iterator<UUID> iterator = decoded.keySet().iterator();
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+        }
+        return value;
+    }
+
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+        spilled.clear();
+        unread.clear();
+        decoded.clear();
+        FileUtils.deleteQuietly(folder);
+    }
+
+    private void cache(UUID uuid, @NotNull Entry entry) {
+        Entry previous = cache.put(uuid, entry);
+        if (previous != null) cachedBytes -= previous.data().length;
+        cachedBytes += entry.data().length;
+    }
+
+    private void trim() {
+        long max = Math.max(0L, Config.OFFLINE_DATA_CACHE_SIZE.asLong()) * 1024L * 1024L;
+
+        Iterator<Map.Entry<UUID, Entry>> iterator = cache.entrySet().iterator();
+        while (cachedBytes > max && iterator.hasNext()) {
+            Map.Entry<UUID, Entry> eldest = iterator.next();
+            Entry entry = eldest.getValue();
+
+            Slot slot = entry.slot() != null ? entry.slot() : spill(entry.data());
+            if (slot == null) return;
+
+            spilled.put(eldest.getKey(), slot);
+            iterator.remove();
+            cachedBytes -= entry.data().length;
+        }
+    }
+
+    private @Nullable Slot spill(byte @NotNull [] data) {
+        try {
+            if (channel == null) {
+                Files.createDirectories(folder.toPath());
+                channel = FileChannel.open(
+                        new File(folder, "villagers.dat").toPath(),
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                end = 0L;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            long position = end;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+
+            Slot slot = new Slot(end, data.length);
+            end = position;
+            diskWrites.increment();
+            return slot;
+        } catch (IOException exception) {
+            // Keep everything in memory, better than losing the data.
+            if (!warned) {
+                plugin.getLogger().log(Level.WARNING, "Couldn't write the offline data to disk, it'll be kept in memory!", exception);
+                warned = true;
+            }
+            return null;
+        }
+    }
+
+    private static byte @NotNull [] read(@NotNull FileChannel channel, @NotNull Slot slot) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(slot.length());
+        long position = slot.offset();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read == -1) throw new EOFException("The offline data file ended before the data of a villager!");
+            position += read;
+        }
+        return buffer.array();
+    }
+
+    public synchronized int getCachedCount() {
+        return cache.size();
+    }
+
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    public int getUnreadCount() {
+        return unread.size();
+    }
+
+    public int getSpilledCount() {
+        return spilled.size();
+    }
+
+    public long getSpilledBytes() {
+        long bytes = 0L;
+        for (Slot slot : spilled.values()) {
+            bytes += slot.length();
+        }
+        return bytes;
+    }
+
+    // Including the space of the data replaced after spilling it.
+    public synchronized long getFileBytes() {
+        return end;
+    }
+
+    // The slot is kept while the data doesn't change, even if it's in memory.
+    private record Entry(byte[] data, @Nullable Slot slot) {
+    }
+
+    private record Slot(long offset, int length) {
+    }
+}
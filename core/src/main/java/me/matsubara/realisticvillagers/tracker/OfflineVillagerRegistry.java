@@ -0,0 +1,214 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import me.matsubara.realisticvillagers.data.LastKnownPosition;
+import me.matsubara.realisticvillagers.entity.IVillagerNPC;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The offline data of every villager, by UUID, with secondary indexes by partner, parent, family (partner + parents), world and chunk.
+// Mutations are synchronized so the indexes are always consistent with the entries; reads don't lock.
+public class OfflineVillagerRegistry {
+
+    // A rough size of an entry (the offline villager and its indexes), without its name.
+    private static final long ESTIMATED_ENTRY_BYTES = 512L;
+
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private final Map<UUID, Set<UUID>> byPartner = new ConcurrentHashMap<>();
+    private final Map<UUID, Set<UUID>> byParent = new ConcurrentHashMap<>();
+    private final Map<UUID, Set<UUID>> byFamily = new ConcurrentHashMap<>();
+    private final Map<String, Set<UUID>> byWorld = new ConcurrentHashMap<>();
+    private final Map<ChunkKey, Set<UUID>> byChunk = new ConcurrentHashMap<>();
+
+    private final Collection<IVillagerNPC> values = new AbstractCollection<>() {
+        @Override
+        public @NotNull Iterator<IVillagerNPC> iterator() {
+            Iterator<Entry> iterator = entries.values().iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public IVillagerNPC next() {
+                    return iterator.next().npc();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+    };
+
+    public @Nullable IVillagerNPC get(UUID uuid) {
+        if (uuid == null) return null;
+        Entry entry = entries.get(uuid);
+        return entry != null ? entry.npc() : null;
+    }
+
+    public boolean contains(UUID uuid) {
+        return uuid != null && entries.containsKey(uuid);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // An estimate of the memory used by the villagers kept here (their full data is in the OfflineTagStore).
+    public long estimateResidentBytes() {
+        long bytes = 0L;
+        for (Entry entry : entries.values()) {
+            String name = entry.npc().getVillagerName();
+            bytes += ESTIMATED_ENTRY_BYTES + (name != null ? 2L * name.length() : 0L);
+        }
+        return bytes;
+    }
+
+    // A read-only view of all the villagers.
+    public Collection<IVillagerNPC> values() {
+        return values;
+    }
+
+    // Adds (or replaces) the data of a villager, returning the previous one.
+    public synchronized @Nullable IVillagerNPC put(@NotNull IVillagerNPC npc) {
+        Entry entry = Entry.of(npc);
+        Entry previous = entries.put(entry.uuid(), entry);
+        if (previous != null) unindex(previous);
+        index(entry);
+        return previous != null ? previous.npc() : null;
+    }
+
+    // Only adds the data if there isn't one already, returning true if added.
+    public synchronized boolean putIfAbsent(@NotNull IVillagerNPC npc) {
+        if (entries.containsKey(npc.getUniqueId())) return false;
+        put(npc);
+        return true;
+    }
+
+    public synchronized @Nullable IVillagerNPC remove(UUID uuid) {
+        if (uuid == null) return null;
+
+        Entry previous = entries.remove(uuid);
+        if (previous == null) return null;
+
+        unindex(previous);
+        return previous.npc();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        byPartner.clear();
+        byParent.clear();
+        byFamily.clear();
+        byWorld.clear();
+        byChunk.clear();
+    }
+
+    public List<IVillagerNPC> getByPartner(UUID partner) {
+        return resolve(byPartner.get(partner));
+    }
+
+    // Villagers whose father or mother is the given UUID.
+    public List<IVillagerNPC> getByParent(UUID parent) {
+        return resolve(byParent.get(parent));
+    }
+
+    // Villagers whose partner, father or mother is the given UUID (usually a player).
+    public List<IVillagerNPC> getFamilyOf(UUID uuid) {
+        return resolve(byFamily.get(uuid));
+    }
+
+    public List<IVillagerNPC> getByWorld(String world) {
+        return resolve(byWorld.get(world));
+    }
+
+    public List<IVillagerNPC> getInChunk(String world, int chunkX, int chunkZ) {
+        return resolve(byChunk.get(new ChunkKey(world, chunkX, chunkZ)));
+    }
+
+    private @NotNull List<IVillagerNPC> resolve(@Nullable Set<UUID> uuids) {
+        if (uuids == null || uuids.isEmpty()) return Collections.emptyList();
+
+        List<IVillagerNPC> result = new ArrayList<>(uuids.size());
+        for (UUID uuid : uuids) {
+            IVillagerNPC npc = get(uuid);
+            if (npc != null) result.add(npc);
+        }
+        return result;
+    }
+
+    private void index(@NotNull Entry entry) {
+        if (entry.partner() != null) add(byPartner, entry.partner(), entry.uuid());
+        if (entry.father() != null) add(byParent, entry.father(), entry.uuid());
+        if (entry.mother() != null) add(byParent, entry.mother(), entry.uuid());
+        for (UUID family : entry.family()) {
+            add(byFamily, family, entry.uuid());
+        }
+        add(byWorld, entry.chunk().world(), entry.uuid());
+        add(byChunk, entry.chunk(), entry.uuid());
+    }
+
+    private void unindex(@NotNull Entry entry) {
+        if (entry.partner() != null) remove(byPartner, entry.partner(), entry.uuid());
+        // The same UUID may be both parents (shouldn't happen, but then the other one still needs it).
+        if (entry.father() != null && !entry.father().equals(entry.mother())) remove(byParent, entry.father(), entry.uuid());
+        if (entry.mother() != null) remove(byParent, entry.mother(), entry.uuid());
+        for (UUID family : entry.family()) {
+            remove(byFamily, family, entry.uuid());
+        }
+        remove(byWorld, entry.chunk().world(), entry.uuid());
+        remove(byChunk, entry.chunk(), entry.uuid());
+    }
+
+    private static <K> void add(@NotNull Map<K, Set<UUID>> index, K key, UUID uuid) {
+        index.computeIfAbsent(key, temp -> ConcurrentHashMap.newKeySet()).add(uuid);
+    }
+
+    private static <K> void remove(@NotNull Map<K, Set<UUID>> index, K key, UUID uuid) {
+        Set<UUID> uuids = index.get(key);
+        if (uuids == null) return;
+
+        uuids.remove(uuid);
+        if (uuids.isEmpty()) index.remove(key);
+    }
+
+    // The values used by the indexes are taken when added, so they can be removed even if the villager changed.
+    private record Entry(UUID uuid,
+                         IVillagerNPC npc,
+                         @Nullable UUID partner,
+                         @Nullable UUID father,
+                         @Nullable UUID mother,
+                         ChunkKey chunk) {
+
+        private @NotNull Set<UUID> family() {
+            Set<UUID> family = new HashSet<>(3);
+            if (partner != null) family.add(partner);
+            if (father != null) family.add(father);
+            if (mother != null) family.add(mother);
+            return family;
+        }
+
+        @Contract("_ -> new")
+        private static @NotNull Entry of(@NotNull IVillagerNPC npc) {
+            LastKnownPosition position = npc.getLastKnownPosition();
+            if (position == null) position = LastKnownPosition.ZERO;
+
+            return new Entry(
+                    npc.getUniqueId(),
+                    npc,
+                    npc.getPartnerUUID(),
+                    npc.getFatherUUID(),
+                    npc.getMotherUUID(),
+                    new ChunkKey(position.world(), (int) Math.floor(position.x()) >> 4, (int) Math.floor(position.z()) >> 4));
+        }
+    }
+
+    private record ChunkKey(String world, int x, int z) {
+    }
+}
@@ -0,0 +1,170 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import net.jpountz.lz4.LZ4BlockInputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+// Reads the chunks of a region file (.mca) only for reading, the file is never modified.
+// The RegionFile of the server isn't used, it pads the file to a full sector (and may fix its header) when closed.
+public final class RegionFileReader implements Closeable {
+
+    private static final int SECTOR_BYTES = 4096;
+    private static final int CHUNKS = 1024;
+    private static final int HEADER_BYTES = SECTOR_BYTES * 2;
+    private static final int CHUNK_HEADER_BYTES = 5;
+
+    private static final byte GZIP = 1;
+    private static final byte DEFLATE = 2;
+    private static final byte NONE = 3;
+    private static final byte LZ4 = 4;
+    private static final byte EXTERNAL_FLAG = (byte) 0x80;
+
+    private static final Pattern REGION_NAME = Pattern.compile("^r\\.(-?\\d+)\\.(-?\\d+)\\.mca$");
+
+    private final File file;
+    private final FileChannel channel;
+    private final long size;
+    private final int[] offsets = new int[CHUNKS];
+
+    private RegionFileReader(@NotNull File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.size = channel.size();
+            // A new region file without chunks yet.
+            if (size == 0L) return;
+            if (size < HEADER_BYTES) throw new IOException("Truncated header: " + size + " bytes");
+
+            ByteBuffer header = ByteBuffer.allocate(SECTOR_BYTES);
+            readFully(header, 0L);
+            header.flip().asIntBuffer().get(offsets);
+        } catch (IOException exception) {
+            channel.close();
+            throw exception;
+        }
+    }
+
+    public static @NotNull RegionFileReader open(@NotNull File file) throws IOException {
+        return new RegionFileReader(file);
+    }
+
+    // The villagers of every chunk of the region with data saved under the given key, see EntityChunkReader.
+    // A chunk that can't be read is skipped (as the server does) and counted, the rest of the region is still read.
+    public static @NotNull Result readVillagers(@NotNull File file, String dataKey) throws IOException {
+        List<EntityChunkReader.Villager> villagers = new ArrayList<>();
+        int failedChunks = 0;
+
+        try (RegionFileReader reader = open(file)) {
+            for (int x = 0; x < 32; x++) {
+                for (int z = 0; z < 32; z++) {
+                    try {
+                        DataInputStream stream = reader.getChunk(x, z);
+                        if (stream == null) continue;
+
+                        // Only the data of our villagers is read, the rest of the chunk is skipped.
+                        try (stream) {
+                            villagers.addAll(EntityChunkReader.read(stream, dataKey));
+                        }
+                    } catch (IOException | RuntimeException exception) {
+                        failedChunks++;
+                    }
+                }
+            }
+        }
+
+        return new Result(villagers, failedChunks);
+    }
+
+    // The uncompressed NBT of a chunk (coordinates inside the region, from 0 to 31), or null if the chunk isn't saved.
+    public @Nullable DataInputStream getChunk(int x, int z) throws IOException {
+        int offset = offsets[(x & 31) + (z & 31) * 32];
+        if (offset == 0) return null;
+
+        long sector = offset >>> 8;
+        int sectors = offset & 0xFF;
+        long start = sector * SECTOR_BYTES;
+        if (sector < 2 || start + CHUNK_HEADER_BYTES > size) {
+            throw new IOException("Invalid sector of chunk [" + x + ", " + z + "]: " + sector);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+        readFully(header, start);
+        header.flip();
+
+        int length = header.getInt();
+        byte version = header.get();
+        if (length <= 0 || (long) length + 4L > (long) sectors * SECTOR_BYTES) {
+            throw new IOException("Invalid length of chunk [" + x + ", " + z + "]: " + length);
+        }
+
+        // Chunks too big for the region are saved in their own file, only with the version in the region.
+        if ((version & EXTERNAL_FLAG) != 0) {
+            return decompress((byte) (version & ~EXTERNAL_FLAG), Files.readAllBytes(getExternalFile(x, z).toPath()));
+        }
+
+        if (start + CHUNK_HEADER_BYTES + length - 1 > size) {
+            throw new IOException("Chunk [" + x + ", " + z + "] is outside of the file");
+        }
+
+        ByteBuffer data = ByteBuffer.allocate(length - 1);
+        readFully(data, start + CHUNK_HEADER_BYTES);
+        return decompress(version, data.array());
+    }
+
+    private @NotNull DataInputStream decompress(byte version, byte[] data) throws IOException {
+        InputStream input = new ByteArrayInputStream(data);
+        return new DataInputStream(new BufferedInputStream(switch (version) {
+            case GZIP -> new GZIPInputStream(input);
+            case DEFLATE -> new InflaterInputStream(input);
+            case NONE -> input;
+            case LZ4 -> LZ4Holder.wrap(input);
+            default -> throw new IOException("Unknown compression of chunk: " + version);
+        }));
+    }
+
+    private @NotNull File getExternalFile(int x, int z) throws IOException {
+        Matcher matcher = REGION_NAME.matcher(file.getName());
+        if (!matcher.matches()) throw new IOException("Unknown position of region " + file.getName());
+
+        int chunkX = Integer.parseInt(matcher.group(1)) * 32 + x;
+        int chunkZ = Integer.parseInt(matcher.group(2)) * 32 + z;
+        return new File(file.getParentFile(), "c." + chunkX + "." + chunkZ + ".mcc");
+    }
+
+    private void readFully(@NotNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException();
+            position += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // If any chunk failed, the villagers are incomplete.
+    public record Result(List<EntityChunkReader.Villager> villagers, int failedChunks) {
+    }
+
+    // LZ4 is only included in the server since 1.20.5 (when the compression was added), it's only loaded if a chunk uses it.
+    private static final class LZ4Holder {
+
+        private static @NotNull InputStream wrap(InputStream input) {
+            return new LZ4BlockInputStream(input);
+        }
+    }
+}
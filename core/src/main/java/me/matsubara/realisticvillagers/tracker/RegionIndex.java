@@ -0,0 +1,224 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// The villagers found in the entity regions of a world the last time they were read, with the modification time and size of each region.
+// Only the regions modified since then need to be read again. Saved in index/<world>.dat; if it can't be read, every region is read.
+// Only the summary of each villager is kept (see VillagerSummary), their full data stays in the region until it's needed.
+public final class RegionIndex {
+
+    private final Logger logger;
+    private final File file;
+    private final String dataKey;
+    private final Map<String, Region> regions = new ConcurrentHashMap<>();
+
+    private static final int MAGIC = 0x52564958;
+    private static final int VERSION = 2;
+    private static final String EXTENSION = ".dat";
+
+    private RegionIndex(File folder, Logger logger, String world, String dataKey) {
+        this.logger = logger;
+        this.file = new File(folder, world + EXTENSION);
+        this.dataKey = dataKey;
+    }
+
+    @Contract("_, _, _, _ -> new")
+    public static @NotNull RegionIndex load(File folder, Logger logger, String world, String dataKey) {
+        RegionIndex index = new RegionIndex(folder, logger, world, dataKey);
+        index.load();
+        return index;
+    }
+
+    // Deletes the index of the worlds that don't exist any more (or don't have entity regions).
+    public static void deleteOthers(@NotNull File folder, @NotNull Set<String> worlds, Logger logger) {
+        File[] files = folder.listFiles((directory, name) -> name.endsWith(EXTENSION) || name.endsWith(EXTENSION + ".tmp"));
+        if (files == null) return;
+
+        for (File file : files) {
+            String name = file.getName();
+            String world = name.substring(0, name.lastIndexOf(EXTENSION));
+            if (worlds.contains(world) && name.endsWith(EXTENSION)) continue;
+
+            try {
+                Files.deleteIfExists(file.toPath());
+            } catch (IOException exception) {
+                logger.log(Level.WARNING, "Couldn't delete the index file {" + name + "}!", exception);
+            }
+        }
+    }
+
+    // The villagers of a region, only if it wasn't modified since it was indexed.
+    public @Nullable List<VillagerSummary> get(@NotNull File region, long modified, long size) {
+        Region indexed = regions.get(region.getName());
+        return indexed != null && indexed.modified() == modified && indexed.size() == size ? indexed.villagers() : null;
+    }
+
+    // The modification time and size must be taken before reading the region, so a region modified meanwhile is read again next time.
+    public void put(@NotNull File region, long modified, long size, List<VillagerSummary> villagers) {
+        regions.put(region.getName(), new Region(modified, size, villagers));
+    }
+
+    // The region couldn't be read completely, it'll be read again next time.
+    public void remove(@NotNull File region) {
+        regions.remove(region.getName());
+    }
+
+    // Removes the regions that don't exist any more.
+    public void retain(@NotNull Collection<File> existing) {
+        Set<String> names = new HashSet<>();
+        for (File region : existing) {
+            names.add(region.getName());
+        }
+        regions.keySet().retainAll(names);
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION || !input.readUTF().equals(dataKey)) {
+                logger.info("The index file {" + file.getName() + "} is from another version, all the regions will be read.");
+                return;
+            }
+
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = input.readUTF();
+                regions.put(name, readRegion(input));
+            }
+        } catch (IOException | RuntimeException exception) {
+            // Better to read everything again than to use part of it.
+            regions.clear();
+            logger.log(Level.WARNING, "The index file {" + file.getName() + "} is corrupted, all the regions will be read.", exception);
+        }
+    }
+
+    public void save() {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temp))))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeUTF(dataKey);
+
+                Map<String, Region> regions = new HashMap<>(this.regions);
+                output.writeInt(regions.size());
+                for (Map.Entry<String, Region> entry : regions.entrySet()) {
+                    output.writeUTF(entry.getKey());
+                    writeRegion(output, entry.getValue());
+                }
+            }
+
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException exception) {
+            logger.log(Level.WARNING, "Couldn't save the index file {" + file.getName() + "}!", exception);
+        }
+    }
+
+    private static void writeRegion(@NotNull DataOutputStream output, @NotNull Region region) throws IOException {
+        output.writeLong(region.modified());
+        output.writeLong(region.size());
+        output.writeInt(region.villagers().size());
+        for (VillagerSummary villager : region.villagers()) {
+            writeUUID(output, villager.uuid());
+            output.writeDouble(villager.x());
+            output.writeDouble(villager.y());
+            output.writeDouble(villager.z());
+            output.writeUTF(villager.name());
+            output.writeUTF(villager.sex());
+            output.writeInt(villager.skinTextureId());
+            output.writeInt(villager.kidSkinTextureId());
+            writeNullableUUID(output, villager.partner());
+            writeNullableUUID(output, villager.father());
+            writeNullableUUID(output, villager.mother());
+            writeUUIDs(output, villager.partners());
+            writeUUIDs(output, villager.children());
+            output.writeBoolean(villager.embeddedFamily());
+        }
+    }
+
+    private static void writeUUID(@NotNull DataOutputStream output, @NotNull UUID uuid) throws IOException {
+        output.writeLong(uuid.getMostSignificantBits());
+        output.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static void writeNullableUUID(@NotNull DataOutputStream output, @Nullable UUID uuid) throws IOException {
+        output.writeBoolean(uuid != null);
+        if (uuid != null) writeUUID(output, uuid);
+    }
+
+    private static void writeUUIDs(@NotNull DataOutputStream output, @NotNull List<UUID> uuids) throws IOException {
+        output.writeInt(uuids.size());
+        for (UUID uuid : uuids) {
+            writeUUID(output, uuid);
+        }
+    }
+
+    private static @NotNull Region readRegion(@NotNull DataInputStream input) throws IOException {
+        long modified = input.readLong();
+        long size = input.readLong();
+
+        int count = input.readInt();
+        if (count < 0) throw new IOException("Invalid villager count: " + count);
+
+        List<VillagerSummary> villagers = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) {
+            UUID uuid = readUUID(input);
+            double x = input.readDouble(), y = input.readDouble(), z = input.readDouble();
+            villagers.add(new VillagerSummary(
+                    uuid,
+                    x,
+                    y,
+                    z,
+                    input.readUTF(),
+                    input.readUTF(),
+                    input.readInt(),
+                    input.readInt(),
+                    readNullableUUID(input),
+                    readNullableUUID(input),
+                    readNullableUUID(input),
+                    readUUIDs(input),
+                    readUUIDs(input),
+                    input.readBoolean()));
+        }
+
+        return new Region(modified, size, villagers);
+    }
+
+    private static @NotNull UUID readUUID(@NotNull DataInputStream input) throws IOException {
+        return new UUID(input.readLong(), input.readLong());
+    }
+
+    private static @Nullable UUID readNullableUUID(@NotNull DataInputStream input) throws IOException {
+        return input.readBoolean() ? readUUID(input) : null;
+    }
+
+    private static @NotNull List<UUID> readUUIDs(@NotNull DataInputStream input) throws IOException {
+        int size = input.readInt();
+        if (size < 0) throw new IOException("Invalid UUID count: " + size);
+        if (size == 0) return Collections.emptyList();
+
+        List<UUID> uuids = new ArrayList<>(Math.min(size, 64));
+        for (int i = 0; i < size; i++) {
+            uuids.add(readUUID(input));
+        }
+        return uuids;
+    }
+
+    private record Region(long modified, long size, List<VillagerSummary> villagers) {
+    }
+}
@@ -0,0 +1,274 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import me.matsubara.realisticvillagers.RealisticVillagers;
+import me.matsubara.realisticvillagers.entity.IVillagerNPC;
+import me.matsubara.realisticvillagers.files.Config;
+import org.apache.commons.lang3.ArrayUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+// Reads the entity region files of every world in parallel, one task per file, in a bounded pool (@region-scan-threads).
+// The regions that didn't change since the last time are taken from the index of their world instead.
+public final class RegionScanner {
+
+    // A villager taken from the index, only its summary is known; the loader reads its full data from the region (null if it isn't there any more).
+    @FunctionalInterface
+    public interface IndexedMapper {
+
+        @Nullable IVillagerNPC apply(String world, VillagerSummary summary, Supplier<byte[]> loader);
+    }
+
+    private final File indexFolder;
+    private final String dataKey;
+    private final Logger logger;
+    private final int threads;
+
+    private static final FilenameFilter DATA_FILE_FILTER = (directory, name) -> new File(directory, name).isFile()
+            && name.endsWith(".mca")
+            && !name.contains("backup")
+            && !name.contains("mcc");
+
+    public RegionScanner(@NotNull RealisticVillagers plugin) {
+        this(new File(plugin.getDataFolder(), "index"), plugin.getNpcValuesKey().toString(), plugin.getLogger(), getThreads());
+    }
+
+    RegionScanner(File indexFolder, String dataKey, Logger logger, int threads) {
+        this.indexFolder = indexFolder;
+        this.dataKey = dataKey;
+        this.logger = logger;
+        this.threads = threads;
+    }
+
+    // The .mca files in the "entities" folder of every world.
+    public static @NotNull List<File> getEntityRegions(@NotNull File root) {
+        File[] worlds = root.listFiles(file -> {
+            String[] files;
+            return file.isDirectory()
+                    && (files = file.list()) != null
+                    && ArrayUtils.contains(files, "level.dat");
+        });
+
+        if (worlds == null) return Collections.emptyList();
+
+        List<File> regions = new ArrayList<>();
+        for (File world : worlds) {
+            File[] entitiesFiles = new File(world, "entities").listFiles(DATA_FILE_FILTER);
+            if (entitiesFiles != null) Collections.addAll(regions, entitiesFiles);
+        }
+        return regions;
+    }
+
+    // Every villager found in the regions, by UUID. If the same villager is in more than one region, the one in the most recently modified region is kept
+    // (with the same time, the one in the last world and region by name, so the result doesn't depend on which region was read first).
+    // Only the regions modified since they were indexed are read (see RegionIndex), without modifying them (see RegionFileReader).
+    // The villagers of the regions read are given to the mapper with their data, the ones taken from the index to the indexed mapper.
+    // Blocks until all the regions are read; the mappers must be thread-safe.
+    public @NotNull Map<UUID, IVillagerNPC> scan(@NotNull List<File> regions,
+                                                 @NotNull BiFunction<String, EntityChunkReader.Villager, IVillagerNPC> mapper,
+                                                 @NotNull IndexedMapper indexedMapper) {
+        Map<UUID, IVillagerNPC> found = new ConcurrentHashMap<>();
+
+        Map<String, List<File>> byWorld = new HashMap<>();
+        for (File region : regions) {
+            byWorld.computeIfAbsent(getWorld(region), temp -> new ArrayList<>()).add(region);
+        }
+
+        // The worlds removed since the last time don't need their index any more.
+        RegionIndex.deleteOthers(indexFolder, byWorld.keySet(), logger);
+        if (regions.isEmpty()) return found;
+
+        Map<String, RegionIndex> indexes = new HashMap<>();
+        for (String world : byWorld.keySet()) {
+            indexes.put(world, RegionIndex.load(indexFolder, logger, world, dataKey));
+        }
+
+        // Only the most recent copy of each villager is mapped, so the older ones don't end up in the OfflineTagStore (or the family graph).
+        Map<UUID, Candidate> candidates = new ConcurrentHashMap<>();
+        LongAdder read = new LongAdder(), failed = new LongAdder();
+
+        List<Callable<Void>> readTasks = new ArrayList<>(regions.size());
+        for (File region : regions) {
+            String world = getWorld(region);
+            RegionIndex index = indexes.get(world);
+            readTasks.add(() -> {
+                long modified = region.lastModified(), size = region.length();
+
+                List<Candidate> villagers;
+                List<VillagerSummary> indexed = index.get(region, modified, size);
+                if (indexed != null) {
+                    villagers = new ArrayList<>(indexed.size());
+                    for (VillagerSummary summary : indexed) {
+                        villagers.add(new Candidate(world, region, summary, null, modified));
+                    }
+                } else {
+                    villagers = read(world, region, modified, size, index, failed);
+                    read.increment();
+                }
+
+                for (Candidate candidate : villagers) {
+                    candidates.merge(candidate.summary().uuid(), candidate, Candidate::newest);
+                }
+                return null;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Math.min(threads, regions.size()), created -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(created);
+            thread.setName("RealisticVillagers-RegionScanner-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+
+        try {
+            run(pool, readTasks, "Couldn't read a region file!");
+
+            // Split in as many batches as threads.
+            List<Candidate> winners = new ArrayList<>(candidates.values());
+            int batch = Math.max(1, (winners.size() + pool.getParallelism() - 1) / pool.getParallelism());
+
+            List<Callable<Void>> mapTasks = new ArrayList<>();
+            for (int from = 0; from < winners.size(); from += batch) {
+                List<Candidate> part = winners.subList(from, Math.min(from + batch, winners.size()));
+                mapTasks.add(() -> {
+                    for (Candidate candidate : part) {
+                        VillagerSummary summary = candidate.summary();
+                        IVillagerNPC npc = candidate.data() != null ?
+                                mapper.apply(candidate.world(), new EntityChunkReader.Villager(summary.uuid(), summary.x(), summary.y(), summary.z(), candidate.data())) :
+                                indexedMapper.apply(candidate.world(), summary, () -> load(candidate.region(), summary));
+                        if (npc != null) found.put(npc.getUniqueId(), npc);
+                    }
+                    return null;
+                });
+            }
+
+            run(pool, mapTasks, "Couldn't load the data of a villager!");
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+
+        for (Map.Entry<String, RegionIndex> entry : indexes.entrySet()) {
+            RegionIndex index = entry.getValue();
+            index.retain(byWorld.get(entry.getKey()));
+            index.save();
+        }
+
+        logger.info("Read " + read.sum() + " of " + regions.size() + " region files, the rest didn't change since the last time.");
+        if (failed.sum() > 0L) {
+            logger.warning(failed.sum() + " region files couldn't be read completely (invalid or corrupted, usually by the server software), they'll be read again the next time.");
+        }
+        return found;
+    }
+
+    // Only a region read completely is indexed, otherwise the villagers of the chunks that failed would be lost until it's modified again.
+    private @NotNull List<Candidate> read(String world, File region, long modified, long size, RegionIndex index, LongAdder failed) {
+        try {
+            RegionFileReader.Result result = RegionFileReader.readVillagers(region, dataKey);
+
+            boolean summarized = true;
+            List<Candidate> found = new ArrayList<>(result.villagers().size());
+            List<VillagerSummary> summaries = new ArrayList<>(result.villagers().size());
+            for (EntityChunkReader.Villager villager : result.villagers()) {
+                VillagerSummary summary;
+                try {
+                    summary = EntityChunkReader.summarize(villager);
+                    summaries.add(summary);
+                } catch (IOException | RuntimeException exception) {
+                    // The data is still used, but the region is read again next time.
+                    logger.log(Level.FINE, "Couldn't summarize the data of {" + villager.uuid() + "}!", exception);
+                    summary = VillagerSummary.unknown(villager);
+                    summarized = false;
+                }
+                found.add(new Candidate(world, region, summary, villager.data(), modified));
+            }
+
+            if (result.failedChunks() == 0 && summarized) {
+                index.put(region, modified, size, summaries);
+                return found;
+            }
+
+            if (result.failedChunks() > 0) {
+                logger.fine(result.failedChunks() + " chunks of the region file {" + region + "} couldn't be read.");
+            }
+            index.remove(region);
+            failed.increment();
+            return found;
+        } catch (IOException exception) {
+            logger.log(Level.FINE, "Couldn't read the region file {" + region + "}!", exception);
+            index.remove(region);
+            failed.increment();
+            return Collections.emptyList();
+        }
+    }
+
+    // The full data of an indexed villager, from the chunk of its position (or the whole region, if it moved to another chunk since then).
+    // Called when the data is needed (see OfflineTagStore), the region may have been modified meanwhile.
+    private byte @Nullable [] load(@NotNull File region, @NotNull VillagerSummary summary) {
+        try {
+            try (RegionFileReader reader = RegionFileReader.open(region)) {
+                DataInputStream stream = reader.getChunk((int) Math.floor(summary.x()) >> 4 & 31, (int) Math.floor(summary.z()) >> 4 & 31);
+                if (stream != null) {
+                    try (stream) {
+                        byte[] data = find(EntityChunkReader.read(stream, dataKey), summary.uuid());
+                        if (data != null) return data;
+                    }
+                }
+            }
+            return find(RegionFileReader.readVillagers(region, dataKey).villagers(), summary.uuid());
+        } catch (IOException | RuntimeException exception) {
+            logger.log(Level.FINE, "Couldn't read the data of {" + summary.uuid() + "} from the region file {" + region + "}!", exception);
+            return null;
+        }
+    }
+
+    private static byte @Nullable [] find(@NotNull List<EntityChunkReader.Villager> villagers, UUID uuid) {
+        for (EntityChunkReader.Villager villager : villagers) {
+            if (villager.uuid().equals(uuid)) return villager.data();
+        }
+        return null;
+    }
+
+    private void run(@NotNull ForkJoinPool pool, List<Callable<Void>> tasks, String error) throws InterruptedException {
+        for (Future<Void> future : pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException exception) {
+                logger.log(Level.WARNING, error, exception.getCause());
+            }
+        }
+    }
+
+    private @NotNull String getWorld(@NotNull File region) {
+        return region.getParentFile().getParentFile().getName();
+    }
+
+    private static int getThreads() {
+        int threads = Config.REGION_SCAN_THREADS.asInt();
+        return threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    // The data is only known if the region was read, otherwise it's read from the region when needed.
+    record Candidate(String world, File region, VillagerSummary summary, byte @Nullable [] data, long modified) {
+
+        private static final Comparator<Candidate> ORDER = Comparator.comparingLong(Candidate::modified)
+                .thenComparing(Candidate::world)
+                .thenComparing(candidate -> candidate.region().getName());
+
+        // Within the same region, the first copy is kept (a region is read by a single thread, in order).
+        static @NotNull Candidate newest(@NotNull Candidate first, @NotNull Candidate second) {
+            return ORDER.compare(second, first) > 0 ? second : first;
+        }
+    }
+}
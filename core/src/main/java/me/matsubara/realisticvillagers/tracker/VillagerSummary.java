@@ -0,0 +1,56 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+// What the registry needs of an offline villager (identity, skin, family and position), see EntityChunkReader#summarize().
+// The region index only saves this, the full data is read from the region when it's needed (see RegionScanner).
+// Older versions embedded a copy of every family member, in that case embeddedFamily is true (only their UUIDs are kept here).
+public record VillagerSummary(UUID uuid,
+                              double x,
+                              double y,
+                              double z,
+                              String name,
+                              String sex,
+                              int skinTextureId,
+                              int kidSkinTextureId,
+                              @Nullable UUID partner,
+                              @Nullable UUID father,
+                              @Nullable UUID mother,
+                              List<UUID> partners,
+                              List<UUID> children,
+                              boolean embeddedFamily) {
+
+    public VillagerSummary {
+        name = Objects.requireNonNullElse(name, "");
+        sex = Objects.requireNonNullElse(sex, "");
+        partners = List.copyOf(partners);
+        children = List.copyOf(children);
+    }
+
+    // Only the identity and position, for data that couldn't be summarized (it isn't indexed).
+    @Contract("_ -> new")
+    static @NotNull VillagerSummary unknown(@NotNull EntityChunkReader.Villager villager) {
+        return new VillagerSummary(villager.uuid(), villager.x(), villager.y(), villager.z(),
+                "", "", 0, 0, null, null, null, Collections.emptyList(), Collections.emptyList(), false);
+    }
+
+    // The record of the villager itself, the same one OfflineVillagerNPC#recordFamily() creates from the full data.
+    @Contract("_ -> new")
+    public @NotNull FamilyGraph.Node toNode(@Nullable String world) {
+        return new FamilyGraph.Node(
+                new FamilyGraph.Member(uuid, name, sex, skinTextureId, kidSkinTextureId, !sex.isEmpty(), world),
+                true,
+                partner,
+                father,
+                mother,
+                partners,
+                children);
+    }
+}
@@ -3,6 +3,7 @@ package me.matsubara.realisticvillagers.tracker;
 import com.github.retrooper.packetevents.PacketEvents;
 import com.github.retrooper.packetevents.protocol.player.TextureProperty;
 import com.github.retrooper.packetevents.protocol.player.UserProfile;
+import lombok.AccessLevel;
 import lombok.Getter;
 import me.matsubara.realisticvillagers.RealisticVillagers;
 import me.matsubara.realisticvillagers.entity.IVillagerNPC;
@@ -32,6 +33,7 @@ import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.event.world.EntitiesUnloadEvent;
 import org.bukkit.event.world.WorldInitEvent;
+import org.bukkit.event.world.WorldSaveEvent;
 import org.bukkit.persistence.PersistentDataContainer;
 import org.bukkit.persistence.PersistentDataType;
 import org.bukkit.plugin.PluginManager;
@@ -63,6 +65,7 @@ import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Predicate;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @Getter
@@ -73,13 +76,17 @@ public final class VillagerTracker implements Listener {
     private final BukkitSpawnListeners spawnListeners;
     private final Map<UUID, String> transformations = new HashMap<>();
     private final Map<UUID, Integer> portalTransform = new HashMap<>();
-    private final Set<IVillagerNPC> offlineVillagers = ConcurrentHashMap.newKeySet();
+    private final OfflineVillagerRegistry offlineVillagers = new OfflineVillagerRegistry();
+    private final OfflineTagStore offlineTags;
+    private final FamilyGraph familyGraph;
     private final Map<String, Pair<File, FileConfiguration>> files = new HashMap<>();
     private final Map<UUID, String> selectedProfession = new HashMap<>();
     private final Map<UUID, PreviewTask> previews = new HashMap<>();
     private final VillagerHandler handler;
     private final MineskinClient mineskinClient;
     private final Random random = new Random();
+    private final CompletableFuture<Void> offlineReady = new CompletableFuture<>();
+    private final @Getter(AccessLevel.NONE) Set<UUID> removedWhileLoading = ConcurrentHashMap.newKeySet();
 
     private static final String NAMETAG_TEAM_NAME = "RVNametag";
     public static final String HIDE_NAMETAG_NAME = "abcdefghijklmnño";
@@ -90,6 +97,8 @@ public final class VillagerTracker implements Listener {
         this.plugin = plugin;
         this.pool = new NPCPool(plugin);
         this.spawnListeners = new BukkitSpawnListeners(plugin);
+        this.offlineTags = new OfflineTagStore(plugin);
+        this.familyGraph = new FamilyGraph(plugin);
 
         this.mineskinClient = new MineskinClient("MineSkin-JavaClient");
         updateMineskinApiKey();
@@ -110,15 +119,14 @@ public final class VillagerTracker implements Listener {
     }
 
     public @Nullable IVillagerNPC getOfflineByUUID(UUID uuid) {
-        for (IVillagerNPC info : offlineVillagers) {
-            if (info.getUniqueId().equals(uuid)) return info;
-        }
-        return null;
+        return offlineVillagers.get(uuid);
     }
 
     private void removeData(@NotNull LivingEntity living) {
-        IVillagerNPC info = getOfflineByUUID(living.getUniqueId());
-        if (info != null) offlineVillagers.remove(info);
+        offlineVillagers.remove(living.getUniqueId());
+
+        // So the data still in the region files doesn't bring it back.
+        if (!offlineReady.isDone()) removedWhileLoading.add(living.getUniqueId());
     }
 
     public IVillagerNPC getOffline(UUID uuid) {
@@ -188,10 +196,19 @@ public final class VillagerTracker implements Listener {
         plugin.getConverter().addGameRuleListener(event.getWorld());
     }
 
+    // The villagers only save the UUIDs of their family, so the graph is saved along with the world.
+    @EventHandler
+    public void onWorldSave(@NotNull WorldSaveEvent event) {
+        familyGraph.save();
+    }
+
     @EventHandler
     public void onEntitiesUnload(@NotNull EntitiesUnloadEvent event) {
         for (Entity entity : event.getEntities()) {
-            if (!(entity instanceof AbstractVillager villager) || isInvalid(villager, true)) continue;
+            if (!(entity instanceof AbstractVillager villager)) continue;
+            handler.untrack(villager.getEntityId());
+
+            if (isInvalid(villager, true)) continue;
             updateData(villager);
             removeNPC(entity.getEntityId());
         }
@@ -202,13 +219,65 @@ public final class VillagerTracker implements Listener {
         Optional<IVillagerNPC> npc = plugin.getConverter().getNPC(living);
         if (npc.isEmpty()) return null;
 
-        removeData(living);
-
         IVillagerNPC offline = npc.get().getOffline();
-        offlineVillagers.add(offline);
+        offlineVillagers.put(offline);
         return offline;
     }
 
+    // Adds the villagers found in the region files (see RegionScanner), must be called from the main thread.
+    // A loaded villager is more recent than its data in the regions, and so is any data already known.
+    public void addScanned(@NotNull Collection<IVillagerNPC> scanned) {
+        for (IVillagerNPC npc : scanned) {
+            if (removedWhileLoading.contains(npc.getUniqueId())) continue;
+            if (Bukkit.getEntity(npc.getUniqueId()) instanceof AbstractVillager villager && updateData(villager) != null) continue;
+            offlineVillagers.putIfAbsent(npc);
+        }
+    }
+
+    // Reads the entity regions in another thread, the villagers loaded meanwhile are already tracked as usual.
+    public void loadOfflineData() {
+        long start = System.currentTimeMillis();
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            Map<UUID, IVillagerNPC> found = Collections.emptyMap();
+            try {
+                found = plugin.getConverter().loadData();
+            } catch (RuntimeException exception) {
+                plugin.getLogger().log(Level.SEVERE, "Couldn't load the entity data!", exception);
+            } finally {
+                // Whatever happens, the data must be marked as ready, or the commands waiting for it would never work.
+                finishLoading(found.values(), start);
+            }
+        });
+    }
+
+    private void finishLoading(Collection<IVillagerNPC> scanned, long start) {
+        if (!plugin.isEnabled()) {
+            offlineReady.complete(null);
+            return;
+        }
+
+        plugin.getServer().getScheduler().runTask(plugin, () -> {
+            try {
+                addScanned(scanned);
+                plugin.getLogger().info("Entity data loaded! (" + scanned.size() + " villagers in " + (System.currentTimeMillis() - start) + "ms)");
+            } finally {
+                removedWhileLoading.clear();
+                offlineReady.complete(null);
+            }
+        });
+    }
+
+    public boolean isOfflineReady() {
+        return offlineReady.isDone();
+    }
+
+    // Until the entity regions are read, the data of the offline villagers is incomplete.
+    public boolean checkOfflineReady(CommandSender sender) {
+        if (offlineReady.isDone()) return true;
+        plugin.getMessages().send(sender, Messages.Message.OFFLINE_DATA_LOADING);
+        return false;
+    }
+
     @EventHandler(ignoreCancelled = true)
     public void onEntityTransform(@NotNull EntityTransformEvent event) {
         Entity entity = event.getEntity();
@@ -244,6 +313,7 @@ public final class VillagerTracker implements Listener {
         handler.getAllowSpawn().remove(npc.getUniqueId());
 
         LivingEntity bukkit = npc.bukkit();
+        handler.untrack(bukkit.getEntityId());
         if (isInvalid(bukkit, true)) return;
 
         RealisticRemoveEvent.RemovalReason reason = event.getReason();
@@ -271,6 +341,7 @@ public final class VillagerTracker implements Listener {
         if (previous == -1) return;
 
         removeNPC(previous);
+        handler.untrack(previous);
 
         Optional<IVillagerNPC> npc = plugin.getConverter().getNPC(villager);
         if (npc.isPresent()) spawnNPC(villager);
@@ -321,6 +392,11 @@ public final class VillagerTracker implements Listener {
         selectedProfession.remove(uniqueId);
     }
 
+    // Called by the villagers when the state used by the packet handler (reviving, shaking head) changes.
+    public void updateView(@NotNull IVillagerNPC npc) {
+        handler.updateView(npc);
+    }
+
     public void removeNPC(int entityId) {
         getNPC(entityId).ifPresent(npc -> pool.removeNPC(npc.getEntityId()));
     }
@@ -346,6 +422,7 @@ public final class VillagerTracker implements Listener {
 
     public void spawnNPC(LivingEntity living) {
         if (isInvalid(living)) return;
+        if (living instanceof AbstractVillager villager) handler.track(villager);
 
         int entityId = living.getEntityId();
         if (hasNPC(entityId)) return;
@@ -0,0 +1,77 @@
+package me.matsubara.realisticvillagers.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EncodedSectionTest {
+
+    private static final int STEPS = 10_000;
+
+    @Test
+    void reusedUntilChanged() {
+        EncodedSection<List<Integer>, String> section = new EncodedSection<>();
+        List<Integer> values = new ArrayList<>(List.of(1, 2, 3));
+        AtomicInteger encodes = new AtomicInteger();
+
+        String first = section.get(values::equals, () -> List.copyOf(values), () -> encode(values, encodes));
+        assertSame(first, section.get(values::equals, () -> List.copyOf(values), () -> encode(values, encodes)));
+        assertEquals(1, encodes.get());
+
+        // Changed in place, without anyone marking it.
+        values.set(1, 20);
+        assertEquals("[1, 20, 3]", section.get(values::equals, () -> List.copyOf(values), () -> encode(values, encodes)));
+        assertEquals(2, encodes.get());
+    }
+
+    // Values with the same hash are still different values.
+    @Test
+    void sameHashIsEncodedAgain() {
+        EncodedSection<String, String> section = new EncodedSection<>();
+        String[] value = {"Aa"};
+        assertEquals(value[0].hashCode(), "BB".hashCode());
+
+        assertEquals("Aa", section.get(value[0]::equals, () -> value[0], () -> value[0]));
+        value[0] = "BB";
+        assertEquals("BB", section.get(value[0]::equals, () -> value[0], () -> value[0]));
+    }
+
+    // Whatever changes, the value returned is always the same as encoding it again.
+    @Test
+    void matchesEncodingEveryTime() {
+        Random random = new Random(20L);
+        EncodedSection<List<Integer>, String> section = new EncodedSection<>();
+        List<Integer> values = new ArrayList<>();
+        AtomicInteger encodes = new AtomicInteger();
+
+        for (int step = 0; step < STEPS; step++) {
+            switch (random.nextInt(4)) {
+                case 0 -> values.add(random.nextInt(10));
+                case 1 -> {
+                    if (!values.isEmpty()) values.remove(random.nextInt(values.size()));
+                }
+                case 2 -> {
+                    if (!values.isEmpty()) values.set(random.nextInt(values.size()), random.nextInt(10));
+                }
+                default -> {
+                    // Nothing changed.
+                }
+            }
+
+            String encoded = section.get(values::equals, () -> List.copyOf(values), () -> encode(values, encodes));
+            assertEquals(values.toString(), encoded);
+        }
+
+        assertTrue(encodes.get() < STEPS);
+    }
+
+    private static String encode(List<Integer> values, AtomicInteger encodes) {
+        encodes.incrementAndGet();
+        return values.toString();
+    }
+}
@@ -0,0 +1,77 @@
+package me.matsubara.realisticvillagers.handler.protocol;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.EntityType;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrackedVillagerViewTest {
+
+    private static final int UPDATES = 200_000;
+    private static final int READERS = 4;
+
+    @Test
+    void doesNotKeepTheEntity() {
+        for (Field field : TrackedVillagerView.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) continue;
+            Class<?> type = field.getType();
+            assertFalse(Entity.class.isAssignableFrom(type), field.getName());
+            assertTrue(type.isPrimitive() || type == UUID.class || type == EntityType.class, field.getName());
+        }
+    }
+
+    // One thread copies the state while others (netty) read it.
+    @Test
+    void readersNeverSeeOldState() throws Exception {
+        TrackedVillagerView view = new TrackedVillagerView(1, UUID.randomUUID(), EntityType.VILLAGER);
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(READERS);
+        try {
+            List<Future<Integer>> readers = new ArrayList<>();
+            for (int i = 0; i < READERS; i++) {
+                readers.add(executor.submit(() -> {
+                    start.await();
+                    float last = 0.0f;
+                    int reads = 0;
+                    while (!done.get()) {
+                        float pitch = view.getPitch();
+                        assertTrue(pitch >= last, "Went back from " + last + " to " + pitch);
+                        assertTrue(pitch >= 0.0f && pitch < UPDATES);
+                        last = pitch;
+                        reads++;
+                    }
+                    return reads;
+                }));
+            }
+
+            start.countDown();
+            for (int i = 0; i < UPDATES; i++) {
+                view.setPitch(i);
+                view.update(i % 3 == 0, i % 5 == 0);
+            }
+            done.set(true);
+
+            for (Future<Integer> reader : readers) {
+                assertTrue(reader.get(30L, TimeUnit.SECONDS) > 0);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        int last = UPDATES - 1;
+        assertEquals(last, view.getPitch());
+        assertEquals(last % 3 == 0, view.isReviving());
+        assertEquals(last % 5 == 0, view.isShakingHead());
+    }
+}
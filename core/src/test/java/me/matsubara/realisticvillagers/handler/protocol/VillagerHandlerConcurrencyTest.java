@@ -0,0 +1,197 @@
+package me.matsubara.realisticvillagers.handler.protocol;
+
+import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.PacketEventsAPI;
+import com.github.retrooper.packetevents.event.simple.PacketPlaySendEvent;
+import com.github.retrooper.packetevents.manager.server.ServerManager;
+import com.github.retrooper.packetevents.manager.server.ServerVersion;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
+import com.github.retrooper.packetevents.protocol.packettype.PacketType;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerEntityMetadata;
+import me.matsubara.realisticvillagers.RealisticVillagers;
+import me.matsubara.realisticvillagers.compatibility.CompatibilityManager;
+import me.matsubara.realisticvillagers.nms.INMSConverter;
+import me.matsubara.realisticvillagers.tracker.VillagerTracker;
+import org.bukkit.Location;
+import org.bukkit.Server;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.LivingEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Villager;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+// A synthetic stream of metadata packets handled from netty threads while the main thread tracks and untracks villagers.
+// The packets of tracked villagers are always filtered and the ones of untracked villagers never, the ones tracked meanwhile can be either.
+class VillagerHandlerConcurrencyTest {
+
+    private static final int WORKERS = 4;
+    private static final int PACKETS = 5_000;
+    private static final int VILLAGERS = 30;
+
+    private static MockedStatic<JavaPlugin> javaPlugin;
+    private static RealisticVillagers plugin;
+
+    @BeforeAll
+    static void setUp() {
+        plugin = mock(RealisticVillagers.class);
+        when(plugin.getConfig()).thenReturn(new YamlConfiguration());
+
+        Server server = mock(Server.class);
+        when(plugin.getServer()).thenReturn(server);
+        when(server.getScheduler()).thenReturn(mock(BukkitScheduler.class));
+
+        VillagerTracker tracker = mock(VillagerTracker.class);
+        when(plugin.getTracker()).thenReturn(tracker);
+        when(tracker.isInvalid(any(LivingEntity.class), anyBoolean())).thenReturn(false);
+        when(tracker.getNPC(anyInt())).thenReturn(Optional.empty());
+
+        INMSConverter converter = mock(INMSConverter.class);
+        when(plugin.getConverter()).thenReturn(converter);
+        when(converter.getNPC(any())).thenReturn(Optional.empty());
+        when(plugin.getCompatibilityManager()).thenReturn(mock(CompatibilityManager.class));
+
+        // Config takes the values from the plugin.
+        javaPlugin = mockStatic(JavaPlugin.class);
+        javaPlugin.when(() -> JavaPlugin.getPlugin(RealisticVillagers.class)).thenReturn(plugin);
+
+        PacketEventsAPI<?> api = mock(PacketEventsAPI.class);
+        ServerManager serverManager = mock(ServerManager.class);
+        when(api.getServerManager()).thenReturn(serverManager);
+        when(serverManager.getVersion()).thenReturn(ServerVersion.V_1_21_4);
+        PacketEvents.setAPI(api);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        javaPlugin.close();
+    }
+
+    @Test
+    void packetsWhileTracking() throws Exception {
+        VillagerHandler handler = new VillagerHandler(plugin);
+
+        // Entity ids 0-9 are always tracked, 10-19 never and 20-29 tracked and untracked all the time.
+        List<Villager> villagers = new ArrayList<>();
+        for (int id = 0; id < VILLAGERS; id++) {
+            villagers.add(villager(id));
+        }
+        for (int id = 0; id < 10; id++) {
+            handler.track(villagers.get(id));
+        }
+
+        Random random = new Random(11L);
+        List<List<Packet>> streams = new ArrayList<>();
+        for (int i = 0; i < WORKERS; i++) {
+            List<Packet> stream = new ArrayList<>(PACKETS);
+            for (int j = 0; j < PACKETS; j++) {
+                stream.add(packet(random.nextInt(VILLAGERS)));
+            }
+            streams.add(stream);
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(WORKERS);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (List<Packet> stream : streams) {
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    for (Packet packet : stream) {
+                        handler.onPacketPlaySend(packet.event());
+                    }
+                    return null;
+                }));
+            }
+
+            // The main thread.
+            start.countDown();
+            int changes = 0;
+            while (!done.get()) {
+                Villager villager = villagers.get(20 + changes % 10);
+                if (changes++ % 2 == 0) {
+                    handler.track(villager);
+                } else {
+                    handler.untrack(villager.getEntityId());
+                }
+                done.set(workers.stream().allMatch(Future::isDone));
+            }
+
+            // Any exception of the handler fails here.
+            for (Future<?> worker : workers) {
+                worker.get(30L, TimeUnit.SECONDS);
+            }
+            assertTrue(changes > 1);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (List<Packet> stream : streams) {
+            for (Packet packet : stream) {
+                verify(packet.event(), never()).setCancelled(true);
+                if (packet.entityId() < 10) {
+                    assertEquals(List.of(0, 17), packet.indexes(), "Tracked " + packet.entityId());
+                } else if (packet.entityId() < 20) {
+                    assertEquals(List.of(0, 15, 16, 17, 18), packet.indexes(), "Untracked " + packet.entityId());
+                }
+            }
+        }
+
+        for (int id = 20; id < VILLAGERS; id++) {
+            handler.untrack(id);
+        }
+        assertEquals(10, handler.getTrackedCount());
+    }
+
+    private static Villager villager(int entityId) {
+        Villager villager = mock(Villager.class, withSettings().stubOnly());
+        when(villager.getEntityId()).thenReturn(entityId);
+        when(villager.getUniqueId()).thenReturn(new UUID(0L, entityId));
+        when(villager.getType()).thenReturn(EntityType.VILLAGER);
+        when(villager.getLocation()).thenReturn(new Location(null, 0.0d, 64.0d, 0.0d, 0.0f, 10.0f));
+        return villager;
+    }
+
+    // The metadata of a villager (as sent by the server), already decoded by another listener.
+    private static Packet packet(int entityId) {
+        List<EntityData> data = new ArrayList<>(List.of(
+                new EntityData(0, EntityDataTypes.BYTE, (byte) 0),
+                new EntityData(15, EntityDataTypes.BYTE, (byte) 0),
+                new EntityData(16, EntityDataTypes.BOOLEAN, false),
+                new EntityData(17, EntityDataTypes.BYTE, (byte) 0x7F),
+                new EntityData(18, EntityDataTypes.VILLAGER_DATA, null)));
+
+        WrapperPlayServerEntityMetadata wrapper = mock(WrapperPlayServerEntityMetadata.class, withSettings().stubOnly());
+        when(wrapper.getEntityId()).thenReturn(entityId);
+        when(wrapper.getEntityMetadata()).thenReturn(data);
+
+        // Not stub only, to verify that it's never cancelled.
+        PacketPlaySendEvent event = mock(PacketPlaySendEvent.class);
+        when(event.getPacketType()).thenReturn(PacketType.Play.Server.ENTITY_METADATA);
+        doReturn(mock(Player.class, withSettings().stubOnly())).when(event).getPlayer();
+        doReturn(wrapper).when(event).getLastUsedWrapper();
+        return new Packet(entityId, event, data);
+    }
+
+    private record Packet(int entityId, PacketPlaySendEvent event, List<EntityData> data) {
+
+        private List<Integer> indexes() {
+            return data.stream().map(EntityData::getIndex).toList();
+        }
+    }
+}
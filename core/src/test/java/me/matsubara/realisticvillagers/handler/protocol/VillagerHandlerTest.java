@@ -0,0 +1,174 @@
+package me.matsubara.realisticvillagers.handler.protocol;
+
+import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.PacketEventsAPI;
+import com.github.retrooper.packetevents.manager.server.ServerVersion;
+import com.github.retrooper.packetevents.netty.NettyManager;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
+import com.github.retrooper.packetevents.protocol.entity.pose.EntityPose;
+import com.github.retrooper.packetevents.protocol.entity.villager.VillagerData;
+import com.github.retrooper.packetevents.protocol.entity.villager.profession.VillagerProfessions;
+import com.github.retrooper.packetevents.protocol.entity.villager.type.VillagerTypes;
+import com.github.retrooper.packetevents.protocol.nbt.NBTCompound;
+import com.github.retrooper.packetevents.protocol.nbt.NBTString;
+import com.github.retrooper.packetevents.protocol.player.ClientVersion;
+import com.github.retrooper.packetevents.util.Quaternion4f;
+import com.github.retrooper.packetevents.util.Vector3f;
+import com.github.retrooper.packetevents.util.Vector3i;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+import io.github.retrooper.packetevents.impl.netty.buffer.ByteBufOperatorModernImpl;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// The metadata filtered directly in the buffer must be the same (byte by byte) as decoding it, removing the entries and encoding it again.
+class VillagerHandlerTest {
+
+    // The buffer is only filtered from 1.20.4.
+    private static final ServerVersion[] VERSIONS = {
+            ServerVersion.V_1_20_4,
+            ServerVersion.V_1_20_6,
+            ServerVersion.V_1_21,
+            ServerVersion.V_1_21_4};
+
+    private static final int ENTITY_ID = 1234;
+    private static final int PACKETS = 500;
+
+    @BeforeAll
+    static void setUp() {
+        PacketEventsAPI<?> api = mock(PacketEventsAPI.class);
+        NettyManager netty = mock(NettyManager.class);
+        when(api.getNettyManager()).thenReturn(netty);
+        when(netty.getByteBufOperator()).thenReturn(new ByteBufOperatorModernImpl());
+        PacketEvents.setAPI(api);
+    }
+
+    @Test
+    void villagerMetadata() {
+        for (ServerVersion version : VERSIONS) {
+            List<EntityData> data = new ArrayList<>();
+            data.add(new EntityData(0, EntityDataTypes.BYTE, (byte) 0));
+            data.add(new EntityData(6, EntityDataTypes.ENTITY_POSE, EntityPose.STANDING));
+            data.add(new EntityData(15, EntityDataTypes.BYTE, (byte) 0));
+            data.add(new EntityData(16, EntityDataTypes.BOOLEAN, false));
+            data.add(new EntityData(17, EntityDataTypes.INT, 0));
+            data.add(new EntityData(18, EntityDataTypes.VILLAGER_DATA, new VillagerData(VillagerTypes.PLAINS, VillagerProfessions.FARMER, 1)));
+
+            assertSamePath(version, encode(version, data));
+        }
+    }
+
+    @Test
+    void nothingToRemove() {
+        for (ServerVersion version : VERSIONS) {
+            List<EntityData> data = List.of(
+                    new EntityData(0, EntityDataTypes.BYTE, (byte) 0x20),
+                    new EntityData(9, EntityDataTypes.FLOAT, 20.0f));
+
+            byte[] packet = encode(version, data);
+            PacketWrapper<?> wrapper = wrapper(version, packet);
+            wrapper.readVarInt();
+
+            assertFalse(VillagerHandler.filterMetadata(wrapper));
+            assertArrayEquals(packet, bytes(wrapper));
+        }
+    }
+
+    @Test
+    void randomCorpus() {
+        Random random = new Random(12L);
+        for (ServerVersion version : VERSIONS) {
+            for (int i = 0; i < PACKETS; i++) {
+                assertSamePath(version, encode(version, randomMetadata(random)));
+            }
+        }
+    }
+
+    private static void assertSamePath(ServerVersion version, byte[] packet) {
+        // Old: decode everything, remove and encode.
+        PacketWrapper<?> reader = wrapper(version, packet);
+        reader.readVarInt();
+        List<EntityData> data = reader.readEntityMetadata();
+        data.removeIf(entry -> VillagerHandler.shouldRemove(entry.getIndex(), entry.getType()));
+        byte[] expected = encode(version, data);
+
+        // New: filtered in the same buffer.
+        PacketWrapper<?> wrapper = wrapper(version, packet);
+        wrapper.readVarInt();
+        VillagerHandler.filterMetadata(wrapper);
+
+        assertArrayEquals(expected, bytes(wrapper), version.name());
+    }
+
+    private static List<EntityData> randomMetadata(Random random) {
+        List<EntityData> data = new ArrayList<>();
+        for (int index = 0; index <= 22; index++) {
+            if (random.nextInt(3) == 0) continue;
+            data.add(randomEntry(random, index));
+        }
+
+        // The order sent by the server isn't always sorted.
+        if (random.nextInt(4) == 0) Collections.shuffle(data, random);
+        return data;
+    }
+
+    private static EntityData randomEntry(Random random, int index) {
+        return switch (random.nextInt(12)) {
+            case 0 -> new EntityData(index, EntityDataTypes.BYTE, (byte) random.nextInt());
+            case 1 -> new EntityData(index, EntityDataTypes.BOOLEAN, random.nextBoolean());
+            // Negative values use the 5 bytes of the var int.
+            case 2 -> new EntityData(index, EntityDataTypes.INT, random.nextBoolean() ? random.nextInt(128) : random.nextInt());
+            case 3 -> new EntityData(index, EntityDataTypes.FLOAT, random.nextFloat());
+            case 4 -> new EntityData(index, EntityDataTypes.STRING, "text-" + random.nextInt(100_000));
+            case 5 -> new EntityData(index, EntityDataTypes.ENTITY_POSE, EntityPose.values()[random.nextInt(EntityPose.values().length)]);
+            case 6 -> new EntityData(index, EntityDataTypes.OPTIONAL_BLOCK_POSITION, random.nextBoolean() ?
+                    Optional.of(new Vector3i(random.nextInt(60_000) - 30_000, random.nextInt(300) - 64, random.nextInt(60_000) - 30_000)) :
+                    Optional.empty());
+            case 7 -> new EntityData(index, EntityDataTypes.VILLAGER_DATA, new VillagerData(
+                    random.nextBoolean() ? VillagerTypes.PLAINS : VillagerTypes.TAIGA,
+                    random.nextBoolean() ? VillagerProfessions.FARMER : VillagerProfessions.LIBRARIAN,
+                    1 + random.nextInt(5)));
+            case 8 -> new EntityData(index, EntityDataTypes.BLOCK_STATE, random.nextInt(20_000));
+            case 9 -> new EntityData(index, EntityDataTypes.VECTOR3F, new Vector3f(random.nextFloat(), random.nextFloat(), random.nextFloat()));
+            case 10 -> new EntityData(index, EntityDataTypes.QUATERNION, new Quaternion4f(random.nextFloat(), random.nextFloat(), random.nextFloat(), random.nextFloat()));
+            default -> {
+                NBTCompound compound = new NBTCompound();
+                compound.setTag("id", new NBTString("minecraft:parrot"));
+                yield new EntityData(index, EntityDataTypes.NBT, compound);
+            }
+        };
+    }
+
+    private static byte[] encode(ServerVersion version, List<EntityData> data) {
+        PacketWrapper<?> wrapper = wrapper(version, new byte[0]);
+        wrapper.writeVarInt(ENTITY_ID);
+        wrapper.writeEntityMetadata(data);
+        return bytes(wrapper);
+    }
+
+    private static PacketWrapper<?> wrapper(ServerVersion version, byte[] bytes) {
+        PacketWrapper<?> wrapper = new PacketWrapper<>(ClientVersion.getLatest(), version, -1);
+        wrapper.setBuffer(bytes.length == 0 ? Unpooled.buffer() : Unpooled.wrappedBuffer(bytes.clone()));
+        return wrapper;
+    }
+
+    // Everything written, from the start of the packet.
+    private static byte[] bytes(PacketWrapper<?> wrapper) {
+        ByteBuf buffer = (ByteBuf) wrapper.getBuffer();
+        byte[] bytes = new byte[buffer.writerIndex()];
+        buffer.getBytes(0, bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,142 @@
+package me.matsubara.realisticvillagers.npc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NPCSpatialIndexTest {
+
+    private static final UUID WORLD = UUID.randomUUID();
+    private static final UUID OTHER_WORLD = UUID.randomUUID();
+
+    @Test
+    void insertAndQuery() {
+        NPCSpatialIndex<String> index = new NPCSpatialIndex<>();
+        index.insert("a", WORLD, 0.0d, 64.0d, 0.0d);
+        index.insert("b", WORLD, 40.0d, 64.0d, 0.0d);
+        index.insert("c", OTHER_WORLD, 0.0d, 64.0d, 0.0d);
+
+        assertEquals(3, index.size());
+        assertTrue(index.contains("a"));
+        assertEquals(Set.of("a"), Set.copyOf(index.query(WORLD, 0.0d, 64.0d, 0.0d, 16.0d)));
+        assertEquals(Set.of("a", "b"), Set.copyOf(index.query(WORLD, 0.0d, 64.0d, 0.0d, 40.0d)));
+        assertEquals(Set.of("c"), Set.copyOf(index.query(OTHER_WORLD, 0.0d, 64.0d, 0.0d, 40.0d)));
+        assertTrue(index.query(UUID.randomUUID(), 0.0d, 64.0d, 0.0d, 40.0d).isEmpty());
+    }
+
+    @Test
+    void queryUsesTheRealDistance() {
+        NPCSpatialIndex<String> index = new NPCSpatialIndex<>();
+
+        // Same cell as the center, but outside the radius (including the height).
+        index.insert("corner", WORLD, 15.0d, 64.0d, 15.0d);
+        index.insert("above", WORLD, 1.0d, 100.0d, 1.0d);
+
+        assertTrue(index.query(WORLD, 0.0d, 64.0d, 0.0d, 10.0d).isEmpty());
+        assertEquals(List.of("corner"), index.query(WORLD, 0.0d, 64.0d, 0.0d, Math.sqrt(15.0d * 15.0d * 2.0d)));
+    }
+
+    @Test
+    void negativeCoordinates() {
+        NPCSpatialIndex<String> index = new NPCSpatialIndex<>();
+        index.insert("a", WORLD, -0.5d, 64.0d, -0.5d);
+        index.insert("b", WORLD, -17.0d, 64.0d, 0.0d);
+
+        assertEquals(Set.of("a", "b"), Set.copyOf(index.query(WORLD, 0.0d, 64.0d, 0.0d, 18.0d)));
+        assertEquals(List.of("a"), index.query(WORLD, 0.0d, 64.0d, 0.0d, 1.0d));
+    }
+
+    @Test
+    void move() {
+        NPCSpatialIndex<String> index = new NPCSpatialIndex<>();
+        assertTrue(index.move("a", WORLD, 0.0d, 64.0d, 0.0d));
+
+        // Same position, and the same cell.
+        assertFalse(index.move("a", WORLD, 0.0d, 64.0d, 0.0d));
+        assertFalse(index.move("a", WORLD, 8.0d, 64.0d, 8.0d));
+        assertEquals(List.of("a"), index.query(WORLD, 8.0d, 64.0d, 8.0d, 0.5d));
+        assertTrue(index.query(WORLD, 0.0d, 64.0d, 0.0d, 0.5d).isEmpty());
+
+        // Another cell.
+        assertTrue(index.move("a", WORLD, 100.0d, 64.0d, 100.0d));
+        assertTrue(index.query(WORLD, 8.0d, 64.0d, 8.0d, 16.0d).isEmpty());
+        assertEquals(List.of("a"), index.query(WORLD, 100.0d, 64.0d, 100.0d, 1.0d));
+
+        // Another world (same coordinates).
+        assertTrue(index.move("a", OTHER_WORLD, 100.0d, 64.0d, 100.0d));
+        assertTrue(index.query(WORLD, 100.0d, 64.0d, 100.0d, 1.0d).isEmpty());
+        assertEquals(List.of("a"), index.query(OTHER_WORLD, 100.0d, 64.0d, 100.0d, 1.0d));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    void remove() {
+        NPCSpatialIndex<String> index = new NPCSpatialIndex<>();
+        index.insert("a", WORLD, 0.0d, 64.0d, 0.0d);
+        index.insert("b", WORLD, 1.0d, 64.0d, 1.0d);
+
+        assertTrue(index.remove("a"));
+        assertFalse(index.remove("a"));
+        assertFalse(index.contains("a"));
+        assertEquals(List.of("b"), index.query(WORLD, 0.0d, 64.0d, 0.0d, 16.0d));
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertTrue(index.query(WORLD, 0.0d, 64.0d, 0.0d, 16.0d).isEmpty());
+    }
+
+    @Test
+    void matchesBruteForce() {
+        Random random = new Random(1L);
+        NPCSpatialIndex<Integer> index = new NPCSpatialIndex<>();
+        Map<Integer, double[]> positions = new HashMap<>();
+        Map<Integer, UUID> worlds = new HashMap<>();
+
+        for (int step = 0; step < 20000; step++) {
+            int value = random.nextInt(300);
+            int action = random.nextInt(10);
+
+            if (action == 0) {
+                assertEquals(positions.remove(value) != null, index.remove(value));
+                worlds.remove(value);
+                continue;
+            }
+
+            UUID world = random.nextInt(5) == 0 ? OTHER_WORLD : WORLD;
+            double[] position = {random.nextDouble() * 400.0d - 200.0d, random.nextDouble() * 256.0d, random.nextDouble() * 400.0d - 200.0d};
+
+            // Small steps most of the time (like walking), sometimes teleports.
+            double[] previous = positions.get(value);
+            if (previous != null && action < 8) {
+                position = new double[]{previous[0] + random.nextDouble() - 0.5d, previous[1], previous[2] + random.nextDouble() - 0.5d};
+                world = worlds.get(value);
+            }
+
+            index.move(value, world, position[0], position[1], position[2]);
+            positions.put(value, position);
+            worlds.put(value, world);
+
+            if (step % 100 != 0) continue;
+
+            UUID queryWorld = random.nextBoolean() ? WORLD : OTHER_WORLD;
+            double x = random.nextDouble() * 400.0d - 200.0d, y = random.nextDouble() * 256.0d, z = random.nextDouble() * 400.0d - 200.0d;
+            double radius = random.nextDouble() * 100.0d;
+
+            Set<Integer> expected = new HashSet<>();
+            for (Map.Entry<Integer, double[]> entry : positions.entrySet()) {
+                double[] pos = entry.getValue();
+                double dx = pos[0] - x, dy = pos[1] - y, dz = pos[2] - z;
+                if (worlds.get(entry.getKey()).equals(queryWorld) && dx * dx + dy * dy + dz * dz <= radius * radius) {
+                    expected.add(entry.getKey());
+                }
+            }
+
+            List<Integer> found = index.query(queryWorld, x, y, z, radius);
+            assertEquals(found.size(), new HashSet<>(found).size(), "Duplicated values");
+            assertEquals(expected, new HashSet<>(found));
+            assertEquals(positions.size(), index.size());
+        }
+    }
+}
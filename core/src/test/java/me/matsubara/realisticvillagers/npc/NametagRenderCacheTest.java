@@ -0,0 +1,152 @@
+package me.matsubara.realisticvillagers.npc;
+
+import me.matsubara.realisticvillagers.entity.IVillagerNPC;
+import net.md_5.bungee.api.ChatColor;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Villager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// The cached text must always be the same (byte by byte) as rendering it again with the current state of the villager.
+class NametagRenderCacheTest {
+
+    private static final String[] NAMES = {"Steve", "Alex", "José", "Ñandú", "名前"};
+    private static final Villager.Profession[] PROFESSIONS = Villager.Profession.values();
+
+    private final Object owner = new Object();
+    private final AtomicInteger renders = new AtomicInteger();
+
+    private NametagRenderCache cache;
+    private IVillagerNPC npc;
+    private Villager bukkit;
+
+    private EntityType type;
+    private String name;
+    private boolean male;
+    private int level;
+    private Villager.Profession profession;
+
+    @BeforeEach
+    void setUp() {
+        cache = new NametagRenderCache();
+        npc = mock(IVillagerNPC.class);
+        bukkit = mock(Villager.class);
+
+        type = EntityType.VILLAGER;
+        name = NAMES[0];
+        male = true;
+        level = 1;
+        profession = Villager.Profession.FARMER;
+
+        when(npc.getVillagerName()).thenAnswer(invocation -> name);
+        when(npc.isMale()).thenAnswer(invocation -> male);
+        when(bukkit.getType()).thenAnswer(invocation -> type);
+        when(bukkit.getVillagerLevel()).thenAnswer(invocation -> level);
+        when(bukkit.getProfession()).thenAnswer(invocation -> profession);
+    }
+
+    // Same variables as NPC#renderNameText(), with the same kind of output (translated colors, multiple lines).
+    private String render() {
+        renders.incrementAndGet();
+
+        String line = ChatColor.translateAlternateColorCodes('&', "&6%villager-name%\n&7%profession% &8(&e%level%&8)");
+        String professionName = profession.name().toLowerCase(Locale.ROOT);
+        return (type == EntityType.VILLAGER ? line : "&f%villager-name%")
+                .replace("%villager-name%", name)
+                .replace("%level%", String.valueOf(level))
+                .replace("%profession%", male ? professionName : professionName + "a");
+    }
+
+    private String cached() {
+        return cache.render(owner, npc, bukkit, this::render);
+    }
+
+    private void assertSameAsRendered() {
+        int before = renders.get();
+        byte[] cached = cached().getBytes(StandardCharsets.UTF_8);
+        int afterCache = renders.get();
+
+        byte[] rendered = render().getBytes(StandardCharsets.UTF_8);
+        renders.set(afterCache);
+
+        assertArrayEquals(rendered, cached);
+        assertTrue(renders.get() - before <= 1);
+    }
+
+    @Test
+    void hitsUntilSomethingChanges() {
+        assertSameAsRendered();
+        assertEquals(1, cache.getMisses());
+
+        for (int i = 0; i < 10; i++) {
+            assertSameAsRendered();
+        }
+        assertEquals(10, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, renders.get());
+    }
+
+    @Test
+    void everyVariableIsPartOfTheKey() {
+        assertSameAsRendered();
+
+        name = NAMES[1];
+        assertSameAsRendered();
+
+        male = false;
+        assertSameAsRendered();
+
+        level = 5;
+        assertSameAsRendered();
+
+        profession = Villager.Profession.LIBRARIAN;
+        assertSameAsRendered();
+
+        type = EntityType.WANDERING_TRADER;
+        assertSameAsRendered();
+
+        assertEquals(6, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    void invalidateAllRendersAgain() {
+        assertSameAsRendered();
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+
+        assertSameAsRendered();
+        assertEquals(2, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void randomChanges() {
+        Random random = new Random(7L);
+        for (int i = 0; i < 5000; i++) {
+            switch (random.nextInt(6)) {
+                case 0 -> name = NAMES[random.nextInt(NAMES.length)];
+                case 1 -> male = random.nextBoolean();
+                case 2 -> level = 1 + random.nextInt(5);
+                case 3 -> profession = PROFESSIONS[random.nextInt(PROFESSIONS.length)];
+                case 4 -> type = random.nextInt(4) == 0 ? EntityType.WANDERING_TRADER : EntityType.VILLAGER;
+                default -> {
+                    // Nothing changed, should be a hit.
+                }
+            }
+            assertSameAsRendered();
+        }
+
+        assertEquals(5000, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getHits() > 0);
+    }
+}
@@ -0,0 +1,67 @@
+package me.matsubara.realisticvillagers.npc;
+
+import com.github.retrooper.packetevents.protocol.entity.data.EntityData;
+import com.github.retrooper.packetevents.protocol.entity.data.EntityDataTypes;
+import net.kyori.adventure.text.Component;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Allocations of the nametag metadata for each show() of an NPC, rebuilding it (as before) vs using the template.
+// Run main() from the test classpath, the allocations per show are in "gc.alloc.rate.norm".
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NametagTemplateBenchmark {
+
+    private static final String TEXT = "§6Steve\n§7Farmer (Lvl. 1)";
+    private static final int LINES = 2;
+    private static final int BLOCK_STATE = 1;
+
+    private final NametagTemplate template = new NametagTemplate();
+
+    @Benchmark
+    public void rebuilt(Blackhole blackhole) {
+        List<EntityData> text = NametagTemplate.createGlobalData(false, 0);
+        text.add(new EntityData(23, EntityDataTypes.ADV_COMPONENT, Component.text(TEXT)));
+        text.add(new EntityData(24, EntityDataTypes.INT, 200));
+        text.add(new EntityData(25, EntityDataTypes.INT, (int) (0.35 * 255) << 24));
+        text.add(new EntityData(26, EntityDataTypes.BYTE, (byte) -1));
+        text.add(new EntityData(27, EntityDataTypes.BYTE, (byte) 0x02));
+
+        List<EntityData> block = NametagTemplate.createGlobalData(true, LINES);
+        block.add(new EntityData(23, EntityDataTypes.BLOCK_STATE, BLOCK_STATE));
+
+        blackhole.consume(text);
+        blackhole.consume(block);
+
+        // A random UUID was generated for every spawn of the display entities.
+        blackhole.consume(UUID.randomUUID());
+        blackhole.consume(UUID.randomUUID());
+    }
+
+    @Benchmark
+    public void template(Blackhole blackhole) {
+        blackhole.consume(template.text(TEXT));
+        blackhole.consume(template.block(LINES, BLOCK_STATE));
+        blackhole.consume(template.getTextUUID());
+        blackhole.consume(template.getBlockUUID());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(NametagTemplateBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
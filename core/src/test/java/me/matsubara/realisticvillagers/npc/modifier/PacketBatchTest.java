@@ -0,0 +1,74 @@
+package me.matsubara.realisticvillagers.npc.modifier;
+
+import com.github.retrooper.packetevents.PacketEvents;
+import com.github.retrooper.packetevents.PacketEventsAPI;
+import com.github.retrooper.packetevents.manager.protocol.ProtocolManager;
+import com.github.retrooper.packetevents.manager.server.ServerVersion;
+import com.github.retrooper.packetevents.wrapper.PacketWrapper;
+import com.github.retrooper.packetevents.wrapper.play.server.WrapperPlayServerBundle;
+import org.bukkit.entity.Player;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+// Since 1.19.4, every NPC spawn (player info, spawn, metadata, equipment, nametags...) must be written as a single bundle and flushed once.
+class PacketBatchTest {
+
+    private static final int SPAWNS = 50;
+
+    private static PacketEventsAPI<?> api;
+    private static ProtocolManager manager;
+
+    @BeforeAll
+    static void setUp() {
+        api = mock(PacketEventsAPI.class, RETURNS_DEEP_STUBS);
+        when(api.getServerManager().getVersion()).thenReturn(ServerVersion.V_1_19_4);
+        manager = api.getProtocolManager();
+        PacketEvents.setAPI(api);
+    }
+
+    @Test
+    void oneFlushPerSpawn() {
+        for (int i = 0; i < SPAWNS; i++) {
+            Player player = mock(Player.class);
+            Object channel = new Object();
+            when(api.getPlayerManager().getChannel(player)).thenReturn(channel);
+
+            // The number of packets depends on the NPC (nametags, equipment, etc.).
+            int packets = 2 + i % 6;
+            PacketBatch batch = PacketBatch.spawn(player);
+            for (int j = 0; j < packets; j++) {
+                batch.add(mock(PacketWrapper.class, RETURNS_DEEP_STUBS));
+            }
+            batch.flush();
+
+            InOrder order = inOrder(manager);
+            order.verify(manager).writePacket(eq(channel), any(WrapperPlayServerBundle.class));
+            order.verify(manager, times(packets)).writePacket(eq(channel), argThat(packet -> !(packet instanceof WrapperPlayServerBundle)));
+            order.verify(manager).writePacket(eq(channel), any(WrapperPlayServerBundle.class));
+            verify(api.getNettyManager().getChannelOperator()).flush(channel);
+
+            // Flushing again doesn't send anything.
+            batch.flush();
+            verify(manager, times(packets + 2)).writePacket(eq(channel), any());
+        }
+
+        assertEquals(1.0d, PacketBatch.getFlushesPerSpawn());
+    }
+
+    @Test
+    void singlePacketIsNotBundled() {
+        Player player = mock(Player.class);
+        Object channel = new Object();
+        when(api.getPlayerManager().getChannel(player)).thenReturn(channel);
+
+        PacketBatch.spawn(player).add(mock(PacketWrapper.class, RETURNS_DEEP_STUBS)).flush();
+
+        verify(manager, never()).writePacket(eq(channel), any(WrapperPlayServerBundle.class));
+        verify(manager).writePacket(eq(channel), any());
+        verify(api.getNettyManager().getChannelOperator()).flush(channel);
+    }
+}
@@ -0,0 +1,130 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FamilyGraphTest {
+
+    private static final Logger LOGGER = Logger.getLogger("FamilyGraphTest");
+    private static final String MAIN_WORLD = "world";
+
+    private final UUID villager = UUID.randomUUID();
+    private final UUID partner = UUID.randomUUID();
+    private final UUID child = UUID.randomUUID();
+    private final UUID player = UUID.randomUUID();
+
+    @TempDir
+    Path folder;
+
+    private FamilyGraph graph() {
+        return new FamilyGraph(folder.toFile(), LOGGER, () -> MAIN_WORLD);
+    }
+
+    private static FamilyGraph.Member member(UUID uuid, String name, String world) {
+        return new FamilyGraph.Member(uuid, name, "male", 3, 4, true, world);
+    }
+
+    private FamilyGraph.Node own(String world) {
+        return new FamilyGraph.Node(member(villager, "Steve", world), true, partner, null, null, List.of(player), List.of(child));
+    }
+
+    @Test
+    void saveAndLoad() {
+        FamilyGraph graph = graph();
+        graph.update(own("world_nether"));
+        graph.putRelative(member(partner, "Alex", null));
+        graph.putRelative(member(child, "Kid", null));
+        graph.putRelative(new FamilyGraph.Member(player, "Notch", "", -1, -1, false, null));
+        graph.save();
+
+        assertTrue(new File(folder.toFile(), "world_nether.dat").isFile());
+        assertTrue(new File(folder.toFile(), MAIN_WORLD + ".dat").isFile());
+
+        FamilyGraph loaded = graph();
+        assertEquals(4, loaded.size());
+        assertEquals(own("world_nether"), loaded.get(villager));
+        assertEquals(member(partner, "Alex", null), loaded.getMember(partner));
+        assertFalse(loaded.get(partner).own());
+        assertFalse(loaded.getMember(player).villager());
+    }
+
+    @Test
+    void ownRecordsWin() {
+        FamilyGraph graph = graph();
+        graph.update(own(MAIN_WORLD));
+
+        // Seen from another villager (older data).
+        graph.putRelative(member(villager, "Old name", null));
+        graph.merge(new FamilyGraph.Node(member(villager, "Old name", null), false, null, null, null, List.of(), List.of()));
+        assertEquals(own(MAIN_WORLD), graph.get(villager));
+
+        // The first copy seen wins when migrating, a relative seen later replaces it.
+        graph.merge(new FamilyGraph.Node(member(partner, "First", null), false, null, null, null, List.of(), List.of()));
+        graph.merge(new FamilyGraph.Node(member(partner, "Second", null), false, null, null, null, List.of(), List.of()));
+        assertEquals("First", graph.getMember(partner).name());
+
+        graph.putRelative(member(partner, "Renamed", null));
+        assertEquals("Renamed", graph.getMember(partner).name());
+    }
+
+    // A member that couldn't be resolved when loaded has no name, it can't replace (or add) a record.
+    @Test
+    void unresolvedMembersAreIgnored() {
+        FamilyGraph graph = graph();
+        graph.putRelative(new FamilyGraph.Member(partner, "", "", 0, 0, false, null));
+        assertNull(graph.get(partner));
+
+        graph.putRelative(member(partner, "Alex", null));
+        graph.putRelative(new FamilyGraph.Member(partner, "", "", 0, 0, false, null));
+        assertEquals("Alex", graph.getMember(partner).name());
+    }
+
+    @Test
+    void changeOfWorld() {
+        FamilyGraph graph = graph();
+        graph.update(own("world_nether"));
+        graph.save();
+
+        graph.update(own("world_the_end"));
+        graph.save();
+
+        assertFalse(new File(folder.toFile(), "world_nether.dat").exists());
+        assertEquals("world_the_end", graph().getMember(villager).world());
+    }
+
+    @Test
+    void unknownVersionIsIgnored() throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(new File(folder.toFile(), "world.dat"))))) {
+            output.writeInt(0x52564647);
+            output.writeInt(Integer.MAX_VALUE);
+            output.writeInt(1);
+        }
+
+        FamilyGraph graph = graph();
+        assertEquals(0, graph.size());
+
+        // And it's replaced with the current version on the next save.
+        graph.update(own(MAIN_WORLD));
+        graph.save();
+        assertEquals(own(MAIN_WORLD), graph().get(villager));
+    }
+
+    @Test
+    void nothingToSave() {
+        graph().save();
+        String[] files = folder.toFile().list();
+        assertTrue(files == null || files.length == 0);
+    }
+}
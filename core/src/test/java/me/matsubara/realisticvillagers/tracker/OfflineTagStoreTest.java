@@ -0,0 +1,231 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import me.matsubara.realisticvillagers.RealisticVillagers;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.MockedStatic;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+// Whatever is in memory or on disk, get() must always return the last data put.
+class OfflineTagStoreTest {
+
+    private static final int VILLAGERS = 200;
+    private static final int STEPS = 5_000;
+
+    private static final YamlConfiguration CONFIG = new YamlConfiguration();
+    private static MockedStatic<JavaPlugin> javaPlugin;
+    private static RealisticVillagers plugin;
+
+    @TempDir
+    static File folder;
+
+    @BeforeAll
+    static void setUp() {
+        plugin = mock(RealisticVillagers.class);
+        when(plugin.getConfig()).thenReturn(CONFIG);
+        when(plugin.getDataFolder()).thenReturn(folder);
+        when(plugin.getLogger()).thenReturn(Logger.getLogger("OfflineTagStoreTest"));
+
+        // Config takes the values from the plugin.
+        javaPlugin = mockStatic(JavaPlugin.class);
+        javaPlugin.when(() -> JavaPlugin.getPlugin(RealisticVillagers.class)).thenReturn(plugin);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        javaPlugin.close();
+    }
+
+    @Test
+    void everythingOnDisk() {
+        CONFIG.set("offline-data-cache-size", 0);
+        OfflineTagStore store = new OfflineTagStore(plugin);
+
+        UUID uuid = UUID.randomUUID();
+        assertNull(store.get(uuid));
+
+        store.put(uuid, data(1, 100));
+        assertArrayEquals(data(1, 100), store.get(uuid));
+        assertEquals(0, store.getCachedCount());
+        assertEquals(1, store.getSpilledCount());
+        assertEquals(1L, store.getDiskWrites().sum());
+
+        // Read again without changing it, it's not written again.
+        assertArrayEquals(data(1, 100), store.get(uuid));
+        assertEquals(1L, store.getDiskWrites().sum());
+        assertEquals(100L, store.getFileBytes());
+
+        // The newer data is appended.
+        store.put(uuid, data(2, 50));
+        assertArrayEquals(data(2, 50), store.get(uuid));
+        assertEquals(150L, store.getFileBytes());
+        assertEquals(50L, store.getSpilledBytes());
+
+        // The data read from the worlds doesn't replace it.
+        store.putIfAbsent(uuid, data(3, 10));
+        assertArrayEquals(data(2, 50), store.get(uuid));
+
+        store.close();
+        assertNull(store.get(uuid));
+        assertFalse(new File(folder, "offline").exists());
+    }
+
+    @Test
+    void decodedOnce() {
+        CONFIG.set("offline-data-cache-size", 0);
+        OfflineTagStore store = new OfflineTagStore(plugin);
+
+        UUID uuid = UUID.randomUUID();
+        AtomicInteger decodes = new AtomicInteger();
+        Function<byte[], String> decoder = data -> {
+            decodes.incrementAndGet();
+            return "data " + data[0];
+        };
+
+        assertNull(store.get(uuid, decoder));
+        store.put(uuid, data(1, 100));
+        for (int i = 0; i < 10; i++) {
+            assertEquals("data 1", store.get(uuid, decoder));
+        }
+        assertEquals(1, decodes.get());
+        assertEquals(1L, store.getDiskReads().sum());
+
+        // The new data is decoded again.
+        store.put(uuid, data(2, 100));
+        assertEquals("data 2", store.get(uuid, decoder));
+        assertEquals("data 2", store.get(uuid, decoder));
+        assertEquals(2, decodes.get());
+        store.close();
+    }
+
+    @Test
+    void unreadLoadedOnce() {
+        CONFIG.set("offline-data-cache-size", 0);
+        OfflineTagStore store = new OfflineTagStore(plugin);
+
+        UUID uuid = UUID.randomUUID();
+        AtomicInteger loads = new AtomicInteger();
+        store.putIfAbsent(uuid, () -> {
+            loads.incrementAndGet();
+            return data(1, 100);
+        });
+        assertEquals(1, store.getUnreadCount());
+
+        // Once read, it's handled as any other data (spilled in this case).
+        assertArrayEquals(data(1, 100), store.get(uuid));
+        assertArrayEquals(data(1, 100), store.get(uuid));
+        assertEquals(1, loads.get());
+        assertEquals(1L, store.getRegionReads().sum());
+        assertEquals(0, store.getUnreadCount());
+        assertEquals(1, store.getSpilledCount());
+
+        // The newer data replaces it without reading it, the older doesn't.
+        UUID other = UUID.randomUUID();
+        store.putIfAbsent(other, () -> fail("Replaced data read"));
+        store.putIfAbsent(other, data(2, 10));
+        assertEquals(1, store.getUnreadCount());
+        store.put(other, data(3, 10));
+        assertArrayEquals(data(3, 10), store.get(other));
+        assertEquals(0, store.getUnreadCount());
+
+        // Not in the region any more.
+        UUID missing = UUID.randomUUID();
+        store.putIfAbsent(missing, () -> null);
+        assertNull(store.get(missing));
+        assertEquals(0, store.getUnreadCount());
+        store.close();
+    }
+
+    @Test
+    void randomPutsAndGets() {
+        // A bit more than 1 MB of data, so part of it is always on disk.
+        CONFIG.set("offline-data-cache-size", 1);
+        OfflineTagStore store = new OfflineTagStore(plugin);
+
+        Random random = new Random(17L);
+        List<UUID> uuids = new ArrayList<>();
+        Map<UUID, byte[]> expected = new HashMap<>();
+        for (int i = 0; i < VILLAGERS; i++) {
+            uuids.add(new UUID(random.nextLong(), random.nextLong()));
+        }
+
+        for (int step = 0; step < STEPS; step++) {
+            UUID uuid = uuids.get(random.nextInt(VILLAGERS));
+            if (random.nextInt(3) == 0) {
+                byte[] data = data(step, 2_000 + random.nextInt(10_000));
+                store.put(uuid, data);
+                expected.put(uuid, data);
+            } else {
+                assertArrayEquals(expected.get(uuid), store.get(uuid));
+            }
+        }
+
+        assertTrue(store.getSpilledCount() > 0);
+        assertTrue(store.getCachedBytes() <= 1024L * 1024L);
+        for (UUID uuid : uuids) {
+            assertArrayEquals(expected.get(uuid), store.get(uuid));
+        }
+        store.close();
+    }
+
+    @Test
+    void concurrentGets() throws Exception {
+        CONFIG.set("offline-data-cache-size", 0);
+        OfflineTagStore store = new OfflineTagStore(plugin);
+
+        UUID stable = UUID.randomUUID(), changing = UUID.randomUUID();
+        store.put(stable, data(-1, 4_000));
+        store.put(changing, data(0, 4_000));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                readers.add(executor.submit(() -> {
+                    for (int j = 0; j < STEPS; j++) {
+                        assertArrayEquals(data(-1, 4_000), store.get(stable));
+
+                        // Any of the versions put, but never a mix of them.
+                        byte[] data = store.get(changing);
+                        assertNotNull(data);
+                        assertEquals(4_000, data.length);
+                        assertArrayEquals(data(data[0], 4_000), data);
+                    }
+                    return null;
+                }));
+            }
+
+            for (int i = 1; i < 100; i++) {
+                store.put(changing, data(i, 4_000));
+            }
+
+            for (Future<?> reader : readers) {
+                reader.get(30L, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertArrayEquals(data(99, 4_000), store.get(changing));
+        store.close();
+    }
+
+    private static byte[] data(int seed, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) seed);
+        return data;
+    }
+}
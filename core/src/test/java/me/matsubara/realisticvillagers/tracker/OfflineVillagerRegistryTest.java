@@ -0,0 +1,259 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import me.matsubara.realisticvillagers.data.LastKnownPosition;
+import me.matsubara.realisticvillagers.entity.IVillagerNPC;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// The indexes must always return the same as scanning every villager (with the values they had when added).
+class OfflineVillagerRegistryTest {
+
+    private static final String[] WORLDS = {"world", "world_nether", "other"};
+    private static final int VILLAGERS = 60;
+    private static final int RELATIVES = 12;
+    private static final int STEPS = 20_000;
+
+    // The mutable state of a villager, read by the mock.
+    private static final class State {
+        private UUID partner, father, mother;
+        private LastKnownPosition position;
+    }
+
+    // What the registry should have indexed for a villager (when it was added).
+    private record Snapshot(UUID uuid, UUID partner, UUID father, UUID mother, String world, int chunkX, int chunkZ) {
+    }
+
+    private final Map<IVillagerNPC, State> states = new IdentityHashMap<>();
+
+    @Test
+    void putAndRemove() {
+        OfflineVillagerRegistry registry = new OfflineVillagerRegistry();
+        UUID uuid = UUID.randomUUID(), partner = UUID.randomUUID(), parent = UUID.randomUUID();
+
+        State state = new State();
+        state.partner = partner;
+        state.father = parent;
+        state.position = new LastKnownPosition("world", 20.0d, 64.0d, -20.0d);
+
+        IVillagerNPC npc = villager(uuid, state);
+        assertNull(registry.put(npc));
+        assertSame(npc, registry.get(uuid));
+        assertEquals(List.of(npc), registry.getByPartner(partner));
+        assertEquals(List.of(npc), registry.getByParent(parent));
+        assertEquals(Set.of(npc), Set.copyOf(registry.getFamilyOf(parent)));
+        assertEquals(List.of(npc), registry.getInChunk("world", 1, -2));
+        assertFalse(registry.putIfAbsent(npc));
+
+        assertSame(npc, registry.remove(uuid));
+        assertTrue(registry.getByPartner(partner).isEmpty());
+        assertTrue(registry.getInChunk("world", 1, -2).isEmpty());
+        assertNull(registry.remove(uuid));
+        assertNoEmptyIndexes(registry);
+    }
+
+    // The father and the mother are the same UUID, removing one of them can't leave the other unindexed (or the opposite).
+    @Test
+    void sameFatherAndMother() {
+        OfflineVillagerRegistry registry = new OfflineVillagerRegistry();
+        UUID uuid = UUID.randomUUID(), parent = UUID.randomUUID();
+
+        State state = new State();
+        state.father = parent;
+        state.mother = parent;
+        state.position = LastKnownPosition.ZERO;
+
+        IVillagerNPC npc = villager(uuid, state);
+        registry.put(npc);
+        assertEquals(List.of(npc), registry.getByParent(parent));
+
+        registry.remove(uuid);
+        assertTrue(registry.getByParent(parent).isEmpty());
+        assertNoEmptyIndexes(registry);
+    }
+
+    @Test
+    void matchesBruteForce() {
+        Random random = new Random(15L);
+        OfflineVillagerRegistry registry = new OfflineVillagerRegistry();
+
+        List<UUID> villagers = uuids(0L, VILLAGERS);
+        List<UUID> relatives = new ArrayList<>(uuids(1L, RELATIVES));
+        // Villagers can also be the partner/parent of other villagers.
+        relatives.addAll(villagers.subList(0, 10));
+
+        Map<UUID, Snapshot> expected = new HashMap<>();
+        Map<UUID, IVillagerNPC> npcs = new HashMap<>();
+
+        for (int step = 0; step < STEPS; step++) {
+            UUID uuid = villagers.get(random.nextInt(villagers.size()));
+            IVillagerNPC current = npcs.get(uuid);
+
+            switch (random.nextInt(5)) {
+                // Add or replace with a new object.
+                case 0, 1 -> {
+                    IVillagerNPC npc = villager(uuid, randomState(random, relatives));
+                    IVillagerNPC previous = registry.put(npc);
+                    assertSame(current, previous);
+                    npcs.put(uuid, npc);
+                    expected.put(uuid, snapshot(npc));
+                }
+                case 2 -> {
+                    IVillagerNPC npc = villager(uuid, randomState(random, relatives));
+                    boolean added = registry.putIfAbsent(npc);
+                    assertEquals(current == null, added);
+                    if (added) {
+                        npcs.put(uuid, npc);
+                        expected.put(uuid, snapshot(npc));
+                    }
+                }
+                case 3 -> {
+                    assertSame(current, registry.remove(uuid));
+                    npcs.remove(uuid);
+                    expected.remove(uuid);
+                }
+                default -> {
+                    if (current == null) continue;
+
+                    // The villager changes, but the indexes keep the previous values until it's added again.
+                    State state = states.get(current);
+                    State changed = randomState(random, relatives);
+                    state.partner = changed.partner;
+                    state.father = changed.father;
+                    state.mother = changed.mother;
+                    state.position = changed.position;
+
+                    if (random.nextBoolean()) {
+                        assertSame(current, registry.put(current));
+                        expected.put(uuid, snapshot(current));
+                    }
+                }
+            }
+
+            if (step % 50 == 0) assertIndexes(registry, expected, npcs, relatives);
+        }
+
+        assertIndexes(registry, expected, npcs, relatives);
+
+        for (UUID uuid : villagers) {
+            registry.remove(uuid);
+        }
+        assertEquals(0, registry.size());
+        assertNoEmptyIndexes(registry);
+    }
+
+    private void assertIndexes(OfflineVillagerRegistry registry, Map<UUID, Snapshot> expected, Map<UUID, IVillagerNPC> npcs, List<UUID> relatives) {
+        assertEquals(expected.size(), registry.size());
+        assertEquals(Set.copyOf(npcs.values()), identities(registry.values()));
+
+        for (UUID relative : relatives) {
+            assertEquals(scan(expected, npcs, snapshot -> relative.equals(snapshot.partner())),
+                    identities(registry.getByPartner(relative)), "byPartner");
+            assertEquals(scan(expected, npcs, snapshot -> relative.equals(snapshot.father()) || relative.equals(snapshot.mother())),
+                    identities(registry.getByParent(relative)), "byParent");
+            assertEquals(scan(expected, npcs, snapshot -> relative.equals(snapshot.partner())
+                            || relative.equals(snapshot.father())
+                            || relative.equals(snapshot.mother())),
+                    identities(registry.getFamilyOf(relative)), "byFamily");
+        }
+
+        for (String world : WORLDS) {
+            assertEquals(scan(expected, npcs, snapshot -> world.equals(snapshot.world())),
+                    identities(registry.getByWorld(world)), "byWorld");
+
+            for (int x = -3; x <= 2; x++) {
+                for (int z = -3; z <= 2; z++) {
+                    int chunkX = x, chunkZ = z;
+                    assertEquals(scan(expected, npcs, snapshot -> world.equals(snapshot.world())
+                                    && snapshot.chunkX() == chunkX
+                                    && snapshot.chunkZ() == chunkZ),
+                            identities(registry.getInChunk(world, chunkX, chunkZ)), "byChunk");
+                }
+            }
+        }
+    }
+
+    private static Set<IVillagerNPC> scan(Map<UUID, Snapshot> expected, Map<UUID, IVillagerNPC> npcs, Function<Snapshot, Boolean> filter) {
+        Set<IVillagerNPC> result = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Snapshot snapshot : expected.values()) {
+            if (filter.apply(snapshot)) result.add(npcs.get(snapshot.uuid()));
+        }
+        return result;
+    }
+
+    private static Set<IVillagerNPC> identities(Collection<IVillagerNPC> npcs) {
+        Set<IVillagerNPC> result = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (IVillagerNPC npc : npcs) {
+            assertTrue(result.add(npc), "Duplicated villager");
+        }
+        return result;
+    }
+
+    // Removed keys must not leave an empty set behind.
+    private static void assertNoEmptyIndexes(OfflineVillagerRegistry registry) {
+        try {
+            for (String name : List.of("byPartner", "byParent", "byFamily", "byWorld", "byChunk")) {
+                Field field = OfflineVillagerRegistry.class.getDeclaredField(name);
+                field.setAccessible(true);
+                Map<?, ?> index = (Map<?, ?>) field.get(registry);
+                for (Object uuids : index.values()) {
+                    assertFalse(((Set<?>) uuids).isEmpty(), name);
+                }
+            }
+        } catch (ReflectiveOperationException exception) {
+            fail(exception);
+        }
+    }
+
+    private State randomState(Random random, List<UUID> relatives) {
+        State state = new State();
+        state.partner = random.nextInt(3) == 0 ? null : relatives.get(random.nextInt(relatives.size()));
+        state.father = random.nextInt(3) == 0 ? null : relatives.get(random.nextInt(relatives.size()));
+        // Sometimes the same UUID for both parents.
+        state.mother = random.nextInt(5) == 0 ? state.father : random.nextInt(3) == 0 ? null : relatives.get(random.nextInt(relatives.size()));
+        state.position = random.nextInt(20) == 0 ? null : new LastKnownPosition(
+                WORLDS[random.nextInt(WORLDS.length)],
+                random.nextDouble() * 80.0d - 40.0d,
+                64.0d,
+                random.nextDouble() * 80.0d - 40.0d);
+        return state;
+    }
+
+    private IVillagerNPC villager(UUID uuid, State state) {
+        IVillagerNPC npc = mock(IVillagerNPC.class);
+        when(npc.getUniqueId()).thenReturn(uuid);
+        when(npc.getPartnerUUID()).thenAnswer(invocation -> state.partner);
+        when(npc.getFatherUUID()).thenAnswer(invocation -> state.father);
+        when(npc.getMotherUUID()).thenAnswer(invocation -> state.mother);
+        when(npc.getLastKnownPosition()).thenAnswer(invocation -> state.position);
+        states.put(npc, state);
+        return npc;
+    }
+
+    private Snapshot snapshot(IVillagerNPC npc) {
+        State state = states.get(npc);
+        LastKnownPosition position = state.position != null ? state.position : LastKnownPosition.ZERO;
+        return new Snapshot(
+                npc.getUniqueId(),
+                state.partner,
+                state.father,
+                state.mother,
+                position.world(),
+                (int) Math.floor(position.x()) >> 4,
+                (int) Math.floor(position.z()) >> 4);
+    }
+
+    private static List<UUID> uuids(long group, int amount) {
+        List<UUID> uuids = new ArrayList<>(amount);
+        for (int i = 0; i < amount; i++) {
+            uuids.add(new UUID(group, i + 1L));
+        }
+        return uuids;
+    }
+}
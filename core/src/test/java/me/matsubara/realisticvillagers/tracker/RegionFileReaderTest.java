@@ -0,0 +1,118 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RegionFileReaderTest {
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void readsEveryCompression() throws IOException {
+        Random random = new Random(25L);
+        for (byte compression : new byte[]{RegionFiles.GZIP, RegionFiles.DEFLATE, RegionFiles.NONE, RegionFiles.LZ4}) {
+            File file = new File(folder.toFile(), "r.0." + compression + ".mca");
+            List<RegionFiles.Villager> expected = write(file, random, compression, true, Set.of());
+            assertVillagers(expected, RegionFileReader.readVillagers(file, RegionFiles.DATA_KEY).villagers());
+        }
+    }
+
+    @Test
+    void externalChunks() throws IOException {
+        File file = new File(folder.toFile(), "r.-1.2.mca");
+        List<RegionFiles.Villager> expected = write(file, new Random(25L), RegionFiles.DEFLATE, true, Set.of(0, 33, 1023));
+        assertTrue(new File(folder.toFile(), "c.-32.64.mcc").isFile());
+        assertVillagers(expected, RegionFileReader.readVillagers(file, RegionFiles.DATA_KEY).villagers());
+    }
+
+    // The last sector isn't full, the server would pad it when closing the file.
+    @Test
+    void doesNotModifyTheFile() throws IOException {
+        File file = new File(folder.toFile(), "r.0.0.mca");
+        List<RegionFiles.Villager> expected = write(file, new Random(25L), RegionFiles.DEFLATE, false, Set.of());
+        assertNotEquals(0L, file.length() % 4096L);
+
+        byte[] before = Files.readAllBytes(file.toPath());
+        long modified = file.lastModified();
+
+        assertVillagers(expected, RegionFileReader.readVillagers(file, RegionFiles.DATA_KEY).villagers());
+        assertArrayEquals(before, Files.readAllBytes(file.toPath()));
+        assertEquals(modified, file.lastModified());
+    }
+
+    @Test
+    void emptyFile() throws IOException {
+        File file = new File(folder.toFile(), "r.0.0.mca");
+        assertTrue(file.createNewFile());
+        assertTrue(RegionFileReader.readVillagers(file, RegionFiles.DATA_KEY).villagers().isEmpty());
+    }
+
+    @Test
+    void truncatedHeader() throws IOException {
+        File file = new File(folder.toFile(), "r.0.0.mca");
+        Files.write(file.toPath(), new byte[100]);
+        assertThrows(IOException.class, () -> RegionFileReader.readVillagers(file, RegionFiles.DATA_KEY));
+    }
+
+    // The rest of the chunks are still read, but the result says it's incomplete.
+    @Test
+    void corruptedChunk() throws IOException {
+        File file = new File(folder.toFile(), "r.0.0.mca");
+        List<RegionFiles.Villager> first = RegionFiles.villagers(new Random(25L), 2);
+        List<RegionFiles.Villager> second = RegionFiles.villagers(new Random(26L), 3);
+        RegionFiles.write(file, Map.of(0, RegionFiles.chunk(first, 1), 1, RegionFiles.chunk(second, 1)), RegionFiles.DEFLATE, true);
+        corrupt(file);
+
+        RegionFileReader.Result result = RegionFileReader.readVillagers(file, RegionFiles.DATA_KEY);
+        assertEquals(1, result.failedChunks());
+        assertVillagers(second, result.villagers());
+    }
+
+    // The compressed data of the first chunk (after its length and version) is replaced with garbage, without changing the size.
+    static void corrupt(File file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        Arrays.fill(bytes, 8192 + 5, 8192 + 20, (byte) 0x7F);
+        Files.write(file.toPath(), bytes);
+    }
+
+    // Some chunks with villagers (and other entities), others with other entities only.
+    static List<RegionFiles.Villager> write(File file, Random random, byte compression, boolean pad, Set<Integer> external) throws IOException {
+        List<RegionFiles.Villager> expected = new ArrayList<>();
+        Map<Integer, byte[]> chunks = new HashMap<>();
+        for (int index = 0; index < 1024; index++) {
+            if (random.nextInt(4) != 0 && !external.contains(index)) continue;
+            List<RegionFiles.Villager> villagers = RegionFiles.villagers(random, random.nextInt(4));
+            expected.addAll(villagers);
+            chunks.put(index, RegionFiles.chunk(villagers, random.nextInt(3)));
+        }
+        RegionFiles.write(file, chunks, compression, pad, external);
+        return expected;
+    }
+
+    static void assertVillagers(List<RegionFiles.Villager> expected, List<EntityChunkReader.Villager> villagers) throws IOException {
+        assertEquals(expected.size(), villagers.size());
+
+        Map<UUID, EntityChunkReader.Villager> byUUID = new HashMap<>();
+        for (EntityChunkReader.Villager villager : villagers) {
+            byUUID.put(villager.uuid(), villager);
+        }
+
+        for (RegionFiles.Villager villager : expected) {
+            EntityChunkReader.Villager read = byUUID.get(villager.uuid());
+            assertNotNull(read);
+            assertEquals(villager.x(), read.x());
+            assertEquals(villager.y(), read.y());
+            assertEquals(villager.z(), read.z());
+            assertArrayEquals(villager.data(), read.data());
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Writes region files (.mca) with entity chunks, in the same format as the server.
+final class RegionFiles {
+
+    static final String DATA_KEY = "realisticvillagers:npc_values";
+
+    static final byte GZIP = 1;
+    static final byte DEFLATE = 2;
+    static final byte NONE = 3;
+    static final byte LZ4 = 4;
+
+    private static final int SECTOR_BYTES = 4096;
+
+    private RegionFiles() {
+    }
+
+    // A villager saved in a chunk, with the name as the only data of this plugin.
+    record Villager(UUID uuid, double x, double y, double z, String name) {
+
+        // The data as it should be returned by EntityChunkReader.
+        byte[] data() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeByte(10);
+            output.writeUTF("");
+            writeData(output);
+            return bytes.toByteArray();
+        }
+
+        private void writeData(DataOutputStream output) throws IOException {
+            output.writeByte(8);
+            output.writeUTF("Name");
+            output.writeUTF(name);
+            output.writeByte(3);
+            output.writeUTF("DataVersion");
+            output.writeInt(2);
+            output.writeByte(0);
+        }
+    }
+
+    // The uncompressed NBT of an entity chunk with the given villagers and other (non-villager) entities.
+    static byte[] chunk(List<Villager> villagers, int others) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(10);
+        output.writeUTF("");
+
+        output.writeByte(3);
+        output.writeUTF("DataVersion");
+        output.writeInt(3955);
+
+        output.writeByte(11);
+        output.writeUTF("Position");
+        output.writeInt(2);
+        output.writeInt(0);
+        output.writeInt(0);
+
+        output.writeByte(9);
+        output.writeUTF("Entities");
+        output.writeByte(10);
+        output.writeInt(villagers.size() + others);
+        for (int i = 0; i < others; i++) {
+            writeEntity(output, "minecraft:zombie", new UUID(i, i), 0.0d, 64.0d, 0.0d, null);
+        }
+        for (Villager villager : villagers) {
+            writeEntity(output, "minecraft:villager", villager.uuid(), villager.x(), villager.y(), villager.z(), villager);
+        }
+
+        output.writeByte(0);
+        return bytes.toByteArray();
+    }
+
+    private static void writeEntity(DataOutputStream output, String id, UUID uuid, double x, double y, double z, Villager villager) throws IOException {
+        output.writeByte(8);
+        output.writeUTF("id");
+        output.writeUTF(id);
+
+        output.writeByte(9);
+        output.writeUTF("Pos");
+        output.writeByte(6);
+        output.writeInt(3);
+        output.writeDouble(x);
+        output.writeDouble(y);
+        output.writeDouble(z);
+
+        output.writeByte(5);
+        output.writeUTF("Health");
+        output.writeFloat(20.0f);
+
+        output.writeByte(11);
+        output.writeUTF("UUID");
+        output.writeInt(4);
+        output.writeInt((int) (uuid.getMostSignificantBits() >> 32));
+        output.writeInt((int) uuid.getMostSignificantBits());
+        output.writeInt((int) (uuid.getLeastSignificantBits() >> 32));
+        output.writeInt((int) uuid.getLeastSignificantBits());
+
+        output.writeByte(10);
+        output.writeUTF("BukkitValues");
+        output.writeByte(1);
+        output.writeUTF("other:value");
+        output.writeByte(1);
+        if (villager != null) {
+            output.writeByte(10);
+            output.writeUTF(DATA_KEY);
+            villager.writeData(output);
+        }
+        output.writeByte(0);
+
+        output.writeByte(0);
+    }
+
+    static byte[] compress(byte compression, byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputStream output = switch (compression) {
+            case GZIP -> new GZIPOutputStream(bytes);
+            case DEFLATE -> new DeflaterOutputStream(bytes);
+            case LZ4 -> new LZ4BlockOutputStream(bytes);
+            default -> bytes;
+        };
+        try (output) {
+            output.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    // The chunks are keyed by their index in the region (x + z * 32). The last sector is only padded if asked, as the server does when closing the file.
+    static void write(File file, Map<Integer, byte[]> chunks, byte compression, boolean pad) throws IOException {
+        write(file, chunks, compression, pad, Set.of());
+    }
+
+    // The chunks in external are saved in their own file (c.<x>.<z>.mcc), as the server does with chunks too big for the region.
+    static void write(File file, Map<Integer, byte[]> chunks, byte compression, boolean pad, Set<Integer> external) throws IOException {
+        Files.createDirectories(file.getParentFile().toPath());
+
+        int[] offsets = new int[1024];
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int sector = 2;
+
+        for (Map.Entry<Integer, byte[]> entry : new TreeMap<>(chunks).entrySet()) {
+            int index = entry.getKey();
+            byte[] compressed = compress(compression, entry.getValue());
+
+            DataOutputStream output = new DataOutputStream(body);
+            int start = body.size();
+            if (external.contains(index)) {
+                output.writeInt(1);
+                output.writeByte(compression | 0x80);
+                Files.write(externalFile(file, index).toPath(), compressed);
+            } else {
+                output.writeInt(compressed.length + 1);
+                output.writeByte(compression);
+                output.write(compressed);
+            }
+
+            int length = body.size() - start;
+            int sectors = (length + SECTOR_BYTES - 1) / SECTOR_BYTES;
+
+            // Every chunk but the last one starts in its own sector.
+            boolean last = index == Collections.max(chunks.keySet());
+            if (!last || pad) {
+                body.write(new byte[sectors * SECTOR_BYTES - length]);
+            }
+
+            offsets[index] = sector << 8 | sectors;
+            sector += sectors;
+        }
+
+        try (DataOutputStream output = new DataOutputStream(new FileOutputStream(file))) {
+            for (int offset : offsets) {
+                output.writeInt(offset);
+            }
+            for (int i = 0; i < 1024; i++) {
+                output.writeInt(1_700_000_000);
+            }
+            body.writeTo(output);
+        }
+    }
+
+    private static File externalFile(File file, int index) {
+        String[] parts = file.getName().split("\\.");
+        int chunkX = Integer.parseInt(parts[1]) * 32 + index % 32;
+        int chunkZ = Integer.parseInt(parts[2]) * 32 + index / 32;
+        return new File(file.getParentFile(), "c." + chunkX + "." + chunkZ + ".mcc");
+    }
+
+    static List<Villager> villagers(Random random, int amount) {
+        List<Villager> villagers = new ArrayList<>(amount);
+        for (int i = 0; i < amount; i++) {
+            villagers.add(new Villager(
+                    new UUID(random.nextLong(), random.nextLong()),
+                    random.nextInt(512) + 0.5d,
+                    64.0d,
+                    random.nextInt(512) + 0.5d,
+                    "Villager-" + random.nextInt(10_000)));
+        }
+        return villagers;
+    }
+}
@@ -0,0 +1,75 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Merge of the villagers found in the regions of 50k villagers (some of them in more than one region), as the scanner does it.
+// Before, every villager was checked against all the ones already found (noneMatch over a list); now they're merged by UUID.
+// Run main() from the test classpath.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RegionMergeBenchmark {
+
+    private static final int VILLAGERS = 50_000;
+    private static final int REGIONS = 400;
+
+    // One in 20 villagers has an older copy in another region.
+    private static final int COPY_EVERY = 20;
+
+    private final List<RegionScanner.Candidate> candidates = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(24L);
+        for (int i = 0; i < VILLAGERS; i++) {
+            UUID uuid = new UUID(random.nextLong(), random.nextLong());
+            candidates.add(candidate(random, uuid, 1_700_000_000_000L + random.nextInt(1_000_000)));
+            if (i % COPY_EVERY == 0) candidates.add(candidate(random, uuid, 1_600_000_000_000L));
+        }
+        Collections.shuffle(candidates, random);
+    }
+
+    @Benchmark
+    public List<RegionScanner.Candidate> linear() {
+        List<RegionScanner.Candidate> found = new ArrayList<>();
+        for (RegionScanner.Candidate candidate : candidates) {
+            if (found.stream().noneMatch(other -> other.summary().uuid().equals(candidate.summary().uuid()))) {
+                found.add(candidate);
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public Map<UUID, RegionScanner.Candidate> merged() {
+        Map<UUID, RegionScanner.Candidate> found = new HashMap<>();
+        for (RegionScanner.Candidate candidate : candidates) {
+            found.merge(candidate.summary().uuid(), candidate, RegionScanner.Candidate::newest);
+        }
+        return found;
+    }
+
+    private static RegionScanner.Candidate candidate(Random random, UUID uuid, long modified) {
+        File region = new File("r." + (random.nextInt(REGIONS) - REGIONS / 2) + ".0.mca");
+        VillagerSummary summary = VillagerSummary.unknown(new EntityChunkReader.Villager(uuid, 0.5d, 64.0d, 0.5d, new byte[0]));
+        return new RegionScanner.Candidate("world", region, summary, null, modified);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RegionMergeBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
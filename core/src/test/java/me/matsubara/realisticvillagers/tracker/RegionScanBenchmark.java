@@ -0,0 +1,110 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import me.matsubara.realisticvillagers.entity.IVillagerNPC;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+// Scan of a synthetic server folder (3 worlds, 32 entity regions each, ~400 villagers per region), reading every region in 1 thread (as before) vs in parallel.
+// "read" starts without an index each time (as the first start of the server), "indexed" with the index of the last scan (no region changed).
+// The mapper does nothing, only the reading and merging is measured. Run main() from the test classpath.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegionScanBenchmark {
+
+    private static final String[] WORLDS = {"world", "world_nether", "world_the_end"};
+    private static final int REGIONS = 32;
+    private static final Logger LOGGER = Logger.getLogger("RegionScanBenchmark");
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private File root;
+    private File indexFolder;
+    private List<File> regions;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        LOGGER.setLevel(java.util.logging.Level.WARNING);
+        root = Files.createTempDirectory("region-scan").toFile();
+        indexFolder = new File(root, "index");
+
+        Random random = new Random(21L);
+        for (String world : WORLDS) {
+            File folder = new File(root, world);
+            Files.createDirectories(new File(folder, "entities").toPath());
+            Files.createFile(new File(folder, "level.dat").toPath());
+
+            for (int i = 0; i < REGIONS; i++) {
+                File region = new File(new File(folder, "entities"), "r." + (i % 8 - 4) + "." + (i / 8 - 2) + ".mca");
+                RegionFileReaderTest.write(region, random, RegionFiles.DEFLATE, true, Set.of());
+            }
+        }
+
+        regions = RegionScanner.getEntityRegions(root);
+        scanner().scan(regions, RegionScanBenchmark::map, RegionScanBenchmark::map);
+    }
+
+    @Benchmark
+    public Map<UUID, IVillagerNPC> read() throws IOException {
+        File fresh = Files.createTempDirectory(root.toPath(), "index").toFile();
+        try {
+            return new RegionScanner(fresh, RegionFiles.DATA_KEY, LOGGER, threads).scan(regions, RegionScanBenchmark::map, RegionScanBenchmark::map);
+        } finally {
+            deleteRecursively(fresh);
+        }
+    }
+
+    @Benchmark
+    public Map<UUID, IVillagerNPC> indexed() {
+        return scanner().scan(regions, RegionScanBenchmark::map, RegionScanBenchmark::map);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        deleteRecursively(root);
+    }
+
+    private RegionScanner scanner() {
+        return new RegionScanner(indexFolder, RegionFiles.DATA_KEY, LOGGER, threads);
+    }
+
+    private static IVillagerNPC map(String world, EntityChunkReader.Villager villager) {
+        return null;
+    }
+
+    private static IVillagerNPC map(String world, VillagerSummary summary, Supplier<byte[]> loader) {
+        return null;
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteRecursively(child);
+            }
+        }
+        Files.delete(file.toPath());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(RegionScanBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,429 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import me.matsubara.realisticvillagers.entity.IVillagerNPC;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+// A region is only taken from the index if it wasn't modified. To know if a region was read again, some tests replace its content keeping the same size and modification time:
+// if the scanner returns the new content, it was read; if it returns the old one, it was taken from the index.
+// The names of the indexed villagers come from their summary, their full data is only read by the loader.
+class RegionScannerTest {
+
+    private static final Logger LOGGER = Logger.getLogger("RegionScannerTest");
+    private static final int THREADS = 2;
+
+    @TempDir
+    Path root;
+
+    @TempDir
+    Path indexFolder;
+
+    private final Random random = new Random(23L);
+
+    // The name (inside the data) of every villager mapped in the last scan.
+    private final Map<UUID, String> names = new ConcurrentHashMap<>();
+
+    // The loaders of the villagers taken from the index in the last scan.
+    private final Map<UUID, Supplier<byte[]>> loaders = new ConcurrentHashMap<>();
+
+    @Test
+    void unchangedRegionsAreNotRead() throws IOException {
+        File region = region("world", 0, 0);
+        List<RegionFiles.Villager> villagers = write(region, "old");
+        assertScanned(villagers, scan());
+
+        replaceKeepingTimeAndSize(region, "new");
+        assertScanned(villagers, scan());
+        assertNames("old");
+    }
+
+    @Test
+    void modifiedRegionsAreRead() throws IOException {
+        File region = region("world", 0, 0);
+        write(region, "old");
+        scan();
+
+        List<RegionFiles.Villager> villagers = write(region, "new");
+        assertTrue(region.setLastModified(region.lastModified() + 5_000L));
+        assertScanned(villagers, scan());
+        assertNames("new");
+    }
+
+    @Test
+    void addedRegionsAreRead() throws IOException {
+        List<RegionFiles.Villager> villagers = new ArrayList<>(write(region("world", 0, 0), "first"));
+        scan();
+
+        villagers.addAll(write(region("world", -1, 3), "second"));
+        assertScanned(villagers, scan());
+    }
+
+    @Test
+    void deletedRegionsAreRemoved() throws IOException {
+        File deleted = region("world", 1, 1);
+        List<RegionFiles.Villager> villagers = write(region("world", 0, 0), "kept");
+        write(deleted, "deleted");
+        assertEquals(villagers.size() + 3, scan().size());
+
+        Files.delete(deleted.toPath());
+        assertScanned(villagers, scan());
+
+        // Even if the same file appears again with the same time and size.
+        write(deleted, "deleted");
+        replaceKeepingTimeAndSize(deleted, "revived");
+        scan();
+        assertTrue(names.containsValue("revived-0"));
+    }
+
+    @Test
+    void indexOfDeletedWorldsIsRemoved() throws IOException {
+        write(region("world", 0, 0), "world");
+        File nether = region("world_nether", 0, 0);
+        write(nether, "nether");
+        scan();
+        assertTrue(indexFile("world_nether").isFile());
+
+        deleteRecursively(nether.getParentFile().getParentFile());
+        scan();
+        assertFalse(indexFile("world_nether").exists());
+        assertTrue(indexFile("world").isFile());
+
+        // Without any world, nothing is left.
+        deleteRecursively(new File(root.toFile(), "world"));
+        assertTrue(scan().isEmpty());
+        assertFalse(indexFile("world").exists());
+    }
+
+    @Test
+    void corruptedIndexIsIgnored() throws IOException {
+        File region = region("world", 0, 0);
+        write(region, "old");
+        scan();
+
+        replaceKeepingTimeAndSize(region, "new");
+        byte[] garbage = new byte[64];
+        random.nextBytes(garbage);
+        Files.write(indexFile("world").toPath(), garbage);
+
+        scan();
+        assertNames("new");
+    }
+
+    @Test
+    void indexOfOtherVersionIsIgnored() throws IOException {
+        File region = region("world", 0, 0);
+        write(region, "old");
+        scan();
+
+        replaceKeepingTimeAndSize(region, "new");
+        try (DataOutputStream output = new DataOutputStream(new GZIPOutputStream(new FileOutputStream(indexFile("world"))))) {
+            output.writeInt(0x52564958);
+            output.writeInt(Integer.MAX_VALUE);
+            output.writeUTF(RegionFiles.DATA_KEY);
+            output.writeInt(0);
+        }
+
+        scan();
+        assertNames("new");
+
+        // And it's saved with the current version again.
+        replaceKeepingTimeAndSize(region, "nxt");
+        scan();
+        assertNames("new");
+    }
+
+    // The villagers of the chunks that could be read are used, but the region isn't indexed (it's read again next time).
+    @Test
+    void failedRegionsAreNotIndexed() throws IOException {
+        File region = region("world", 0, 0);
+        List<RegionFiles.Villager> first = RegionFiles.villagers(random, 2);
+        List<RegionFiles.Villager> second = RegionFiles.villagers(random, 3);
+        RegionFiles.write(region, Map.of(0, RegionFiles.chunk(first, 1), 1, RegionFiles.chunk(second, 1)), RegionFiles.DEFLATE, true);
+        byte[] valid = Files.readAllBytes(region.toPath());
+        long modified = region.lastModified();
+
+        RegionFileReaderTest.corrupt(region);
+        assertTrue(region.setLastModified(modified));
+        assertScanned(second, scan());
+
+        // Fixed without changing the time or size, it must be read again.
+        Files.write(region.toPath(), valid);
+        assertTrue(region.setLastModified(modified));
+        List<RegionFiles.Villager> all = new ArrayList<>(first);
+        all.addAll(second);
+        assertScanned(all, scan());
+
+        // And now it's indexed.
+        RegionFileReaderTest.corrupt(region);
+        assertTrue(region.setLastModified(modified));
+        assertScanned(all, scan());
+    }
+
+    @Test
+    void unreadableRegionsAreSkipped() throws IOException {
+        List<RegionFiles.Villager> villagers = write(region("world", 0, 0), "valid");
+        File truncated = region("world", 1, 0);
+        Files.write(truncated.toPath(), new byte[100]);
+
+        assertScanned(villagers, scan());
+        assertScanned(villagers, scan());
+    }
+
+    // The same villagers in regions modified at the same time: whichever region is read first, the last one by world and name is kept.
+    @Test
+    void sameTimeIsResolvedByName() throws IOException {
+        List<File> regions = List.of(region("world", 0, 0), region("world", 1, 0), region("world_nether", 0, 0));
+        for (File region : regions) {
+            List<RegionFiles.Villager> villagers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                villagers.add(new RegionFiles.Villager(new UUID(0L, i), 8.5d, 64.0d, 8.5d, region.getParentFile().getParentFile().getName() + "/" + region.getName() + "-" + i));
+            }
+            RegionFiles.write(region, Map.of(0, RegionFiles.chunk(villagers, 1)), RegionFiles.NONE, true);
+            assertTrue(region.setLastModified(1_700_000_000_000L));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            scan();
+            assertNames("world_nether/r.0.0.mca");
+        }
+    }
+
+    @Test
+    void indexedDataIsReadWhenNeeded() throws IOException {
+        File region = region("world", 0, 0);
+        List<RegionFiles.Villager> villagers = write(region, "old");
+        scan();
+        assertTrue(loaders.isEmpty());
+
+        assertScanned(villagers, scan());
+        assertEquals(names.keySet(), loaders.keySet());
+        for (RegionFiles.Villager villager : villagers) {
+            assertArrayEquals(villager.data(), loaders.get(villager.uuid()).get());
+        }
+
+        // The villagers that aren't there any more don't have data.
+        Files.delete(region.toPath());
+        assertNull(loaders.get(villagers.get(0).uuid()).get());
+    }
+
+    // The chunk of the position is read first, the rest of the region only if the villager isn't there.
+    @Test
+    void indexedDataOfMovedVillagers() throws IOException {
+        File region = region("world", 0, 0);
+        List<RegionFiles.Villager> villagers = RegionFiles.villagers(random, 5);
+        RegionFiles.write(region, Map.of(0, RegionFiles.chunk(villagers.subList(0, 2), 1), 33, RegionFiles.chunk(villagers.subList(2, 5), 2)), RegionFiles.GZIP, true);
+        scan();
+
+        assertScanned(villagers, scan());
+        for (RegionFiles.Villager villager : villagers) {
+            assertArrayEquals(villager.data(), loaders.get(villager.uuid()).get());
+        }
+    }
+
+    @Test
+    void summaryOfTheData() throws IOException {
+        UUID uuid = UUID.randomUUID(), partner = UUID.randomUUID(), father = UUID.randomUUID(), mother = UUID.randomUUID();
+        UUID first = UUID.randomUUID(), second = UUID.randomUUID();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(10);
+        output.writeUTF("");
+        writeString(output, "Name", "Kate");
+        writeString(output, "Sex", "female");
+        writeInt(output, "SkinTextureId", 12);
+        writeInt(output, "KidSkinTextureId", 3);
+        writeUUID(output, "Partner", partner);
+        writeUUID(output, "Father", father);
+        writeString(output, "Mother", "invalid");
+        output.writeByte(9);
+        output.writeUTF("Childrens");
+        output.writeByte(11);
+        output.writeInt(2);
+        writeUUID(output, null, first);
+        writeUUID(output, null, second);
+        output.writeByte(9);
+        output.writeUTF("Partners");
+        output.writeByte(0);
+        output.writeInt(0);
+        output.writeByte(0);
+
+        EntityChunkReader.Villager villager = new EntityChunkReader.Villager(uuid, 1.5d, 64.0d, -3.5d, bytes.toByteArray());
+        assertEquals(new VillagerSummary(uuid, 1.5d, 64.0d, -3.5d, "Kate", "female", 12, 3, partner, father, null, List.of(), List.of(first, second), false),
+                EntityChunkReader.summarize(villager));
+
+        // The same with the mother embedded (as older versions did), with her own family inside.
+        bytes.reset();
+        output.writeByte(10);
+        output.writeUTF("");
+        output.writeByte(10);
+        output.writeUTF("Mother");
+        writeString(output, "Name", "Ann");
+        output.writeByte(10);
+        output.writeUTF("Father");
+        writeUUID(output, "UUID", UUID.randomUUID());
+        output.writeByte(0);
+        writeUUID(output, "UUID", mother);
+        output.writeByte(0);
+        output.writeByte(0);
+
+        villager = new EntityChunkReader.Villager(uuid, 0.0d, 0.0d, 0.0d, bytes.toByteArray());
+        VillagerSummary summary = EntityChunkReader.summarize(villager);
+        assertEquals(mother, summary.mother());
+        assertEquals("", summary.name());
+        assertTrue(summary.embeddedFamily());
+    }
+
+    @Test
+    void newestIsSymmetric() {
+        VillagerSummary summary = VillagerSummary.unknown(new EntityChunkReader.Villager(new UUID(0L, 0L), 0.0d, 0.0d, 0.0d, new byte[0]));
+        List<RegionScanner.Candidate> candidates = List.of(
+                new RegionScanner.Candidate("world", new File("r.0.0.mca"), summary, null, 1L),
+                new RegionScanner.Candidate("world", new File("r.1.0.mca"), summary, null, 1L),
+                new RegionScanner.Candidate("world_nether", new File("r.0.0.mca"), summary, null, 1L),
+                new RegionScanner.Candidate("world", new File("r.0.0.mca"), summary, null, 2L));
+
+        for (RegionScanner.Candidate first : candidates) {
+            for (RegionScanner.Candidate second : candidates) {
+                if (first == second) continue;
+                assertSame(RegionScanner.Candidate.newest(first, second), RegionScanner.Candidate.newest(second, first));
+            }
+        }
+        assertSame(candidates.get(3), candidates.stream().reduce(RegionScanner.Candidate::newest).orElseThrow());
+    }
+
+    private Map<UUID, IVillagerNPC> scan() {
+        names.clear();
+        loaders.clear();
+        List<File> regions = RegionScanner.getEntityRegions(root.toFile());
+        return new RegionScanner(indexFolder.toFile(), RegionFiles.DATA_KEY, LOGGER, THREADS).scan(regions, (world, villager) -> {
+            names.put(villager.uuid(), name(villager.data()));
+            return npc(villager.uuid());
+        }, (world, summary, loader) -> {
+            names.put(summary.uuid(), summary.name());
+            loaders.put(summary.uuid(), loader);
+            return npc(summary.uuid());
+        });
+    }
+
+    private static IVillagerNPC npc(UUID uuid) {
+        IVillagerNPC npc = mock(IVillagerNPC.class);
+        when(npc.getUniqueId()).thenReturn(uuid);
+        return npc;
+    }
+
+    private File region(String world, int x, int z) throws IOException {
+        File folder = new File(root.toFile(), world);
+        Files.createDirectories(new File(folder, "entities").toPath());
+        File level = new File(folder, "level.dat");
+        if (!level.exists()) assertTrue(level.createNewFile());
+        return new File(new File(folder, "entities"), "r." + x + "." + z + ".mca");
+    }
+
+    private File indexFile(String world) {
+        return new File(indexFolder.toFile(), world + ".dat");
+    }
+
+    // Three villagers in one chunk, named <prefix>-<index>. The prefixes used in a test have the same length, so the size of the region doesn't change.
+    private List<RegionFiles.Villager> write(File region, String prefix) throws IOException {
+        List<RegionFiles.Villager> villagers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            villagers.add(new RegionFiles.Villager(new UUID(prefix.hashCode(), i + region.getName().hashCode()), 8.5d, 64.0d, 8.5d, prefix + "-" + i));
+        }
+        RegionFiles.write(region, Map.of(0, RegionFiles.chunk(villagers, 1)), RegionFiles.NONE, true);
+        return villagers;
+    }
+
+    // Writes the same villagers with another prefix, without changing the size or modification time of the region.
+    // Without compression, names of the same length have the same size.
+    private void replaceKeepingTimeAndSize(File region, String prefix) throws IOException {
+        long modified = region.lastModified(), size = region.length();
+
+        List<RegionFiles.Villager> villagers = new ArrayList<>();
+        for (EntityChunkReader.Villager villager : RegionFileReader.readVillagers(region, RegionFiles.DATA_KEY).villagers()) {
+            String name = name(villager.data());
+            villagers.add(new RegionFiles.Villager(villager.uuid(), villager.x(), villager.y(), villager.z(), prefix + name.substring(name.indexOf('-'))));
+        }
+        RegionFiles.write(region, Map.of(0, RegionFiles.chunk(villagers, 1)), RegionFiles.NONE, true);
+
+        assertEquals(size, region.length());
+        assertTrue(region.setLastModified(modified));
+    }
+
+    private void assertNames(String prefix) {
+        assertFalse(names.isEmpty());
+        for (String name : names.values()) {
+            assertTrue(name.startsWith(prefix + "-"), name);
+        }
+    }
+
+    private static void assertScanned(List<RegionFiles.Villager> expected, Map<UUID, IVillagerNPC> scanned) {
+        Set<UUID> uuids = new HashSet<>();
+        for (RegionFiles.Villager villager : expected) {
+            uuids.add(villager.uuid());
+        }
+        assertEquals(uuids, scanned.keySet());
+    }
+
+    // The name saved by RegionFiles.Villager#data(), the first field of the compound.
+    private static String name(byte[] data) {
+        try {
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(data));
+            input.readByte();
+            input.readUTF();
+            input.readByte();
+            input.readUTF();
+            return input.readUTF();
+        } catch (IOException exception) {
+            throw new AssertionError(exception);
+        }
+    }
+
+    private static void writeString(DataOutputStream output, String name, String value) throws IOException {
+        output.writeByte(8);
+        output.writeUTF(name);
+        output.writeUTF(value);
+    }
+
+    private static void writeInt(DataOutputStream output, String name, int value) throws IOException {
+        output.writeByte(3);
+        output.writeUTF(name);
+        output.writeInt(value);
+    }
+
+    // Without name, as an element of a list.
+    private static void writeUUID(DataOutputStream output, String name, UUID uuid) throws IOException {
+        if (name != null) {
+            output.writeByte(11);
+            output.writeUTF(name);
+        }
+        output.writeInt(4);
+        output.writeInt((int) (uuid.getMostSignificantBits() >> 32));
+        output.writeInt((int) uuid.getMostSignificantBits());
+        output.writeInt((int) (uuid.getLeastSignificantBits() >> 32));
+        output.writeInt((int) uuid.getLeastSignificantBits());
+    }
+
+    private static void deleteRecursively(File file) throws IOException {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteRecursively(child);
+            }
+        }
+        Files.delete(file.toPath());
+    }
+}
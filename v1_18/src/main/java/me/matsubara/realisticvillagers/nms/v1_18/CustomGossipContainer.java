@@ -25,6 +25,9 @@ public class CustomGossipContainer extends GossipContainer {
 
     private final Map<UUID, EntityGossips> gossips = Maps.newHashMap();
 
+    // Increased on every change, so the saved gossips can be reused until then.
+    private int modCount;
+
     private static final int DISCARD_THRESHOLD = 2;
     private static final Map<GossipType, Integer> MAX_GOSSIP_TYPE_TRANSFER = ImmutableMap.of(
             GossipType.MAJOR_NEGATIVE, 15,
@@ -45,6 +48,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void decay() {
+        modCount++;
         Iterator<EntityGossips> iterator = gossips.values().iterator();
 
         while (iterator.hasNext()) {
@@ -92,6 +96,7 @@ public class CustomGossipContainer extends GossipContainer {
     }
 
     public void transferFrom(@NotNull CustomGossipContainer container, Random random, int topics) {
+        modCount++;
         Collection<GossipEntry> entries = container.selectGossipsForTransfer(random, topics);
         entries.forEach((entry) -> {
             int transfer = entry.value - entry.type.decayPerTransfer;
@@ -116,6 +121,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void add(UUID uuid, GossipType type, int amount) {
+        modCount++;
         EntityGossips gossips = getOrCreate(uuid);
         gossips.entries.mergeInt(type, amount, Integer::sum);
         gossips.makeSureValueIsntTooLow(type);
@@ -129,6 +135,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void remove(UUID uuid, GossipType type) {
+        modCount++;
         EntityGossips gossips = this.gossips.get(uuid);
         if (gossips == null) return;
 
@@ -138,6 +145,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void remove(GossipType type) {
+        modCount++;
         Iterator<EntityGossips> iterator = gossips.values().iterator();
 
         while (iterator.hasNext()) {
@@ -148,9 +156,14 @@ public class CustomGossipContainer extends GossipContainer {
     }
 
     public void clear() {
+        modCount++;
         gossips.clear();
     }
 
+    public int getModCount() {
+        return modCount;
+    }
+
     @Override
     public <T> Dynamic<T> store(DynamicOps<T> ops) {
         return new Dynamic<>(ops, ops.createList(unpack().map((entry) -> entry.store(ops)).map(Dynamic::getValue)));
@@ -158,6 +171,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void update(@NotNull Dynamic<?> dynamic) {
+        modCount++;
         dynamic.asStream().map(GossipEntry::load)
                 .flatMap((result) -> result.result().stream())
                 .forEach((entry) -> getOrCreate(entry.target).entries.put(entry.type, entry.value));
@@ -30,6 +30,8 @@ import me.matsubara.realisticvillagers.nms.v1_19.CustomGossipContainer;
 import me.matsubara.realisticvillagers.nms.v1_19.NMSConverter;
 import me.matsubara.realisticvillagers.nms.v1_19.VillagerFoodData;
 import me.matsubara.realisticvillagers.npc.NPC;
+import me.matsubara.realisticvillagers.tracker.FamilyGraph;
+import me.matsubara.realisticvillagers.tracker.OfflineSnapshotMetrics;
 import me.matsubara.realisticvillagers.tracker.VillagerTracker;
 import me.matsubara.realisticvillagers.util.ItemStackUtils;
 import me.matsubara.realisticvillagers.util.PluginUtils;
@@ -200,6 +202,13 @@ public class VillagerNPC extends Villager implements IVillagerNPC, CrossbowAttac
     private final ItemCooldowns cooldowns = new ItemCooldowns();
     private final VillagerFoodData foodData = new VillagerFoodData(this);
     private final @Setter(AccessLevel.NONE) CustomGossipContainer gossips = new CustomGossipContainer();
+    private @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) OfflineVillagerNPC offlineSnapshot;
+    private @Getter(AccessLevel.NONE) @Setter(AccessLevel.NONE) OfflineState offlineState;
+    private final @Getter(AccessLevel.NONE) EncodedSection<CoreState, CompoundTag> coreSection = new EncodedSection<>();
+    private final @Getter(AccessLevel.NONE) EncodedSection<InventoryState, CompoundTag> inventorySection = new EncodedSection<>();
+    private final @Getter(AccessLevel.NONE) EncodedSection<Integer, CompoundTag> gossipSection = new EncodedSection<>();
+    private final @Getter(AccessLevel.NONE) EncodedSection<FamilyState, CompoundTag> familySection = new EncodedSection<>();
+    private final @Getter(AccessLevel.NONE) EncodedSection<FoodState, CompoundTag> foodSection = new EncodedSection<>();
 
     public static final MemoryModuleType<Boolean> HAS_HELPED_FAMILY_RECENTLY = NMSConverter.registerMemoryType("has_helped_family_recently", Codec.BOOL);
     public static final MemoryModuleType<Boolean> HAS_HEALED_GOLEM_RECENTLY = NMSConverter.registerMemoryType("has_healed_golem_recently", Codec.BOOL);
@@ -423,43 +432,100 @@ public class VillagerNPC extends Villager implements IVillagerNPC, CrossbowAttac
 
     public void savePluginData(CompoundTag tag) {
         CompoundTag villagerTag = new CompoundTag();
+        villagerTag.putInt(OfflineVillagerNPC.DATA_VERSION, OfflineVillagerNPC.CURRENT_DATA_VERSION);
         villagerTag.putUUID(OfflineVillagerNPC.UUID, uuid);
-        villagerTag.put(OfflineVillagerNPC.INVENTORY, inventory.createTag());
-        if (villagerName != null) villagerTag.putString(OfflineVillagerNPC.NAME, villagerName);
-        if (sex != null) villagerTag.putString(OfflineVillagerNPC.SEX, sex);
-        if (partner != null) villagerTag.put(OfflineVillagerNPC.PARTNER, fromOffline(partner));
-        saveCollection(partners, this::fromOffline, OfflineVillagerNPC.PARTNERS, villagerTag);
-        villagerTag.putBoolean(OfflineVillagerNPC.IS_PARTNER_VILLAGER, isPartnerVillager);
-        villagerTag.putLong(OfflineVillagerNPC.LAST_PROCREATION, lastProcreation);
-        villagerTag.putInt(OfflineVillagerNPC.SKIN_TEXTURE_ID, skinTextureId);
-        villagerTag.putInt(OfflineVillagerNPC.KID_SKIN_TEXTURE_ID, kidSkinTextureId);
-        if (father != null) villagerTag.put(OfflineVillagerNPC.FATHER, fromOffline(father));
-        if (mother != null) villagerTag.put(OfflineVillagerNPC.MOTHER, fromOffline(mother));
-        villagerTag.putBoolean(OfflineVillagerNPC.IS_FATHER_VILLAGER, isFatherVillager);
-        villagerTag.putBoolean(OfflineVillagerNPC.WAS_INFECTED, wasInfected);
-        villagerTag.putBoolean(OfflineVillagerNPC.EQUIPPED, equipped);
+        // Every section is only encoded again if it changed since the last save, otherwise the previous one is copied.
+        villagerTag.merge(coreSection.get(state -> state.matches(this), () -> CoreState.of(this), this::saveCore));
+        villagerTag.merge(inventorySection.get(state -> state.matches(this), () -> InventoryState.of(this), this::saveInventory));
+        villagerTag.merge(gossipSection.get(modCount -> modCount == gossips.getModCount(), gossips::getModCount, this::saveGossips));
+        villagerTag.merge(familySection.get(state -> state.matches(this), () -> FamilyState.of(this), this::saveFamily));
+        villagerTag.merge(foodSection.get(state -> state.matches(foodData), () -> FoodState.of(foodData), this::saveFood));
+        tag.put(plugin.getNpcValuesKey().toString(), villagerTag);
+        updateFamily();
+    }
+
+    private @NotNull CompoundTag saveCore() {
+        CompoundTag tag = new CompoundTag();
+        if (villagerName != null) tag.putString(OfflineVillagerNPC.NAME, villagerName);
+        if (sex != null) tag.putString(OfflineVillagerNPC.SEX, sex);
+        tag.putLong(OfflineVillagerNPC.LAST_PROCREATION, lastProcreation);
+        tag.putInt(OfflineVillagerNPC.SKIN_TEXTURE_ID, skinTextureId);
+        tag.putInt(OfflineVillagerNPC.KID_SKIN_TEXTURE_ID, kidSkinTextureId);
+        tag.putBoolean(OfflineVillagerNPC.WAS_INFECTED, wasInfected);
+        tag.putBoolean(OfflineVillagerNPC.EQUIPPED, equipped);
         if (!shoulderEntityLeft.isEmpty()) {
-            villagerTag.put(OfflineVillagerNPC.SHOULDER_ENTITY_LEFT, shoulderEntityLeft);
+            tag.put(OfflineVillagerNPC.SHOULDER_ENTITY_LEFT, shoulderEntityLeft);
         }
         if (!shoulderEntityRight.isEmpty()) {
-            villagerTag.put(OfflineVillagerNPC.SHOULDER_ENTITY_RIGHT, shoulderEntityRight);
+            tag.put(OfflineVillagerNPC.SHOULDER_ENTITY_RIGHT, shoulderEntityRight);
         }
-        villagerTag.put(OfflineVillagerNPC.GOSSIPS, gossips.store(NbtOps.INSTANCE));
-        saveCollection(childrens, this::fromOffline, OfflineVillagerNPC.CHILDRENS, villagerTag);
-        saveCollection(targetEntities, type -> StringTag.valueOf(type.toShortString()), OfflineVillagerNPC.TARGET_ENTITIES, villagerTag);
-        saveCollection(players, NbtUtils::createUUID, OfflineVillagerNPC.PLAYERS, villagerTag);
+        saveCollection(targetEntities, type -> StringTag.valueOf(type.toShortString()), OfflineVillagerNPC.TARGET_ENTITIES, tag);
+        saveCollection(players, NbtUtils::createUUID, OfflineVillagerNPC.PLAYERS, tag);
         if (bedHome != null && bedHomeWorld != null) {
             CompoundTag bedHomeTag = new CompoundTag();
             bedHomeTag.putUUID(OfflineVillagerNPC.BED_HOME_WORLD, bedHomeWorld);
             bedHomeTag.put(OfflineVillagerNPC.BED_HOME_POS, newDoubleList(bedHome.getX(), bedHome.getY(), bedHome.getZ()));
-            villagerTag.put(OfflineVillagerNPC.BED_HOME, bedHomeTag);
+            tag.put(OfflineVillagerNPC.BED_HOME, bedHomeTag);
         }
-        foodData.addAdditionalSaveData(villagerTag);
-        tag.put(plugin.getNpcValuesKey().toString(), villagerTag);
+        return tag;
+    }
+
+    private @NotNull CompoundTag saveInventory() {
+        CompoundTag tag = new CompoundTag();
+        tag.put(OfflineVillagerNPC.INVENTORY, inventory.createTag());
+        return tag;
     }
 
-    private CompoundTag fromOffline(IVillagerNPC villager) {
-        return villager instanceof OfflineVillagerNPC offline ? offline.getTag() : null;
+    private @NotNull CompoundTag saveGossips() {
+        CompoundTag tag = new CompoundTag();
+        tag.put(OfflineVillagerNPC.GOSSIPS, gossips.store(NbtOps.INSTANCE));
+        return tag;
+    }
+
+    private @NotNull CompoundTag saveFamily() {
+        CompoundTag tag = new CompoundTag();
+        // The family is saved as UUIDs, the rest of their data is in the family graph.
+        if (partner != null) tag.putUUID(OfflineVillagerNPC.PARTNER, partner.getUniqueId());
+        saveCollection(partners, this::toUUID, OfflineVillagerNPC.PARTNERS, tag);
+        tag.putBoolean(OfflineVillagerNPC.IS_PARTNER_VILLAGER, isPartnerVillager);
+        if (father != null) tag.putUUID(OfflineVillagerNPC.FATHER, father.getUniqueId());
+        if (mother != null) tag.putUUID(OfflineVillagerNPC.MOTHER, mother.getUniqueId());
+        tag.putBoolean(OfflineVillagerNPC.IS_FATHER_VILLAGER, isFatherVillager);
+        saveCollection(childrens, this::toUUID, OfflineVillagerNPC.CHILDRENS, tag);
+        return tag;
+    }
+
+    private @NotNull CompoundTag saveFood() {
+        CompoundTag tag = new CompoundTag();
+        foodData.addAdditionalSaveData(tag);
+        return tag;
+    }
+
+    private Tag toUUID(@NotNull IVillagerNPC villager) {
+        return NbtUtils.createUUID(villager.getUniqueId());
+    }
+
+    private void updateFamily() {
+        FamilyGraph graph = plugin.getTracker().getFamilyGraph();
+        graph.update(new FamilyGraph.Node(
+                new FamilyGraph.Member(uuid, villagerName, sex, skinTextureId, kidSkinTextureId, true, getBukkitEntity().getWorld().getName()),
+                true,
+                partner != null ? partner.getUniqueId() : null,
+                father != null ? father.getUniqueId() : null,
+                mother != null ? mother.getUniqueId() : null,
+                partners.stream().map(IVillagerNPC::getUniqueId).toList(),
+                childrens.stream().map(IVillagerNPC::getUniqueId).toList()));
+
+        // Needed if they don't exist any more (or are players) when this villager is loaded again.
+        if (partner != null) graph.putRelative(OfflineVillagerNPC.toMember(partner));
+        if (father != null) graph.putRelative(OfflineVillagerNPC.toMember(father));
+        if (mother != null) graph.putRelative(OfflineVillagerNPC.toMember(mother));
+        for (IVillagerNPC family : partners) {
+            graph.putRelative(OfflineVillagerNPC.toMember(family));
+        }
+        for (IVillagerNPC family : childrens) {
+            graph.putRelative(OfflineVillagerNPC.toMember(family));
+        }
     }
 
     private <T> void saveCollection(@NotNull Collection<T> collection, Function<T, Tag> mapper, String name, CompoundTag tag) {
@@ -493,6 +559,11 @@ public class VillagerNPC extends Villager implements IVillagerNPC, CrossbowAttac
     public void loadPluginData(@NotNull CompoundTag villagerTag) {
         VillagerTracker tracker = plugin.getTracker();
 
+        // Data saved by older versions has the family embedded, it'll be saved as UUIDs the next time.
+        if (villagerTag.getInt(OfflineVillagerNPC.DATA_VERSION) < OfflineVillagerNPC.CURRENT_DATA_VERSION) {
+            OfflineVillagerNPC.recordFamily(tracker.getFamilyGraph(), villagerTag, null);
+        }
+
         if (villagerTag.hasUUID(OfflineVillagerNPC.UUID)) setUUID(villagerTag.getUUID(OfflineVillagerNPC.UUID));
         inventory.fromTag(villagerTag.getList(OfflineVillagerNPC.INVENTORY, 10));
         villagerName = villagerTag.getString(OfflineVillagerNPC.NAME);
@@ -570,7 +641,7 @@ public class VillagerNPC extends Villager implements IVillagerNPC, CrossbowAttac
 
         if (tag.hasUUID(who)) {
             UUID uuid = tag.getUUID(who);
-            return isVillager ? plugin.getTracker().getOffline(uuid) : dummyPlayerOffline(uuid);
+            return isVillager ? OfflineVillagerNPC.fromFamily(plugin.getTracker(), uuid) : dummyPlayerOffline(uuid);
         } else {
             return OfflineVillagerNPC.from(tag.getCompound(who));
         }
@@ -976,6 +1047,9 @@ public class VillagerNPC extends Villager implements IVillagerNPC, CrossbowAttac
             player.getBukkitEntity().getPersistentDataContainer().remove(plugin.getMarriedWith());
             partners.add(dummyPlayerOffline(player.getUUID()));
         }
+
+        // Update the offline data so the villager is no longer found as family of the player.
+        plugin.getTracker().updateData(getBukkitEntity());
     }
 
     @Override
@@ -1148,6 +1222,7 @@ public class VillagerNPC extends Villager implements IVillagerNPC, CrossbowAttac
 
                 if (turns == 2) {
                     shakingHead = false;
+                    plugin.getTracker().updateView(VillagerNPC.this);
 
                     if (shakingHeadAt.getBukkitEntity().isOnline()) {
                         getLookControl().setLookAt(shakingHeadAt);
@@ -1164,19 +1239,179 @@ public class VillagerNPC extends Villager implements IVillagerNPC, CrossbowAttac
         }.runTaskTimer(plugin, 4L, 1L);
 
         shakingHead = true;
+        plugin.getTracker().updateView(this);
     }
 
     @Override
     public IVillagerNPC getOffline() {
+        long start = System.nanoTime();
+        String world = level.getWorld().getName();
+
+        // Nothing saved in the snapshot changed, only the position may be different.
+        if (offlineSnapshot != null && offlineState.matches(this)) {
+            OfflineSnapshotMetrics.hit();
+            return offlineSnapshot = offlineSnapshot.at(world, getX(), getY(), getZ());
+        }
+
+        offlineState = OfflineState.of(this);
+
         CompoundTag tag = new CompoundTag();
         savePluginData(tag);
 
-        return OfflineVillagerNPC.from(uuid,
+        offlineSnapshot = OfflineVillagerNPC.from(uuid,
                 (CompoundTag) tag.get(plugin.getNpcValuesKey().toString()),
-                level.getWorld().getName(),
+                world,
                 getX(),
                 getY(),
                 getZ());
+
+        OfflineSnapshotMetrics.miss(System.nanoTime() - start);
+        return offlineSnapshot;
+    }
+
+    // A copy of the data saved by savePluginData() when the offline snapshot was created, compared value by value to know if it's outdated.
+    // These fields are modified from many places (setters, collections, inventory), so they aren't marked as dirty one by one.
+    // The gossips aren't included, offline villagers don't use them.
+    // The states below are also kept with the sections encoded by savePluginData().
+    private record OfflineState(CoreState core, FamilyState family, int foodLevel, InventoryState inventory) {
+
+        private static @NotNull OfflineState of(@NotNull VillagerNPC npc) {
+            return new OfflineState(CoreState.of(npc), FamilyState.of(npc), npc.foodData.getFoodLevel(), InventoryState.of(npc));
+        }
+
+        private boolean matches(@NotNull VillagerNPC npc) {
+            return foodLevel == npc.foodData.getFoodLevel()
+                    && core.matches(npc)
+                    && family.matches(npc)
+                    && inventory.matches(npc);
+        }
+    }
+
+    private record CoreState(
+            String villagerName,
+            String sex,
+            long lastProcreation,
+            int skinTextureId,
+            int kidSkinTextureId,
+            boolean wasInfected,
+            boolean equipped,
+            CompoundTag shoulderEntityLeft,
+            CompoundTag shoulderEntityRight,
+            Set<EntityType<?>> targetEntities,
+            Set<UUID> players,
+            BlockPos bedHome,
+            UUID bedHomeWorld) {
+
+        private static @NotNull CoreState of(@NotNull VillagerNPC npc) {
+            return new CoreState(
+                    npc.villagerName,
+                    npc.sex,
+                    npc.lastProcreation,
+                    npc.skinTextureId,
+                    npc.kidSkinTextureId,
+                    npc.wasInfected,
+                    npc.equipped,
+                    npc.shoulderEntityLeft.copy(),
+                    npc.shoulderEntityRight.copy(),
+                    Set.copyOf(npc.targetEntities),
+                    Set.copyOf(npc.players),
+                    npc.bedHome != null ? npc.bedHome.immutable() : null,
+                    npc.bedHomeWorld);
+        }
+
+        private boolean matches(@NotNull VillagerNPC npc) {
+            return lastProcreation == npc.lastProcreation
+                    && skinTextureId == npc.skinTextureId
+                    && kidSkinTextureId == npc.kidSkinTextureId
+                    && wasInfected == npc.wasInfected
+                    && equipped == npc.equipped
+                    && Objects.equals(villagerName, npc.villagerName)
+                    && Objects.equals(sex, npc.sex)
+                    && Objects.equals(bedHome, npc.bedHome)
+                    && Objects.equals(bedHomeWorld, npc.bedHomeWorld)
+                    && targetEntities.equals(npc.targetEntities)
+                    && players.equals(npc.players)
+                    && shoulderEntityLeft.equals(npc.shoulderEntityLeft)
+                    && shoulderEntityRight.equals(npc.shoulderEntityRight);
+        }
+    }
+
+    // Only the UUIDs of the family are saved.
+    private record FamilyState(
+            UUID partner,
+            List<UUID> partners,
+            boolean isPartnerVillager,
+            UUID father,
+            boolean isFatherVillager,
+            UUID mother,
+            List<UUID> childrens) {
+
+        private static @NotNull FamilyState of(@NotNull VillagerNPC npc) {
+            return new FamilyState(
+                    toUUID(npc.partner),
+                    npc.partners.stream().map(IVillagerNPC::getUniqueId).toList(),
+                    npc.isPartnerVillager,
+                    toUUID(npc.father),
+                    npc.isFatherVillager,
+                    toUUID(npc.mother),
+                    npc.childrens.stream().map(IVillagerNPC::getUniqueId).toList());
+        }
+
+        private boolean matches(@NotNull VillagerNPC npc) {
+            return isPartnerVillager == npc.isPartnerVillager
+                    && isFatherVillager == npc.isFatherVillager
+                    && Objects.equals(partner, toUUID(npc.partner))
+                    && Objects.equals(father, toUUID(npc.father))
+                    && Objects.equals(mother, toUUID(npc.mother))
+                    && sameUUIDs(partners, npc.partners)
+                    && sameUUIDs(childrens, npc.childrens);
+        }
+
+        private static @Nullable UUID toUUID(@Nullable IVillagerNPC villager) {
+            return villager != null ? villager.getUniqueId() : null;
+        }
+
+        private static boolean sameUUIDs(@NotNull List<UUID> uuids, @NotNull List<IVillagerNPC> villagers) {
+            if (uuids.size() != villagers.size()) return false;
+            for (int i = 0; i < uuids.size(); i++) {
+                if (!uuids.get(i).equals(villagers.get(i).getUniqueId())) return false;
+            }
+            return true;
+        }
+    }
+
+    private record FoodState(int foodLevel, int tickTimer, float saturationLevel, float exhaustionLevel) {
+
+        private static @NotNull FoodState of(@NotNull VillagerFoodData data) {
+            return new FoodState(data.getFoodLevel(), data.getTickTimer(), data.getSaturationLevel(), data.getExhaustionLevel());
+        }
+
+        private boolean matches(@NotNull VillagerFoodData data) {
+            return foodLevel == data.getFoodLevel()
+                    && tickTimer == data.getTickTimer()
+                    && Float.compare(saturationLevel, data.getSaturationLevel()) == 0
+                    && Float.compare(exhaustionLevel, data.getExhaustionLevel()) == 0;
+        }
+    }
+
+    // The items may also be modified directly (without the container knowing), so they're copied and compared one by one.
+    private record InventoryState(List<ItemStack> items) {
+
+        private static @NotNull InventoryState of(@NotNull VillagerNPC npc) {
+            List<ItemStack> items = new ArrayList<>(npc.inventory.getContainerSize());
+            for (int i = 0; i < npc.inventory.getContainerSize(); i++) {
+                items.add(npc.inventory.getItem(i).copy());
+            }
+            return new InventoryState(items);
+        }
+
+        private boolean matches(@NotNull VillagerNPC npc) {
+            if (items.size() != npc.inventory.getContainerSize()) return false;
+            for (int i = 0; i < items.size(); i++) {
+                if (!ItemStack.matches(items.get(i), npc.inventory.getItem(i))) return false;
+            }
+            return true;
+        }
     }
 
     @Override
@@ -1862,6 +2097,8 @@ public class VillagerNPC extends Villager implements IVillagerNPC, CrossbowAttac
     @Override
     public void tick() {
         super.tick();
+        // Keep the NPC in the right place of the visibility index (including teleports).
+        plugin.getTracker().getPool().move(getId(), getBukkitEntity().getWorld(), getX(), getY(), getZ());
         cooldowns.tick();
         foodData.tick();
 
@@ -1882,6 +2119,7 @@ public class VillagerNPC extends Villager implements IVillagerNPC, CrossbowAttac
 
         if (revivingTicks > 0) {
             revivingTicks--;
+            if (revivingTicks == 0) plugin.getTracker().updateView(this);
         }
 
         if (expectingTicks > 0) {
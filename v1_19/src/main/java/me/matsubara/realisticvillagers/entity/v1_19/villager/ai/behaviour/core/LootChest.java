@@ -314,11 +314,10 @@ public class LootChest extends Behavior<Villager> implements Exchangeable {
 
     private void containerAction(@NotNull VillagerNPC npc, ServerLevel level, boolean open, boolean isOpen) {
         ChestManager chestManager = npc.getPlugin().getChestManager();
-        Map<Vector, UUID> chests = chestManager.getVillagerChests();
         if (open) {
-            chests.put(vector(), npc.getUUID());
+            chestManager.startLooting(chest, npc.getUUID());
         } else {
-            chests.remove(vector());
+            chestManager.stopLooting(chest);
         }
 
         // If chest is open by one or more players and a villager close it, don't play animation nor sound.
@@ -18,6 +18,9 @@ import me.matsubara.realisticvillagers.entity.v1_19.villager.OfflineVillagerNPC;
 import me.matsubara.realisticvillagers.entity.v1_19.villager.VillagerNPC;
 import me.matsubara.realisticvillagers.files.Config;
 import me.matsubara.realisticvillagers.nms.INMSConverter;
+import me.matsubara.realisticvillagers.tracker.EntityChunkReader;
+import me.matsubara.realisticvillagers.tracker.RegionScanner;
+import me.matsubara.realisticvillagers.tracker.VillagerSummary;
 import me.matsubara.realisticvillagers.util.PluginUtils;
 import me.matsubara.realisticvillagers.util.Reflection;
 import net.minecraft.core.BlockPos;
@@ -51,11 +54,8 @@ import net.minecraft.world.entity.schedule.Activity;
 import net.minecraft.world.entity.schedule.Schedule;
 import net.minecraft.world.entity.schedule.ScheduleBuilder;
 import net.minecraft.world.entity.schedule.Timeline;
-import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.GameRules;
-import net.minecraft.world.level.chunk.storage.RegionFile;
 import net.minecraft.world.level.storage.PrimaryLevelData;
-import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.bukkit.*;
 import org.bukkit.configuration.ConfigurationSection;
@@ -107,10 +107,6 @@ public class NMSConverter implements INMSConverter {
 
     private static final RandomSource RANDOM = RandomSource.create();
     private static final Map<String, Activity> ACTIVITIES;
-    private static final FilenameFilter DATA_FILE_FILTER = (directory, name) -> new File(directory, name).isFile()
-            && name.endsWith(".mca")
-            && !name.contains("backup")
-            && !name.contains("mcc");
 
     static {
         try {
@@ -304,29 +300,9 @@ public class NMSConverter implements INMSConverter {
     }
 
     @Override
-    public void loadData() {
-        File root = plugin.getServer().getWorldContainer();
-
-        File[] worlds = root.listFiles(file -> {
-            String[] files;
-            return file.isDirectory()
-                    && (files = file.list()) != null
-                    && ArrayUtils.contains(files, "level.dat");
-        });
-
-        if (worlds == null) return;
-
-        for (File world : worlds) {
-            File entitiesFolder = new File(world, "entities");
-
-            File[] entitiesFiles = entitiesFolder.listFiles(DATA_FILE_FILTER);
-            if (entitiesFiles == null) continue;
-
-            // Iterate through all .mca files in "entities" folder.
-            for (File entityFile : entitiesFiles) {
-                checkMCAFile(entityFile);
-            }
-        }
+    public Map<UUID, IVillagerNPC> loadData() {
+        List<File> regions = RegionScanner.getEntityRegions(plugin.getServer().getWorldContainer());
+        return new RegionScanner(plugin).scan(regions, this::toOffline, this::toOffline);
     }
 
     @Override
@@ -458,55 +434,31 @@ public class NMSConverter implements INMSConverter {
         }
     }
 
-    private void checkMCAFile(@NotNull File entityFile) {
+    private @Nullable IVillagerNPC toOffline(String world, @NotNull EntityChunkReader.Villager villager) {
+        CompoundTag data;
         try {
-            RegionFile region = new RegionFile(entityFile.toPath(), entityFile.getParentFile().toPath(), false);
-            String world = entityFile.getParentFile().getParentFile().getName();
-
-            for (int x = 0; x < 32; x++) {
-                for (int z = 0; z < 32; z++) {
-                    checkRegion(region, world, x, z);
-                }
-            }
-
-            region.close();
-        } catch (IOException | IllegalArgumentException ignored) {
-            // Invalid region file, caused by the server software in most of the cases; ignoring to prevent spam.
+            data = NbtIo.read(new DataInputStream(new ByteArrayInputStream(villager.data())));
+        } catch (IOException exception) {
+            return null;
         }
-    }
-
-    private void checkRegion(@NotNull RegionFile region, String world, int x, int z) throws IOException {
-        ChunkPos chunkPos = new ChunkPos(x, z);
-        if (!region.hasChunk(chunkPos)) return;
-
-        DataInputStream stream = region.getChunkDataInputStream(chunkPos);
-        if (stream == null) return;
-
-        CompoundTag chunkTag = NbtIo.read(stream);
+        if (data.isEmpty()) return null;
 
-        stream.close();
+        OfflineVillagerNPC.recordFamily(plugin.getTracker().getFamilyGraph(), data, world);
 
-        for (Tag tag : chunkTag.getList("Entities", 10)) {
-            if (!(tag instanceof CompoundTag compound)) continue;
-            if (!compound.getString("id").equals("minecraft:villager")) continue;
-            if (!compound.hasUUID("UUID")) continue;
-
-            CompoundTag bukkit = getOrCreateBukkitTag(compound);
-            CompoundTag data = bukkit.getCompound(plugin.getNpcValuesKey().toString());
-            if (data.isEmpty()) continue;
+        return OfflineVillagerNPC.from(villager.uuid(), data, villager.data(), world, villager.x(), villager.y(), villager.z());
+    }
 
-            ListTag pos = compound.getList("Pos", 6);
-            double xc = pos.getDouble(0);
-            double yc = pos.getDouble(1);
-            double zc = pos.getDouble(2);
+    private @Nullable IVillagerNPC toOffline(String world, @NotNull VillagerSummary summary, Supplier<byte[]> loader) {
+        // The embedded family of older versions is only in the full data.
+        if (summary.embeddedFamily()) {
+            byte[] data = loader.get();
+            if (data == null) return null;
+            return toOffline(world, new EntityChunkReader.Villager(summary.uuid(), summary.x(), summary.y(), summary.z(), data));
+        }
 
-            UUID uuid = compound.getUUID("UUID");
+        plugin.getTracker().getFamilyGraph().merge(summary.toNode(world));
 
-            Set<IVillagerNPC> offlines = plugin.getTracker().getOfflineVillagers();
-            if (offlines.stream().noneMatch(npc -> npc.getUniqueId().equals(uuid))) {
-                offlines.add(OfflineVillagerNPC.from(uuid, data, world, xc, yc, zc));
-            }
-        }
+        return OfflineVillagerNPC.from(summary, loader, world);
     }
 
     public static <T> void unfreezeRegistry(Registry<T> registry) {
@@ -28,6 +28,9 @@ public class CustomGossipContainer extends GossipContainer {
 
     private final Map<UUID, CustomGossipContainer.EntityGossips> gossips = Maps.newHashMap();
 
+    // Increased on every change, so the saved gossips can be reused until then.
+    private int modCount;
+
     private static final int DISCARD_THRESHOLD = 2;
     private static final Map<GossipType, Integer> MAX_GOSSIP_TYPE_TRANSFER = ImmutableMap.of(
             GossipType.MAJOR_NEGATIVE, 15,
@@ -48,6 +51,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void decay() {
+        modCount++;
         Iterator<CustomGossipContainer.EntityGossips> iterator = gossips.values().iterator();
 
 
@@ -96,6 +100,7 @@ public class CustomGossipContainer extends GossipContainer {
     }
 
     public void transferFrom(@NotNull CustomGossipContainer container, RandomSource random, int topics) {
+        modCount++;
         Collection<CustomGossipContainer.GossipEntry> entries = container.selectGossipsForTransfer(random, topics);
         entries.forEach((entry) -> {
             int transfer = entry.value - entry.type.decayPerTransfer;
@@ -120,6 +125,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void add(UUID uuid, GossipType type, int amount) {
+        modCount++;
         CustomGossipContainer.EntityGossips gossips = getOrCreate(uuid);
         gossips.entries.mergeInt(type, amount, Integer::sum);
         gossips.makeSureValueIsntTooLow(type);
@@ -133,6 +139,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void remove(UUID uuid, GossipType type) {
+        modCount++;
         CustomGossipContainer.EntityGossips gossips = this.gossips.get(uuid);
         if (gossips == null) return;
 
@@ -142,6 +149,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void remove(GossipType type) {
+        modCount++;
         Iterator<CustomGossipContainer.EntityGossips> iterator = gossips.values().iterator();
 
         while (iterator.hasNext()) {
@@ -152,9 +160,14 @@ public class CustomGossipContainer extends GossipContainer {
     }
 
     public void clear() {
+        modCount++;
         gossips.clear();
     }
 
+    public int getModCount() {
+        return modCount;
+    }
+
     @Override
     public <T> T store(DynamicOps<T> ops) {
         return GossipEntry.LIST_CODEC
@@ -165,6 +178,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void update(@NotNull Dynamic<?> dynamic) {
+        modCount++;
         GossipEntry.LIST_CODEC.decode(dynamic)
                 .resultOrPartial((string) -> LogUtils.getLogger().warn("Failed to deserialize gossips: {}", string))
                 .stream().flatMap((pair) -> pair.getFirst().stream())
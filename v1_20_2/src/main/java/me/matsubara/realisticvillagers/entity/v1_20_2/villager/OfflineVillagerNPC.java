@@ -1,7 +1,6 @@
 package me.matsubara.realisticvillagers.entity.v1_20_2.villager;
 
 import lombok.Getter;
-import lombok.Setter;
 import me.matsubara.realisticvillagers.RealisticVillagers;
 import me.matsubara.realisticvillagers.data.ExpectingType;
 import me.matsubara.realisticvillagers.data.HandleHomeResult;
@@ -9,6 +8,9 @@ import me.matsubara.realisticvillagers.data.InteractType;
 import me.matsubara.realisticvillagers.data.LastKnownPosition;
 import me.matsubara.realisticvillagers.entity.IVillagerNPC;
 import me.matsubara.realisticvillagers.event.VillagerExhaustionEvent;
+import me.matsubara.realisticvillagers.tracker.FamilyGraph;
+import me.matsubara.realisticvillagers.tracker.OfflineTagStore;
+import me.matsubara.realisticvillagers.tracker.VillagerSummary;
 import me.matsubara.realisticvillagers.tracker.VillagerTracker;
 import net.minecraft.nbt.*;
 import net.minecraft.world.entity.EntityType;
@@ -23,21 +25,29 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.*;
 import java.util.*;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
+// Only a small projection (identity, skin and family) is always in memory, the full tag is kept in the OfflineTagStore
+// and decoded when needed. Family copies (embedded in other villagers) and players keep their (small) tag instead.
 @Getter
 public class OfflineVillagerNPC implements IVillagerNPC {
 
     private final RealisticVillagers plugin = JavaPlugin.getPlugin(RealisticVillagers.class);
 
     private final UUID uuid;
-    private @Setter CompoundTag tag;
-    private final List<IVillagerNPC> partners = new ArrayList<>();
-    private final List<IVillagerNPC> childrens = new ArrayList<>();
-    private final Set<EntityType<?>> targetEntities = new HashSet<>();
-    private final Set<UUID> players = new HashSet<>();
     private final LastKnownPosition lastKnownPosition;
+    private final String villagerName;
+    private final String sex;
+    private final int skinTextureId;
+    private final int kidSkinTextureId;
+    private final @Nullable UUID partnerUUID;
+    private final @Nullable UUID fatherUUID;
+    private final @Nullable UUID motherUUID;
+    private final UUID[] childrenUUIDs;
+    private final @Nullable CompoundTag tag;
 
     public static final String UUID = "UUID";
     public static final String INVENTORY = "Inventory";
@@ -63,39 +73,173 @@ public class OfflineVillagerNPC implements IVillagerNPC {
     public static final String SHOULDER_ENTITY_RIGHT = "ShoulderEntityRight";
     public static final String GOSSIPS = "Gossips";
     public static final String PLAYERS = "Players";
+    public static final String DATA_VERSION = "DataVersion";
+    // 2: the family is saved as UUIDs (instead of their whole data).
+    public static final int CURRENT_DATA_VERSION = 2;
+    private static final UUID[] NO_UUIDS = new UUID[0];
     public static final BiFunction<VillagerTracker, Tag, IVillagerNPC> OFFLINE_MAPPER = (tracker, input) -> input instanceof CompoundTag compound ?
             OfflineVillagerNPC.from(compound) :
-            tracker.getOffline(NbtUtils.loadUUID(input));
+            fromFamily(tracker, NbtUtils.loadUUID(input));
 
     public OfflineVillagerNPC(UUID uuid, CompoundTag tag, LastKnownPosition lastKnownPosition) {
+        this(uuid, tag, lastKnownPosition, null, false);
+    }
+
+    private OfflineVillagerNPC(UUID uuid, @NotNull CompoundTag tag, LastKnownPosition lastKnownPosition, byte @Nullable [] encoded, boolean scanned) {
         this.uuid = uuid;
-        this.tag = tag;
         this.lastKnownPosition = lastKnownPosition;
-        VillagerNPC.fillCollection(
-                partners,
-                input -> OfflineVillagerNPC.OFFLINE_MAPPER.apply(plugin.getTracker(), input),
-                PARTNERS,
-                tag);
-        VillagerNPC.fillCollection(
-                childrens,
-                input -> OfflineVillagerNPC.OFFLINE_MAPPER.apply(plugin.getTracker(), input),
-                CHILDRENS,
-                tag);
-        VillagerNPC.fillCollection(
-                targetEntities,
-                input -> EntityType.byString(input.getAsString()).orElse(null),
-                TARGET_ENTITIES,
-                tag);
-        VillagerNPC.fillCollection(
-                players,
-                NbtUtils::loadUUID,
-                OfflineVillagerNPC.PLAYERS,
-                tag);
+        this.villagerName = tag.getString(NAME);
+        this.sex = tag.getString(SEX);
+        this.skinTextureId = tag.getInt(SKIN_TEXTURE_ID);
+        this.kidSkinTextureId = tag.getInt(KID_SKIN_TEXTURE_ID);
+        this.partnerUUID = getFamilyUUID(tag, PARTNER);
+        this.fatherUUID = getFamilyUUID(tag, FATHER);
+        this.motherUUID = getFamilyUUID(tag, MOTHER);
+        this.childrenUUIDs = readFamilyUUIDs(tag, CHILDRENS);
+
+        if (encoded != null) {
+            // The data in the region files is older than anything already in the store (saved while they were being read).
+            OfflineTagStore store = plugin.getTracker().getOfflineTags();
+            if (scanned) store.putIfAbsent(uuid, encoded);
+            else store.put(uuid, encoded);
+            this.tag = null;
+        } else {
+            this.tag = tag;
+        }
+    }
+
+    // Only the summary is known, the full tag stays in the region until it's needed.
+    private OfflineVillagerNPC(@NotNull VillagerSummary summary, LastKnownPosition lastKnownPosition, Supplier<byte[]> loader) {
+        this.uuid = summary.uuid();
+        this.lastKnownPosition = lastKnownPosition;
+        this.villagerName = summary.name();
+        this.sex = summary.sex();
+        this.skinTextureId = summary.skinTextureId();
+        this.kidSkinTextureId = summary.kidSkinTextureId();
+        this.partnerUUID = summary.partner();
+        this.fatherUUID = summary.father();
+        this.motherUUID = summary.mother();
+        this.childrenUUIDs = summary.children().toArray(NO_UUIDS);
+        this.tag = null;
+
+        plugin.getTracker().getOfflineTags().putIfAbsent(uuid, loader);
+    }
+
+    private OfflineVillagerNPC(@NotNull OfflineVillagerNPC other, LastKnownPosition lastKnownPosition) {
+        this.uuid = other.uuid;
+        this.lastKnownPosition = lastKnownPosition;
+        this.villagerName = other.villagerName;
+        this.sex = other.sex;
+        this.skinTextureId = other.skinTextureId;
+        this.kidSkinTextureId = other.kidSkinTextureId;
+        this.partnerUUID = other.partnerUUID;
+        this.fatherUUID = other.fatherUUID;
+        this.motherUUID = other.motherUUID;
+        this.childrenUUIDs = other.childrenUUIDs;
+        this.tag = other.tag;
+    }
+
+    // The same data somewhere else, without saving (or encoding) it again.
+    public OfflineVillagerNPC at(String world, double x, double y, double z) {
+        LastKnownPosition position = new LastKnownPosition(world, x, y, z);
+        return position.equals(lastKnownPosition) ? this : new OfflineVillagerNPC(this, position);
     }
 
+    // The data of a villager itself (not a copy embedded in another one), the full tag goes to the store.
     @Contract("_, _, _, _, _, _ -> new")
     public static @NotNull OfflineVillagerNPC from(UUID uuid, CompoundTag tag, String world, double x, double y, double z) {
-        return new OfflineVillagerNPC(uuid, tag, new LastKnownPosition(world, x, y, z));
+        return new OfflineVillagerNPC(uuid, tag, new LastKnownPosition(world, x, y, z), encode(tag), false);
+    }
+
+    // Same as above, with the tag already encoded (as read from the region files), so it isn't encoded again.
+    // Only stored if there isn't newer data of the villager already.
+    @Contract("_, _, _, _, _, _, _ -> new")
+    public static @NotNull OfflineVillagerNPC from(UUID uuid, CompoundTag tag, byte[] encoded, String world, double x, double y, double z) {
+        return new OfflineVillagerNPC(uuid, tag, new LastKnownPosition(world, x, y, z), encoded, true);
+    }
+
+    // A villager taken from the region index (see RegionScanner), the full tag is read from its region when needed.
+    // Only stored if there isn't newer data of the villager already.
+    @Contract("_, _, _ -> new")
+    public static @NotNull OfflineVillagerNPC from(@NotNull VillagerSummary summary, Supplier<byte[]> loader, String world) {
+        return new OfflineVillagerNPC(summary, new LastKnownPosition(world, summary.x(), summary.y(), summary.z()), loader);
+    }
+
+    // A family member saved as a UUID; the villager if it's still known, otherwise its family record (dead villager, player).
+    // Without a record (the graph wasn't saved before a crash), a member without name is used, so the UUID is saved again.
+    public static @NotNull IVillagerNPC fromFamily(@NotNull VillagerTracker tracker, UUID uuid) {
+        IVillagerNPC offline = tracker.getOffline(uuid);
+        if (offline != null) return offline;
+
+        CompoundTag tag = new CompoundTag();
+
+        FamilyGraph.Member member = tracker.getFamilyGraph().getMember(uuid);
+        if (member == null) return new OfflineVillagerNPC(uuid, tag, LastKnownPosition.ZERO);
+
+        tag.putString(NAME, member.name());
+        if (member.villager()) {
+            tag.putString(SEX, member.sex());
+            tag.putInt(SKIN_TEXTURE_ID, member.skinTextureId());
+            tag.putInt(KID_SKIN_TEXTURE_ID, member.kidSkinTextureId());
+        }
+        return new OfflineVillagerNPC(uuid, tag, LastKnownPosition.ZERO);
+    }
+
+    public static @NotNull FamilyGraph.Member toMember(@NotNull IVillagerNPC npc) {
+        // Players don't have a sex (see VillagerNPC#dummyPlayerOffline()).
+        String sex = npc.getSex();
+        return new FamilyGraph.Member(
+                npc.getUniqueId(),
+                npc.getVillagerName(),
+                sex,
+                npc.getSkinTextureId(),
+                npc.getKidSkinTextureId(),
+                sex != null && !sex.isEmpty(),
+                null);
+    }
+
+    // Adds the family of a villager to the graph. Older versions embedded a full copy of every family member
+    // (with their own family inside), those copies are added too, so they can be saved as UUIDs from now on.
+    public static void recordFamily(@NotNull FamilyGraph graph, @NotNull CompoundTag tag, @Nullable String world) {
+        if (!tag.hasUUID(UUID)) return;
+
+        Set<UUID> seen = new HashSet<>();
+        Deque<CompoundTag> pending = new ArrayDeque<>();
+        pending.add(tag);
+
+        // Breadth-first, the copies nearest to the villager are the most recent ones.
+        CompoundTag current;
+        while ((current = pending.poll()) != null) {
+            if (!current.hasUUID(UUID) || !seen.add(current.getUUID(UUID))) continue;
+
+            boolean own = current == tag;
+            String sex = current.getString(SEX);
+            graph.merge(new FamilyGraph.Node(
+                    new FamilyGraph.Member(
+                            current.getUUID(UUID),
+                            current.getString(NAME),
+                            sex,
+                            current.getInt(SKIN_TEXTURE_ID),
+                            current.getInt(KID_SKIN_TEXTURE_ID),
+                            !sex.isEmpty(),
+                            own ? world : null),
+                    own,
+                    getFamilyUUID(current, PARTNER),
+                    getFamilyUUID(current, FATHER),
+                    getFamilyUUID(current, MOTHER),
+                    Arrays.asList(readFamilyUUIDs(current, PARTNERS)),
+                    Arrays.asList(readFamilyUUIDs(current, CHILDRENS))));
+
+            for (String who : new String[]{PARTNER, FATHER, MOTHER}) {
+                if (current.get(who) instanceof CompoundTag family) pending.add(family);
+            }
+            for (String who : new String[]{PARTNERS, CHILDRENS}) {
+                if (!(current.get(who) instanceof ListTag list)) continue;
+                for (Tag family : list) {
+                    if (family instanceof CompoundTag compound) pending.add(compound);
+                }
+            }
+        }
     }
 
     public static @NotNull OfflineVillagerNPC from(CompoundTag tag) {
@@ -104,13 +248,39 @@ public class OfflineVillagerNPC implements IVillagerNPC {
     }
 
     public CompoundTag getTag() {
-        CompoundTag tag = this.tag.copy();
+        CompoundTag tag = fullTag().copy();
         tag.putUUID(UUID, uuid);
         tag.putString("World", lastKnownPosition.world());
         tag.put("Pos", newDoubleList(lastKnownPosition.x(), lastKnownPosition.y(), lastKnownPosition.z()));
         return tag;
     }
 
+    // Read-only access to the full tag, the one from the store is only decoded once and shared by the recent callers.
+    private @NotNull CompoundTag fullTag() {
+        if (tag != null) return tag;
+
+        CompoundTag full = plugin.getTracker().getOfflineTags().get(uuid, OfflineVillagerNPC::decode);
+        return full != null ? full : new CompoundTag();
+    }
+
+    private static byte @NotNull [] encode(CompoundTag tag) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            NbtIo.write(tag, output);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static @NotNull CompoundTag decode(byte[] data) {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(data))) {
+            return NbtIo.read(input);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
     private @NotNull ListTag newDoubleList(@NotNull double... nums) {
         ListTag list = new ListTag();
         for (double num : nums) {
@@ -126,7 +296,7 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public String getVillagerName() {
-        return tag.getString(NAME);
+        return villagerName;
     }
 
     @Override
@@ -140,45 +310,93 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public IVillagerNPC getPartner() {
-        return getFamily(tag, PARTNER);
+        return partnerUUID != null ? getFamily(fullTag(), PARTNER) : null;
     }
 
     @Override
     public List<IVillagerNPC> getPartners() {
-        return partners;
+        return getOfflines(PARTNERS);
     }
 
     @Override
     public boolean isPartnerVillager() {
-        return tag.getBoolean(IS_PARTNER_VILLAGER);
+        return fullTag().getBoolean(IS_PARTNER_VILLAGER);
     }
 
     @Override
     public IVillagerNPC getFather() {
-        return getFamily(tag, FATHER);
+        return fatherUUID != null ? getFamily(fullTag(), FATHER) : null;
     }
 
     @Override
     public boolean isFatherVillager() {
-        return tag.getBoolean(IS_FATHER_VILLAGER);
+        return fullTag().getBoolean(IS_FATHER_VILLAGER);
     }
 
     @Override
     public IVillagerNPC getMother() {
-        return getFamily(tag, MOTHER);
+        return motherUUID != null ? getFamily(fullTag(), MOTHER) : null;
+    }
+
+    private @NotNull List<IVillagerNPC> getOfflines(String name) {
+        List<IVillagerNPC> offlines = new ArrayList<>();
+        VillagerNPC.fillCollection(
+                offlines,
+                input -> OfflineVillagerNPC.OFFLINE_MAPPER.apply(plugin.getTracker(), input),
+                name,
+                fullTag());
+        return offlines;
     }
 
     private @Nullable IVillagerNPC getFamily(@NotNull CompoundTag tag, String who) {
         if (!tag.contains(who)) return null;
 
         if (tag.hasUUID(who)) {
-            UUID partnerUUID = tag.getUUID(who);
-            return plugin.getTracker().getOffline(partnerUUID);
+            return fromFamily(plugin.getTracker(), tag.getUUID(who));
         } else {
             return OfflineVillagerNPC.from(tag.getCompound(who));
         }
     }
 
+    @Override
+    public @Nullable UUID getPartnerUUID() {
+        return partnerUUID;
+    }
+
+    @Override
+    public @Nullable UUID getFatherUUID() {
+        return fatherUUID;
+    }
+
+    @Override
+    public @Nullable UUID getMotherUUID() {
+        return motherUUID;
+    }
+
+    // Same as getFamily(), without loading the family member.
+    private static @Nullable UUID getFamilyUUID(@NotNull CompoundTag tag, String who) {
+        if (!tag.contains(who)) return null;
+        if (tag.hasUUID(who)) return tag.getUUID(who);
+
+        CompoundTag family = tag.getCompound(who);
+        return family.hasUUID(UUID) ? family.getUUID(UUID) : null;
+    }
+
+    // Same as getFamilyUUID(), for a list (both UUIDs and embedded copies).
+    private static UUID @NotNull [] readFamilyUUIDs(@NotNull CompoundTag tag, String name) {
+        if (!(tag.get(name) instanceof ListTag list) || list.isEmpty()) return NO_UUIDS;
+
+        List<UUID> uuids = new ArrayList<>(list.size());
+        for (Tag family : list) {
+            if (family instanceof CompoundTag compound) {
+                if (compound.hasUUID(UUID)) uuids.add(compound.getUUID(UUID));
+            } else if (family instanceof IntArrayTag) {
+                uuids.add(NbtUtils.loadUUID(family));
+            }
+        }
+        return uuids.toArray(NO_UUIDS);
+    }
+
     @Override
     public boolean isMotherVillager() {
         return true;
@@ -186,7 +404,7 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public List<IVillagerNPC> getChildrens() {
-        return childrens;
+        return getOfflines(CHILDRENS);
     }
 
     @Override
@@ -226,7 +444,7 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public String getSex() {
-        return tag.getString(SEX);
+        return sex;
     }
 
     @Override
@@ -236,7 +454,7 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public int getSkinTextureId() {
-        return tag.getInt(SKIN_TEXTURE_ID);
+        return skinTextureId;
     }
 
     @Override
@@ -246,7 +464,7 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public int getKidSkinTextureId() {
-        return tag.getInt(KID_SKIN_TEXTURE_ID);
+        return kidSkinTextureId;
     }
 
     @Override
@@ -286,6 +504,13 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public boolean isTarget(org.bukkit.entity.EntityType type) {
+        Set<EntityType<?>> targetEntities = new HashSet<>();
+        VillagerNPC.fillCollection(
+                targetEntities,
+                input -> EntityType.byString(input.getAsString()).orElse(null),
+                TARGET_ENTITIES,
+                fullTag());
+
         for (EntityType<?> entityType : targetEntities) {
             if (entityType.toShortString().equalsIgnoreCase(type.name())) return true;
         }
@@ -319,24 +544,22 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public boolean isFamily(UUID uuid, boolean checkPartner) {
-        IVillagerNPC father, mother;
         return (checkPartner && isPartner(uuid))
                 || isChildren(uuid)
-                || ((father = getFather()) != null && father.getUniqueId().equals(uuid))
-                || ((mother = getMother()) != null && mother.getUniqueId().equals(uuid));
+                || (fatherUUID != null && fatherUUID.equals(uuid))
+                || (motherUUID != null && motherUUID.equals(uuid));
     }
 
     private boolean isChildren(UUID uuid) {
-        for (IVillagerNPC npc : childrens) {
-            if (npc.getUniqueId().equals(uuid)) return true;
+        for (UUID children : childrenUUIDs) {
+            if (children.equals(uuid)) return true;
         }
         return false;
     }
 
     @Override
     public boolean isPartner(UUID uuid) {
-        IVillagerNPC partner = getPartner();
-        return partner != null && partner.getUniqueId().equals(uuid);
+        return partnerUUID != null && partnerUUID.equals(uuid);
     }
 
     @Override
@@ -376,7 +599,7 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public long getLastProcreation() {
-        return tag.getLong(LAST_PROCREATION);
+        return fullTag().getLong(LAST_PROCREATION);
     }
 
     @Override
@@ -486,7 +709,7 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public int getFoodLevel() {
-        return tag.getInt("foodLevel");
+        return fullTag().getInt("foodLevel");
     }
 
     @Override
@@ -526,7 +749,7 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public boolean isEquipped() {
-        return tag.getBoolean(EQUIPPED);
+        return fullTag().getBoolean(EQUIPPED);
     }
 
     @Override
@@ -541,7 +764,7 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public Object getShoulderEntityLeft() {
-        return tag.getCompound(OfflineVillagerNPC.SHOULDER_ENTITY_LEFT);
+        return fullTag().getCompound(OfflineVillagerNPC.SHOULDER_ENTITY_LEFT);
     }
 
     @Override
@@ -551,7 +774,7 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public Object getShoulderEntityRight() {
-        return tag.getCompound(OfflineVillagerNPC.SHOULDER_ENTITY_RIGHT);
+        return fullTag().getCompound(OfflineVillagerNPC.SHOULDER_ENTITY_RIGHT);
     }
 
     @Override
@@ -561,7 +784,7 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public boolean isWasInfected() {
-        return tag.getBoolean(OfflineVillagerNPC.WAS_INFECTED);
+        return fullTag().getBoolean(OfflineVillagerNPC.WAS_INFECTED);
     }
 
     @Override
@@ -581,6 +804,12 @@ public class OfflineVillagerNPC implements IVillagerNPC {
 
     @Override
     public Set<UUID> getPlayers() {
+        Set<UUID> players = new HashSet<>();
+        VillagerNPC.fillCollection(
+                players,
+                NbtUtils::loadUUID,
+                OfflineVillagerNPC.PLAYERS,
+                fullTag());
         return players;
     }
 
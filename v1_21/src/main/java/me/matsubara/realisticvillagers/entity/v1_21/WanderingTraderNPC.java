@@ -79,6 +79,13 @@ public class WanderingTraderNPC extends WanderingTrader implements IVillagerNPC,
         setDespawnDelay(48000);
     }
 
+    @Override
+    public void tick() {
+        super.tick();
+        // Keep the NPC in the right place of the visibility index (including teleports).
+        plugin.getTracker().getPool().move(getId(), getBukkitEntity().getWorld(), getX(), getY(), getZ());
+    }
+
     @Override
     public UUID getUniqueId() {
         return uuid;
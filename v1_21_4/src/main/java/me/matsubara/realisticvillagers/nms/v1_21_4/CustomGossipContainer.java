@@ -28,6 +28,9 @@ public class CustomGossipContainer extends GossipContainer {
 
     private final Map<UUID, EntityGossips> gossips = Maps.newHashMap();
 
+    // Increased on every change, so the saved gossips can be reused until then.
+    private int modCount;
+
     private static final int DISCARD_THRESHOLD = 2;
     private static final Map<GossipType, Integer> MAX_GOSSIP_TYPE_TRANSFER = ImmutableMap.of(
             GossipType.MAJOR_NEGATIVE, 15,
@@ -48,6 +51,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void decay() {
+        modCount++;
         Iterator<EntityGossips> iterator = gossips.values().iterator();
         while (iterator.hasNext()) {
             EntityGossips gossips = iterator.next();
@@ -94,6 +98,7 @@ public class CustomGossipContainer extends GossipContainer {
     }
 
     public void transferFrom(@NotNull CustomGossipContainer container, RandomSource random, int topics) {
+        modCount++;
         Collection<GossipEntry> entries = container.selectGossipsForTransfer(random, topics);
         entries.forEach((entry) -> {
             int transfer = entry.value - entry.type.decayPerTransfer;
@@ -118,6 +123,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void add(UUID uuid, GossipType type, int amount) {
+        modCount++;
         EntityGossips gossips = getOrCreate(uuid);
         gossips.entries.mergeInt(type, amount, Integer::sum);
         gossips.makeSureValueIsntTooLow(type);
@@ -131,6 +137,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void remove(UUID uuid, GossipType type) {
+        modCount++;
         EntityGossips gossips = this.gossips.get(uuid);
         if (gossips == null) return;
 
@@ -140,6 +147,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void remove(GossipType type) {
+        modCount++;
         Iterator<EntityGossips> iterator = gossips.values().iterator();
 
         while (iterator.hasNext()) {
@@ -150,9 +158,14 @@ public class CustomGossipContainer extends GossipContainer {
     }
 
     public void clear() {
+        modCount++;
         gossips.clear();
     }
 
+    public int getModCount() {
+        return modCount;
+    }
+
     @Override
     public <T> T store(DynamicOps<T> ops) {
         return GossipEntry.LIST_CODEC
@@ -163,6 +176,7 @@ public class CustomGossipContainer extends GossipContainer {
 
     @Override
     public void update(@NotNull Dynamic<?> dynamic) {
+        modCount++;
         GossipEntry.LIST_CODEC.decode(dynamic)
                 .resultOrPartial((string) -> LogUtils.getLogger().warn("Failed to deserialize gossips: {}", string))
                 .stream().flatMap((pair) -> pair.getFirst().stream())
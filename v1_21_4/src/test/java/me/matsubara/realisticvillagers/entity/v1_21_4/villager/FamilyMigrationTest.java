@@ -0,0 +1,165 @@
+package me.matsubara.realisticvillagers.entity.v1_21_4.villager;
+
+import me.matsubara.realisticvillagers.tracker.FamilyGraph;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.NbtUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Old data (with the family embedded) → family graph (saved and loaded again) → data with UUIDs only.
+class FamilyMigrationTest {
+
+    private static final Logger LOGGER = Logger.getLogger("FamilyMigrationTest");
+
+    private final UUID villager = UUID.randomUUID();
+    private final UUID partner = UUID.randomUUID();
+    private final UUID grandfather = UUID.randomUUID();
+    private final UUID father = UUID.randomUUID();
+    private final UUID mother = UUID.randomUUID();
+    private final UUID exPartner = UUID.randomUUID();
+    private final UUID child = UUID.randomUUID();
+
+    @TempDir
+    Path folder;
+
+    @TempDir
+    Path otherFolder;
+
+    private static CompoundTag member(UUID uuid, String name, String sex) {
+        CompoundTag tag = new CompoundTag();
+        tag.putUUID(OfflineVillagerNPC.UUID, uuid);
+        tag.putString(OfflineVillagerNPC.NAME, name);
+        tag.putString(OfflineVillagerNPC.SEX, sex);
+        tag.putInt(OfflineVillagerNPC.SKIN_TEXTURE_ID, name.length());
+        tag.putInt(OfflineVillagerNPC.KID_SKIN_TEXTURE_ID, name.length() + 100);
+        return tag;
+    }
+
+    private static ListTag list(CompoundTag... tags) {
+        ListTag list = new ListTag();
+        list.addAll(List.of(tags));
+        return list;
+    }
+
+    // As saved before the family graph, every member with its own family inside.
+    private CompoundTag embedded() {
+        CompoundTag partnerTag = member(partner, "Alex", "female");
+        partnerTag.put(OfflineVillagerNPC.FATHER, member(grandfather, "Grandpa", "male"));
+
+        // The child has an older copy of this villager.
+        CompoundTag childTag = member(child, "Kid", "male");
+        childTag.put(OfflineVillagerNPC.FATHER, member(villager, "Old name", "male"));
+
+        CompoundTag tag = member(villager, "Steve", "male");
+        tag.put(OfflineVillagerNPC.PARTNER, partnerTag);
+        tag.putBoolean(OfflineVillagerNPC.IS_PARTNER_VILLAGER, true);
+        tag.put(OfflineVillagerNPC.FATHER, member(father, "Dad", "male"));
+        tag.put(OfflineVillagerNPC.MOTHER, member(mother, "Mom", "female"));
+        tag.putBoolean(OfflineVillagerNPC.IS_FATHER_VILLAGER, true);
+        tag.put(OfflineVillagerNPC.PARTNERS, list(member(exPartner, "Ex", "female")));
+        tag.put(OfflineVillagerNPC.CHILDRENS, list(childTag));
+        return tag;
+    }
+
+    // The same as VillagerNPC#saveFamily(), from the record of the villager.
+    private static CompoundTag uuidsOnly(FamilyGraph.Node node) {
+        FamilyGraph.Member member = node.member();
+        CompoundTag tag = new CompoundTag();
+        tag.putUUID(OfflineVillagerNPC.UUID, member.uuid());
+        tag.putString(OfflineVillagerNPC.NAME, member.name());
+        tag.putString(OfflineVillagerNPC.SEX, member.sex());
+        tag.putInt(OfflineVillagerNPC.SKIN_TEXTURE_ID, member.skinTextureId());
+        tag.putInt(OfflineVillagerNPC.KID_SKIN_TEXTURE_ID, member.kidSkinTextureId());
+        tag.putInt(OfflineVillagerNPC.DATA_VERSION, OfflineVillagerNPC.CURRENT_DATA_VERSION);
+        if (node.partner() != null) tag.putUUID(OfflineVillagerNPC.PARTNER, node.partner());
+        if (node.father() != null) tag.putUUID(OfflineVillagerNPC.FATHER, node.father());
+        if (node.mother() != null) tag.putUUID(OfflineVillagerNPC.MOTHER, node.mother());
+
+        ListTag partners = new ListTag();
+        node.partners().forEach(uuid -> partners.add(NbtUtils.createUUID(uuid)));
+        tag.put(OfflineVillagerNPC.PARTNERS, partners);
+
+        ListTag children = new ListTag();
+        node.children().forEach(uuid -> children.add(NbtUtils.createUUID(uuid)));
+        tag.put(OfflineVillagerNPC.CHILDRENS, children);
+        return tag;
+    }
+
+    @Test
+    void embeddedToGraph() {
+        FamilyGraph graph = new FamilyGraph(folder.toFile(), LOGGER, () -> "world");
+        OfflineVillagerNPC.recordFamily(graph, embedded(), "world");
+
+        FamilyGraph.Node node = graph.get(villager);
+        assertNotNull(node);
+        assertTrue(node.own());
+        assertEquals("Steve", node.member().name());
+        assertEquals("world", node.member().world());
+        assertEquals(partner, node.partner());
+        assertEquals(father, node.father());
+        assertEquals(mother, node.mother());
+        assertEquals(List.of(exPartner), node.partners());
+        assertEquals(List.of(child), node.children());
+
+        // The nested copies are added too (with their own edges), as relatives.
+        assertEquals(7, graph.size());
+        assertFalse(graph.get(partner).own());
+        assertEquals(grandfather, graph.get(partner).father());
+        assertEquals(villager, graph.get(child).father());
+        assertEquals("Grandpa", graph.getMember(grandfather).name());
+        assertEquals("female", graph.getMember(mother).sex());
+        assertEquals("Mom".length(), graph.getMember(mother).skinTextureId());
+        assertTrue(graph.getMember(exPartner).villager());
+    }
+
+    @Test
+    void roundTrip() {
+        FamilyGraph graph = new FamilyGraph(folder.toFile(), LOGGER, () -> "world");
+        OfflineVillagerNPC.recordFamily(graph, embedded(), "world");
+        graph.save();
+
+        // After a restart, the villager is saved with UUIDs only.
+        FamilyGraph loaded = new FamilyGraph(folder.toFile(), LOGGER, () -> "world");
+        assertEquals(graph.size(), loaded.size());
+
+        CompoundTag tag = uuidsOnly(loaded.get(villager));
+        for (String who : new String[]{OfflineVillagerNPC.PARTNER, OfflineVillagerNPC.FATHER, OfflineVillagerNPC.MOTHER}) {
+            assertTrue(tag.hasUUID(who), who);
+            assertNotNull(loaded.getMember(tag.getUUID(who)), who);
+        }
+
+        // Every UUID saved can be resolved with the graph (name, sex and skins).
+        assertEquals("Alex", loaded.getMember(tag.getUUID(OfflineVillagerNPC.PARTNER)).name());
+        assertEquals("Dad", loaded.getMember(tag.getUUID(OfflineVillagerNPC.FATHER)).name());
+        assertEquals("Mom", loaded.getMember(tag.getUUID(OfflineVillagerNPC.MOTHER)).name());
+        assertEquals("Ex", loaded.getMember(NbtUtils.loadUUID(tag.getList(OfflineVillagerNPC.PARTNERS, 11).get(0))).name());
+        assertEquals("Kid", loaded.getMember(NbtUtils.loadUUID(tag.getList(OfflineVillagerNPC.CHILDRENS, 11).get(0))).name());
+
+        // Reading the new data gives the same record.
+        FamilyGraph other = new FamilyGraph(otherFolder.toFile(), LOGGER, () -> "world");
+        OfflineVillagerNPC.recordFamily(other, tag, "world");
+        assertEquals(loaded.get(villager), other.get(villager));
+        assertEquals(1, other.size());
+    }
+
+    // Data saved with UUIDs only doesn't have anything else to migrate.
+    @Test
+    void uuidsOnlyAreNotEmbedded() {
+        FamilyGraph graph = new FamilyGraph(folder.toFile(), LOGGER, () -> "world");
+        OfflineVillagerNPC.recordFamily(graph, embedded(), "world");
+
+        CompoundTag tag = uuidsOnly(graph.get(villager));
+        assertFalse(tag.get(OfflineVillagerNPC.PARTNER) instanceof CompoundTag);
+        for (String name : new String[]{OfflineVillagerNPC.PARTNERS, OfflineVillagerNPC.CHILDRENS}) {
+            tag.getList(name, 11).forEach(uuid -> assertFalse(uuid instanceof CompoundTag));
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package me.matsubara.realisticvillagers.entity.v1_21_4.villager;
+
+import me.matsubara.realisticvillagers.data.EncodedSection;
+import net.minecraft.nbt.*;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Saving 5,000 villagers with one changed field each, encoding every section (as before) vs only the changed ones.
+// The villagers are synthetic (a real VillagerNPC needs a server), with the same sections and tags as VillagerNPC#savePluginData().
+// Run main() from the test classpath.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PluginDataBenchmark {
+
+    private static final int VILLAGERS = 5_000;
+    private static final int INVENTORY_SIZE = 27;
+    private static final int GOSSIPS = 10;
+    private static final int CHILDREN = 3;
+    private static final String[] ITEMS = {"minecraft:bread", "minecraft:iron_sword", "minecraft:wheat", "minecraft:bow", "minecraft:arrow"};
+
+    private final List<SyntheticVillager> villagers = new ArrayList<>(VILLAGERS);
+    private int round;
+
+    private record Item(String id, int count, int damage) {
+    }
+
+    private record CoreState(String name, long lastProcreation, int skinTextureId, Set<UUID> players) {
+    }
+
+    private record FamilyState(UUID partner, UUID father, UUID mother, List<UUID> childrens) {
+    }
+
+    private record FoodState(int foodLevel, float saturationLevel) {
+    }
+
+    private static final class SyntheticVillager {
+
+        private final UUID uuid;
+        private String name;
+        private long lastProcreation;
+        private int skinTextureId;
+        private final Set<UUID> players = new HashSet<>();
+        private final Item[] inventory = new Item[INVENTORY_SIZE];
+        private final Map<UUID, int[]> gossips = new HashMap<>();
+        private int gossipModCount;
+        private UUID partner, father, mother;
+        private final List<UUID> childrens = new ArrayList<>();
+        private int foodLevel = 20;
+        private float saturationLevel = 5.0f;
+
+        private final EncodedSection<CoreState, CompoundTag> coreSection = new EncodedSection<>();
+        private final EncodedSection<List<Item>, CompoundTag> inventorySection = new EncodedSection<>();
+        private final EncodedSection<Integer, CompoundTag> gossipSection = new EncodedSection<>();
+        private final EncodedSection<FamilyState, CompoundTag> familySection = new EncodedSection<>();
+        private final EncodedSection<FoodState, CompoundTag> foodSection = new EncodedSection<>();
+
+        private SyntheticVillager(@NotNull Random random) {
+            uuid = new UUID(random.nextLong(), random.nextLong());
+            name = "Villager" + random.nextInt(1000);
+            skinTextureId = random.nextInt(100);
+            for (int i = 0; i < 4; i++) {
+                players.add(new UUID(random.nextLong(), random.nextLong()));
+            }
+            for (int i = 0; i < INVENTORY_SIZE; i++) {
+                inventory[i] = random.nextInt(3) == 0 ? null : new Item(ITEMS[random.nextInt(ITEMS.length)], 1 + random.nextInt(64), random.nextInt(100));
+            }
+            for (int i = 0; i < GOSSIPS; i++) {
+                gossips.put(new UUID(random.nextLong(), random.nextLong()), new int[]{random.nextInt(5), random.nextInt(200)});
+            }
+            partner = new UUID(random.nextLong(), random.nextLong());
+            father = new UUID(random.nextLong(), random.nextLong());
+            mother = new UUID(random.nextLong(), random.nextLong());
+            for (int i = 0; i < CHILDREN; i++) {
+                childrens.add(new UUID(random.nextLong(), random.nextLong()));
+            }
+        }
+
+        // One field of one section changes between saves.
+        private void change(int field) {
+            switch (field % 5) {
+                case 0 -> lastProcreation++;
+                case 1 -> {
+                    int slot = (int) (lastProcreation % INVENTORY_SIZE);
+                    Item item = inventory[slot];
+                    inventory[slot] = item == null ? new Item(ITEMS[0], 1, 0) : new Item(item.id(), item.count() % 64 + 1, item.damage());
+                }
+                case 2 -> {
+                    gossips.values().iterator().next()[1]++;
+                    gossipModCount++;
+                }
+                case 3 -> childrens.set(0, new UUID(lastProcreation, field));
+                default -> foodLevel = foodLevel == 20 ? 19 : 20;
+            }
+        }
+
+        private @NotNull CompoundTag saveFull() {
+            CompoundTag tag = header();
+            tag.merge(saveCore());
+            tag.merge(saveInventory());
+            tag.merge(saveGossips());
+            tag.merge(saveFamily());
+            tag.merge(saveFood());
+            return tag;
+        }
+
+        private @NotNull CompoundTag saveIncremental() {
+            CompoundTag tag = header();
+            tag.merge(coreSection.get(
+                    state -> state.lastProcreation() == lastProcreation
+                            && state.skinTextureId() == skinTextureId
+                            && state.name().equals(name)
+                            && state.players().equals(players),
+                    () -> new CoreState(name, lastProcreation, skinTextureId, Set.copyOf(players)),
+                    this::saveCore));
+            tag.merge(inventorySection.get(
+                    state -> Arrays.asList(inventory).equals(state),
+                    () -> new ArrayList<>(Arrays.asList(inventory)),
+                    this::saveInventory));
+            tag.merge(gossipSection.get(modCount -> modCount == gossipModCount, () -> gossipModCount, this::saveGossips));
+            tag.merge(familySection.get(
+                    state -> state.partner().equals(partner)
+                            && state.father().equals(father)
+                            && state.mother().equals(mother)
+                            && state.childrens().equals(childrens),
+                    () -> new FamilyState(partner, father, mother, List.copyOf(childrens)),
+                    this::saveFamily));
+            tag.merge(foodSection.get(
+                    state -> state.foodLevel() == foodLevel && Float.compare(state.saturationLevel(), saturationLevel) == 0,
+                    () -> new FoodState(foodLevel, saturationLevel),
+                    this::saveFood));
+            return tag;
+        }
+
+        private @NotNull CompoundTag header() {
+            CompoundTag tag = new CompoundTag();
+            tag.putInt(OfflineVillagerNPC.DATA_VERSION, OfflineVillagerNPC.CURRENT_DATA_VERSION);
+            tag.putUUID(OfflineVillagerNPC.UUID, uuid);
+            return tag;
+        }
+
+        private @NotNull CompoundTag saveCore() {
+            CompoundTag tag = new CompoundTag();
+            tag.putString(OfflineVillagerNPC.NAME, name);
+            tag.putString(OfflineVillagerNPC.SEX, "male");
+            tag.putLong(OfflineVillagerNPC.LAST_PROCREATION, lastProcreation);
+            tag.putInt(OfflineVillagerNPC.SKIN_TEXTURE_ID, skinTextureId);
+            tag.putInt(OfflineVillagerNPC.KID_SKIN_TEXTURE_ID, skinTextureId);
+            tag.putBoolean(OfflineVillagerNPC.WAS_INFECTED, false);
+            tag.putBoolean(OfflineVillagerNPC.EQUIPPED, true);
+            ListTag players = new ListTag();
+            for (UUID player : this.players) {
+                players.add(NbtUtils.createUUID(player));
+            }
+            tag.put(OfflineVillagerNPC.PLAYERS, players);
+            return tag;
+        }
+
+        // Like SimpleContainer#createTag(), but without the registries (a real ItemStack needs a server).
+        private @NotNull CompoundTag saveInventory() {
+            ListTag items = new ListTag();
+            for (int i = 0; i < INVENTORY_SIZE; i++) {
+                Item item = inventory[i];
+                if (item == null) continue;
+
+                CompoundTag itemTag = new CompoundTag();
+                itemTag.putByte("Slot", (byte) i);
+                itemTag.putString("id", item.id());
+                itemTag.putInt("count", item.count());
+                if (item.damage() > 0) {
+                    CompoundTag components = new CompoundTag();
+                    components.putInt("minecraft:damage", item.damage());
+                    itemTag.put("components", components);
+                }
+                items.add(itemTag);
+            }
+
+            CompoundTag tag = new CompoundTag();
+            tag.put(OfflineVillagerNPC.INVENTORY, items);
+            return tag;
+        }
+
+        private @NotNull CompoundTag saveGossips() {
+            ListTag list = new ListTag();
+            for (Map.Entry<UUID, int[]> entry : gossips.entrySet()) {
+                CompoundTag gossip = new CompoundTag();
+                gossip.putUUID("Target", entry.getKey());
+                gossip.putString("Type", "trading");
+                gossip.putInt("Value", entry.getValue()[1]);
+                list.add(gossip);
+            }
+
+            CompoundTag tag = new CompoundTag();
+            tag.put(OfflineVillagerNPC.GOSSIPS, list);
+            return tag;
+        }
+
+        private @NotNull CompoundTag saveFamily() {
+            CompoundTag tag = new CompoundTag();
+            tag.putUUID(OfflineVillagerNPC.PARTNER, partner);
+            tag.put(OfflineVillagerNPC.PARTNERS, new ListTag());
+            tag.putBoolean(OfflineVillagerNPC.IS_PARTNER_VILLAGER, true);
+            tag.putUUID(OfflineVillagerNPC.FATHER, father);
+            tag.putUUID(OfflineVillagerNPC.MOTHER, mother);
+            tag.putBoolean(OfflineVillagerNPC.IS_FATHER_VILLAGER, true);
+            ListTag childrens = new ListTag();
+            for (UUID child : this.childrens) {
+                childrens.add(NbtUtils.createUUID(child));
+            }
+            tag.put(OfflineVillagerNPC.CHILDRENS, childrens);
+            return tag;
+        }
+
+        private @NotNull CompoundTag saveFood() {
+            CompoundTag tag = new CompoundTag();
+            tag.putInt("foodLevel", foodLevel);
+            tag.putInt("foodTickTimer", 0);
+            tag.putFloat("foodSaturationLevel", saturationLevel);
+            tag.putFloat("foodExhaustionLevel", 0.0f);
+            return tag;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        Random random = new Random(20L);
+        for (int i = 0; i < VILLAGERS; i++) {
+            SyntheticVillager villager = new SyntheticVillager(random);
+            // The first save encodes everything.
+            villager.saveIncremental();
+            villagers.add(villager);
+        }
+    }
+
+    @Benchmark
+    public void full(Blackhole blackhole) {
+        round++;
+        for (int i = 0; i < VILLAGERS; i++) {
+            SyntheticVillager villager = villagers.get(i);
+            villager.change(i + round);
+            blackhole.consume(villager.saveFull());
+        }
+    }
+
+    @Benchmark
+    public void incremental(Blackhole blackhole) {
+        round++;
+        for (int i = 0; i < VILLAGERS; i++) {
+            SyntheticVillager villager = villagers.get(i);
+            villager.change(i + round);
+            blackhole.consume(villager.saveIncremental());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PluginDataBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
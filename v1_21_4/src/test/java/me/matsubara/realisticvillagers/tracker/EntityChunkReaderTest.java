@@ -0,0 +1,365 @@
+package me.matsubara.realisticvillagers.tracker;
+
+import net.minecraft.nbt.*;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// EntityChunkReader must find the same villagers (and the same data) as reading the whole chunk with NbtIo.
+// The chunks are random: every tag type, fields in any order (so "id" may come after BukkitValues), and Entities missing, empty or not a list of compounds.
+class EntityChunkReaderTest {
+
+    private static final String DATA_KEY = "realisticvillagers:npc_values";
+    private static final String VILLAGER = "minecraft:villager";
+    private static final int CHUNKS = 2_000;
+    private static final int MAX_DEPTH = 4;
+
+    private final Random random = new Random(22L);
+
+    @Test
+    void sameAsNbtIo() throws IOException {
+        int villagers = 0;
+        for (int i = 0; i < CHUNKS; i++) {
+            villagers += assertSameAsNbtIo(chunk());
+        }
+        assertTrue(villagers > CHUNKS / 2, "Too few villagers: " + villagers);
+    }
+
+    @Test
+    void idAfterBukkitValues() throws IOException {
+        CompoundTag entity = validVillager();
+        byte[] bytes = write(chunk(entity), List.of("Entities"), List.of("BukkitValues", "Pos", "UUID", "id"));
+        assertEquals(1, assertSameAsNbtIo(bytes));
+
+        // The data read before knowing it wasn't a villager is ignored.
+        entity.putString("id", "minecraft:zombie");
+        bytes = write(chunk(entity), List.of("Entities"), List.of("BukkitValues", "Pos", "UUID", "id"));
+        assertEquals(0, assertSameAsNbtIo(bytes));
+    }
+
+    @Test
+    void emptyOrInvalidEntities() throws IOException {
+        CompoundTag chunk = chunk(validVillager());
+        chunk.put("Entities", new ListTag());
+        assertEquals(0, assertSameAsNbtIo(write(chunk)));
+
+        ListTag numbers = new ListTag();
+        numbers.add(IntTag.valueOf(1));
+        numbers.add(IntTag.valueOf(2));
+        chunk.put("Entities", numbers);
+        assertEquals(0, assertSameAsNbtIo(write(chunk)));
+
+        chunk.put("Entities", StringTag.valueOf(VILLAGER));
+        assertEquals(0, assertSameAsNbtIo(write(chunk)));
+
+        chunk.remove("Entities");
+        assertEquals(0, assertSameAsNbtIo(write(chunk)));
+
+        // An empty list saved as a list of compounds.
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(Tag.TAG_COMPOUND);
+        output.writeUTF("");
+        output.writeByte(Tag.TAG_LIST);
+        output.writeUTF("Entities");
+        output.writeByte(Tag.TAG_COMPOUND);
+        output.writeInt(0);
+        output.writeByte(Tag.TAG_END);
+        assertEquals(0, assertSameAsNbtIo(bytes.toByteArray()));
+    }
+
+    // Returns the number of villagers found.
+    private int assertSameAsNbtIo(byte[] bytes) throws IOException {
+        CompoundTag chunk = NbtIo.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        List<EntityChunkReader.Villager> villagers = EntityChunkReader.read(new DataInputStream(new ByteArrayInputStream(bytes)), DATA_KEY);
+
+        List<CompoundTag> expected = new ArrayList<>();
+        if (chunk.get("Entities") instanceof ListTag entities) {
+            for (Tag tag : entities) {
+                if (tag instanceof CompoundTag entity && isVillager(entity)) expected.add(entity);
+            }
+        }
+
+        assertEquals(expected.size(), villagers.size());
+        for (int i = 0; i < expected.size(); i++) {
+            CompoundTag entity = expected.get(i);
+            EntityChunkReader.Villager villager = villagers.get(i);
+
+            int[] uuid = entity.getIntArray("UUID");
+            assertEquals(new UUID((long) uuid[0] << 32 | uuid[1] & 0xFFFFFFFFL, (long) uuid[2] << 32 | uuid[3] & 0xFFFFFFFFL), villager.uuid());
+
+            double[] pos = new double[3];
+            if (entity.get("Pos") instanceof ListTag list && list.getElementType() == Tag.TAG_DOUBLE && list.size() >= 3) {
+                for (int axis = 0; axis < 3; axis++) {
+                    pos[axis] = list.getDouble(axis);
+                }
+            }
+            assertEquals(pos[0], villager.x());
+            assertEquals(pos[1], villager.y());
+            assertEquals(pos[2], villager.z());
+
+            CompoundTag data = NbtIo.read(new DataInputStream(new ByteArrayInputStream(villager.data())));
+            assertEquals(entity.getCompound("BukkitValues").getCompound(DATA_KEY), data);
+        }
+        return expected.size();
+    }
+
+    private static boolean isVillager(CompoundTag entity) {
+        return entity.get("id") instanceof StringTag id
+                && id.getAsString().equals(VILLAGER)
+                && entity.get("UUID") instanceof IntArrayTag uuid
+                && uuid.size() == 4
+                && entity.get("BukkitValues") instanceof CompoundTag values
+                && values.get(DATA_KEY) instanceof CompoundTag;
+    }
+
+    private byte[] chunk() throws IOException {
+        CompoundTag chunk = new CompoundTag();
+        chunk.putInt("DataVersion", 4189);
+        chunk.putIntArray("Position", new int[]{random.nextInt(64), random.nextInt(64)});
+        addRandom(chunk, random.nextInt(3), 0);
+
+        switch (random.nextInt(10)) {
+            case 0 -> {
+                // Without entities.
+            }
+            case 1 -> chunk.put("Entities", new ListTag());
+            case 2 -> chunk.put("Entities", randomList(0));
+            default -> {
+                ListTag entities = new ListTag();
+                int size = random.nextInt(8);
+                for (int i = 0; i < size; i++) {
+                    entities.add(random.nextInt(3) == 0 ? entity() : villager());
+                }
+                chunk.put("Entities", entities);
+            }
+        }
+
+        // Villagers outside the Entities of the chunk aren't read.
+        if (random.nextInt(10) == 0) {
+            CompoundTag decoy = new CompoundTag();
+            ListTag entities = new ListTag();
+            entities.add(villager());
+            decoy.put("Entities", entities);
+            chunk.put("Decoy", decoy);
+        }
+
+        return write(chunk);
+    }
+
+    private static CompoundTag chunk(CompoundTag entity) {
+        CompoundTag chunk = new CompoundTag();
+        chunk.putInt("DataVersion", 4189);
+        ListTag entities = new ListTag();
+        entities.add(entity);
+        chunk.put("Entities", entities);
+        return chunk;
+    }
+
+    // Most of them with the data of this plugin, some with invalid fields.
+    private CompoundTag villager() {
+        CompoundTag entity = entity();
+        entity.putString("id", VILLAGER);
+
+        switch (random.nextInt(40)) {
+            case 0 -> entity.remove("UUID");
+            case 1 -> entity.putIntArray("UUID", new int[]{random.nextInt(), random.nextInt()});
+            default -> {
+                // The one of entity().
+            }
+        }
+
+        int pos = random.nextInt(40);
+        if (pos == 0) {
+            entity.remove("Pos");
+        } else if (pos == 1) {
+            entity.put("Pos", doubles(2));
+        } else if (pos < 4) {
+            entity.put("Pos", doubles(4));
+        } else if (pos == 4) {
+            ListTag floats = new ListTag();
+            for (int axis = 0; axis < 3; axis++) {
+                floats.add(FloatTag.valueOf(random.nextFloat()));
+            }
+            entity.put("Pos", floats);
+        }
+
+        CompoundTag values = new CompoundTag();
+        addRandom(values, random.nextInt(3), 1);
+        if (random.nextInt(20) != 0) {
+            CompoundTag data = new CompoundTag();
+            addRandom(data, 1 + random.nextInt(8), 1);
+            values.put(DATA_KEY, data);
+        } else if (random.nextBoolean()) {
+            values.putString(DATA_KEY, "not a compound");
+        }
+        entity.put("BukkitValues", values);
+        return entity;
+    }
+
+    private CompoundTag validVillager() {
+        CompoundTag entity = villager();
+        entity.putIntArray("UUID", new int[]{1, 2, 3, 4});
+        CompoundTag data = new CompoundTag();
+        data.putString("Name", "Steve");
+        entity.getCompound("BukkitValues").put(DATA_KEY, data);
+        return entity;
+    }
+
+    // Any other entity, sometimes with a (different) data of this plugin.
+    private CompoundTag entity() {
+        CompoundTag entity = new CompoundTag();
+        addRandom(entity, random.nextInt(6), 1);
+        switch (random.nextInt(8)) {
+            case 0 -> {
+                // Without id.
+            }
+            case 1 -> entity.putInt("id", random.nextInt());
+            default -> entity.putString("id", "minecraft:zombie");
+        }
+        entity.putIntArray("UUID", new int[]{random.nextInt(), random.nextInt(), random.nextInt(), random.nextInt()});
+        entity.put("Pos", doubles(3));
+
+        if (random.nextBoolean()) {
+            CompoundTag values = new CompoundTag();
+            CompoundTag data = new CompoundTag();
+            addRandom(data, 1 + random.nextInt(3), 1);
+            values.put(DATA_KEY, data);
+            entity.put("BukkitValues", values);
+        }
+        return entity;
+    }
+
+    private ListTag doubles(int size) {
+        ListTag list = new ListTag();
+        for (int i = 0; i < size; i++) {
+            list.add(DoubleTag.valueOf(random.nextDouble() * 1000.0d - 500.0d));
+        }
+        return list;
+    }
+
+    private void addRandom(CompoundTag compound, int amount, int depth) {
+        for (int i = 0; i < amount; i++) {
+            compound.put(randomString(), randomTag(depth));
+        }
+    }
+
+    private Tag randomTag(int depth) {
+        int type = 1 + random.nextInt(12);
+        if (depth >= MAX_DEPTH && (type == Tag.TAG_LIST || type == Tag.TAG_COMPOUND)) type = Tag.TAG_STRING;
+
+        return switch (type) {
+            case 1 -> ByteTag.valueOf((byte) random.nextInt());
+            case 2 -> ShortTag.valueOf((short) random.nextInt());
+            case 3 -> IntTag.valueOf(random.nextInt());
+            case 4 -> LongTag.valueOf(random.nextLong());
+            case 5 -> FloatTag.valueOf(random.nextFloat());
+            case 6 -> DoubleTag.valueOf(random.nextDouble());
+            case 7 -> {
+                byte[] bytes = new byte[random.nextInt(16)];
+                random.nextBytes(bytes);
+                yield new ByteArrayTag(bytes);
+            }
+            case 8 -> StringTag.valueOf(randomString());
+            case 9 -> randomList(depth);
+            case 10 -> {
+                CompoundTag compound = new CompoundTag();
+                addRandom(compound, random.nextInt(4), depth + 1);
+                yield compound;
+            }
+            case 11 -> new IntArrayTag(random.ints(random.nextInt(8)).toArray());
+            default -> new LongArrayTag(random.longs(random.nextInt(8)).toArray());
+        };
+    }
+
+    // All the elements of the same (random) type.
+    private ListTag randomList(int depth) {
+        ListTag list = new ListTag();
+        int size = random.nextInt(5);
+        Tag first = randomTag(depth + 1);
+        if (size > 0) list.add(first);
+        while (list.size() < size) {
+            Tag next = randomTag(depth + 1);
+            if (next.getId() == first.getId()) list.add(next);
+        }
+        return list;
+    }
+
+    // Mostly ASCII, some of them with characters that modified UTF-8 saves in 2 or 3 bytes (including \0 and surrogates).
+    private String randomString() {
+        StringBuilder builder = new StringBuilder();
+        int length = random.nextInt(12);
+        for (int i = 0; i < length; i++) {
+            builder.append(switch (random.nextInt(10)) {
+                case 0 -> '\0';
+                case 1 -> (char) (0x80 + random.nextInt(0x780));
+                case 2 -> (char) (0x800 + random.nextInt(0xF7FF));
+                default -> (char) ('a' + random.nextInt(26));
+            });
+        }
+        return builder.toString();
+    }
+
+    // The fields of every compound in random order, the order CompoundTag would use isn't the one saved by the server.
+    private byte[] write(CompoundTag chunk) throws IOException {
+        return write(chunk, null, null);
+    }
+
+    // The given fields of the chunk and of its entities are written first, in that order; the rest in random order.
+    private byte[] write(CompoundTag chunk, List<String> chunkOrder, List<String> entityOrder) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(Tag.TAG_COMPOUND);
+        output.writeUTF("");
+        writeCompound(output, chunk, chunkOrder, entityOrder);
+        return bytes.toByteArray();
+    }
+
+    private void writeCompound(DataOutputStream output, CompoundTag compound, List<String> order, List<String> entityOrder) throws IOException {
+        List<String> keys = new ArrayList<>(compound.getAllKeys());
+        Collections.shuffle(keys, random);
+        if (order != null) {
+            keys.removeAll(order);
+            keys.addAll(0, order.stream().filter(compound::contains).toList());
+        }
+
+        for (String key : keys) {
+            Tag tag = compound.get(key);
+            output.writeByte(tag.getId());
+            output.writeUTF(key);
+            if (order != null && key.equals("Entities") && tag instanceof ListTag entities) {
+                writeList(output, entities, entityOrder);
+            } else {
+                writeTag(output, tag);
+            }
+        }
+        output.writeByte(Tag.TAG_END);
+    }
+
+    private void writeTag(DataOutputStream output, Tag tag) throws IOException {
+        if (tag instanceof CompoundTag compound) {
+            writeCompound(output, compound, null, null);
+        } else if (tag instanceof ListTag list) {
+            writeList(output, list, null);
+        } else {
+            tag.write(output);
+        }
+    }
+
+    // An empty list is saved with the type of its elements (as a list that had elements), or without (as a new one).
+    private void writeList(DataOutputStream output, ListTag list, List<String> order) throws IOException {
+        byte type = list.isEmpty() ? random.nextBoolean() ? Tag.TAG_END : Tag.TAG_COMPOUND : list.get(0).getId();
+        output.writeByte(type);
+        output.writeInt(list.size());
+        for (Tag element : list) {
+            if (element instanceof CompoundTag compound) {
+                writeCompound(output, compound, order, null);
+            } else {
+                writeTag(output, element);
+            }
+        }
+    }
+}